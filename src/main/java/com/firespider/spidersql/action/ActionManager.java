@@ -21,6 +21,9 @@ public class ActionManager {
     private final Map<Integer, Action> actionMap = new HashMap<>();
 
 
+    //GET操作结束时输出各阶段的统计
+    private static final boolean METRICS = Boolean.getBoolean("spidersql.metrics");
+
     private final QueueManager queueManager;
     private final ActionChecker checker;
 
@@ -132,13 +135,17 @@ public class ActionManager {
     private Action acceptGet(GenObject element, Integer id) throws IOException {
 
         GenArray value = new GenArray();
-        Action action = new GetAction(id, new GetParam(element), new CompletionHandler<GenElement, Boolean>() {
+        GetMetrics metrics = new GetMetrics();
+        Action action = new GetAction(id, new GetParam(element), metrics, new CompletionHandler<GenElement, Boolean>() {
             @Override
             public void completed(GenElement result, Boolean attachment) {
                 if (attachment) {
                     if (result instanceof GenArray) {
                         result.getAsArray().iterator().forEachRemaining(ele -> queueManager.publish(id, ele));
                     } else {
+                        if (METRICS && isFinished(result, id)) {
+                            printMetrics(id, metrics);
+                        }
                         queueManager.publish(id, result);
                     }
                 } else {
@@ -154,6 +161,21 @@ public class ActionManager {
         return action;
     }
 
+    private static boolean isFinished(GenElement result, Integer id) {
+        return result instanceof GenPrimitive && (id + Action.FINISH_FLAG).equals(result.getAsPrimitive().getAsString());
+    }
+
+    /***
+     * GET操作结束时输出各阶段的统计
+     * @param id
+     * @param metrics
+     */
+    private static void printMetrics(Integer id, GetMetrics metrics) {
+        ParsePool pool = ParsePool.INSTANCE;
+        System.err.println("get " + id + ": " + metrics + " parsePool(threads=" + pool.getThreads()
+                + " blocked=" + pool.getBlocked() + "/" + pool.getBlockedMillis() + "ms)");
+    }
+
     /***
      * 端口扫描预执行方法
      * @param element
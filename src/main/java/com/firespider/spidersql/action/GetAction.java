@@ -1,10 +1,16 @@
 package com.firespider.spidersql.action;
 
+import com.firespider.spidersql.io.net.CachePolicy;
+import com.firespider.spidersql.io.net.CongestionController;
 import com.firespider.spidersql.io.net.Format;
-import com.firespider.spidersql.io.net.HttpAsyncClient;
+import com.firespider.spidersql.io.net.HostScheduler;
+import com.firespider.spidersql.io.net.HttpEngines;
+import com.firespider.spidersql.io.net.IHttpAsyncClient;
+import com.firespider.spidersql.io.net.RequestConfig;
 import com.firespider.spidersql.io.net.Response;
 import com.firespider.spidersql.lang.*;
 import com.firespider.spidersql.action.model.GetParam;
+import com.firespider.spidersql.utils.DnsResolver;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 import org.jsoup.Jsoup;
@@ -12,64 +18,168 @@ import org.jsoup.nodes.Document;
 import us.codecraft.xsoup.Xsoup;
 
 import java.io.*;
+import java.net.ConnectException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
 import java.nio.channels.CompletionHandler;
 import java.nio.charset.Charset;
 import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by xiaotong.shi on 2017/9/14.
  */
 public class GetAction extends Action {
-    private final HttpAsyncClient client;
-
-    private static final int thread = 200;
+    private final IHttpAsyncClient client;
 
     private static final int WHOLE_TIMEOUT = 60 * 60;
 
+    private static final int INIT_WINDOW = 16;
+
+    //等待发送的URL缓冲上限，不小于客户端的并发上限
+    private static final int PENDING_URLS = 1024;
+
+    private final CongestionController controller;
+
+    //解析与网络I/O分开执行
+    private final ParsePool parsePool = ParsePool.INSTANCE;
+
+    private final GetMetrics metrics;
+
+    //解析结果的保留数量，合并的请求几乎同时完成，只需覆盖最近的响应
+    private static final int PARSED_SIZE = 256;
+
+    //合并的请求与缓存命中（含304）共享同一个响应对象，同一响应只解析一次
+    //本操作的filter固定，按响应对象区分；只保留最近的响应，随操作结束释放
+    private final Map<Response, AtomicReference<GenObject>> parsed = Collections.synchronizedMap(
+            new LinkedHashMap<Response, AtomicReference<GenObject>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Response, AtomicReference<GenObject>> eldest) {
+                    return size() > PARSED_SIZE;
+                }
+            });
+
     private enum RESPONSE_TYPE {
         JSON, HTML, STRING;
     }
 
 
     public GetAction(Integer id, GetParam param, CompletionHandler<GenElement, Boolean> handler) throws IOException {
+        this(id, param, new GetMetrics(), handler);
+    }
+
+    /**
+     * @param id
+     * @param param
+     * @param metrics 记录各阶段的统计，由调用方在操作结束后读取
+     * @param handler
+     * @throws IOException
+     */
+    public GetAction(Integer id, GetParam param, GetMetrics metrics, CompletionHandler<GenElement, Boolean> handler) throws IOException {
         super(id, param, handler);
-        client = new HttpAsyncClient(thread, param.getTimeout());
+        this.metrics = metrics;
+        client = HttpEngines.get(param.getEngine());
+        //窗口上限取客户端的并发上限，虚拟线程模式下可达上万
+        controller = new CongestionController(Math.min(INIT_WINDOW, client.getConcurrency()), 1, client.getConcurrency(), param.getRate());
     }
 
     /***
-     * 解析GetParam对象
+     * 本操作的请求配置
      * @param param
+     * @return
      */
-    private List<String> parse(GetParam param) {
-        if (param.getHeader() != null) {
-            client.setHeader(param.getHeader());
-        }
-        if (param.getCharset() != null) {
-            client.setCharset(Charset.forName(param.getCharset()));
-        }
-        return parseUrl(param.getUrl());
+    private RequestConfig parseConfig(GetParam param) {
+        Charset charset = param.getCharset() != null ? Charset.forName(param.getCharset()) : Charset.defaultCharset();
+        return new RequestConfig(param.getHeader(), charset, param.getTimeout(), CachePolicy.parse(param.getCache()));
+    }
+
+    /***
+     * 解析GetParam对象，URL按需逐个生成
+     * @param param
+     */
+    private Iterator<String> parse(GetParam param) {
+        return prefetchHosts(parseUrl(param.getUrl()));
+    }
+
+    /***
+     * 取出URL时预解析其域名，连续的同一域名只解析一次
+     * @param urls
+     * @return
+     */
+    private Iterator<String> prefetchHosts(Iterator<String> urls) {
+        return new Iterator<String>() {
+            private String lastHost;
 
+            @Override
+            public boolean hasNext() {
+                return urls.hasNext();
+            }
+
+            @Override
+            public String next() {
+                String url = urls.next();
+                try {
+                    String host = new URL(url).getHost();
+                    if (!host.equals(lastHost)) {
+                        lastHost = host;
+                        DnsResolver.INSTANCE.prefetch(Collections.singleton(host));
+                    }
+                } catch (MalformedURLException ignored) {
+                }
+                return url;
+            }
+        };
     }
 
     /***
-     * 解析URL
+     * 解析URL，数组中的模板依次展开
      * @param element
      * @return
      */
-    private List<String> parseUrl(GenElement element) {
-        List<String> urlList = new ArrayList<>();
-        if (element instanceof GenArray) {
-            Iterator<GenElement> iterator = element.getAsArray().iterator();
-            while (iterator.hasNext()) {
-                String url = iterator.next().getAsString();
-                urlList.addAll(Format.parseSingleUrl(url));
+    private Iterator<String> parseUrl(GenElement element) {
+        Iterator<GenElement> elements = element instanceof GenArray
+                ? element.getAsArray().iterator()
+                : Collections.singletonList(element).iterator();
+        return new Iterator<String>() {
+            private Iterator<String> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && elements.hasNext()) {
+                    current = Format.compile(elements.next().getAsString()).iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    /***
+     * 解析响应，结果的副本交给调用方
+     * @param response
+     * @param parseMap
+     * @return
+     */
+    private GenObject parseResponse(Response response, Set<Map.Entry> parseMap) {
+        AtomicReference<GenObject> memo = parsed.computeIfAbsent(response, r -> new AtomicReference<>());
+        //同一响应的其他解析线程等待本次解析完成，不同响应互不阻塞
+        synchronized (memo) {
+            if (memo.get() == null) {
+                memo.set(parseBody(response.getBody(), parseMap));
             }
-        } else {
-            urlList.addAll(Format.parseSingleUrl(element.getAsString()));
         }
-        return urlList;
+        return memo.get().deepCopy();
     }
 
     /***
@@ -172,34 +282,76 @@ public class GetAction extends Action {
 
     /***
      * 请求数据
+     * URL按发送进度从生成器拉取，等待发送的URL不超过缓冲上限，进行中的请求不超过拥塞窗口，
+     * 内存占用与URL总数无关；响应在解析线程池中解析
      */
     void handle() throws IOException, InterruptedException {
-        List<String> urlList = parse((GetParam) param);
+        Iterator<String> urls = parse((GetParam) param);
+        RequestConfig config = parseConfig((GetParam) param);
         Set filterMap = ((GetParam) param).getParse().entrySet();
-        CountDownLatch latch = new CountDownLatch(urlList.size());
-        urlList.forEach(url -> {
-            client.handleGet(url, new CompletionHandler<Response, String>() {
-                GenObject obj = new GenObject();
-
+        //URL总数事先未知：计数含发送循环本身，循环结束与全部请求完成后归零
+        AtomicLong remaining = new AtomicLong(1);
+        CountDownLatch latch = new CountDownLatch(1);
+        //按主机排队，轮询发出，避免集中请求同一站点
+        HostScheduler scheduler = new HostScheduler(((GetParam) param).getHostConcurrency(), ((GetParam) param).getHostDelay(),
+                urls, Math.max(PENDING_URLS, client.getConcurrency()));
+        String url;
+        while ((url = scheduler.take()) != null) {
+            //解析跟不上时暂停发送
+            parsePool.awaitCapacity();
+            long start = controller.acquire();
+            remaining.incrementAndGet();
+            client.handleGet(url, config, new CompletionHandler<Response, String>() {
                 @Override
                 public void completed(Response result, String attachment) {
-                    obj = parseBody(result.getBody(), filterMap);
-                    obj.addPrimitive("body", result.getBody());
-                    obj.addPrimitive("url", attachment);
-                    handler.completed(obj, true);
-                    latch.countDown();
+                    long received = System.nanoTime();
+                    metrics.onNetwork(received - start, true);
+                    controller.onSuccess(start);
+                    scheduler.done(attachment);
+                    //解析交给解析线程池，I/O线程立即返回
+                    metrics.onSubmit(parsePool.submit(() -> {
+                        long parseStart = System.nanoTime();
+                        try {
+                            GenObject obj = parseResponse(result, filterMap);
+                            obj.addPrimitive("body", result.getBody());
+                            obj.addPrimitive("url", attachment);
+                            handler.completed(obj, true);
+                        } catch (RuntimeException e) {
+                            //与网络失败相同，以失败结果交给调用方
+                            GenObject obj = new GenObject();
+                            obj.addPrimitive("url", attachment);
+                            handler.completed(obj, false);
+                        } finally {
+                            metrics.onParse(parseStart - received, System.nanoTime() - parseStart);
+                            if (remaining.decrementAndGet() == 0) {
+                                latch.countDown();
+                            }
+                        }
+                    }));
                 }
 
                 @Override
                 public void failed(Throwable exc, String attachment) {
+                    metrics.onNetwork(System.nanoTime() - start, false);
+                    controller.onFailure(start, exc instanceof SocketTimeoutException || exc instanceof ConnectException);
+                    scheduler.done(attachment);
+                    GenObject obj = new GenObject();
                     obj.addPrimitive("url", attachment);
                     handler.completed(obj, false);
-                    latch.countDown();
+                    if (remaining.decrementAndGet() == 0) {
+                        latch.countDown();
+                    }
                 }
             });
-        });
+        }
+        if (remaining.decrementAndGet() == 0) {
+            latch.countDown();
+        }
         latch.await(WHOLE_TIMEOUT, TimeUnit.SECONDS);
-        client.close();
+    }
+
+    public GetMetrics getMetrics() {
+        return metrics;
     }
 
 }
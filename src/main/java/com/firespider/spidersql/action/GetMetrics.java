@@ -0,0 +1,98 @@
+package com.firespider.spidersql.action;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * GET操作各阶段的统计
+ * 网络：取得发送名额到收到响应；排队：收到响应到开始解析；解析：构建DOM/JSON并执行过滤
+ * 解析队列长度在每次提交时采样
+ */
+public class GetMetrics {
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder networkNanos = new LongAdder();
+
+    private final LongAdder queueNanos = new LongAdder();
+
+    private final LongAdder parseNanos = new LongAdder();
+
+    private final LongAdder parsed = new LongAdder();
+
+    private final LongAdder queueDepthSum = new LongAdder();
+
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    void onNetwork(long nanos, boolean success) {
+        requests.increment();
+        if (!success) {
+            failures.increment();
+        }
+        networkNanos.add(nanos);
+    }
+
+    void onSubmit(int queueDepth) {
+        queueDepthSum.add(queueDepth);
+        maxQueueDepth.accumulateAndGet(queueDepth, Math::max);
+    }
+
+    void onParse(long queueNanos, long parseNanos) {
+        parsed.increment();
+        this.queueNanos.add(queueNanos);
+        this.parseNanos.add(parseNanos);
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /***
+     * 平均网络耗时（毫秒）
+     * @return
+     */
+    public double getNetworkMillis() {
+        return average(networkNanos.sum(), requests.sum());
+    }
+
+    /***
+     * 平均排队耗时（毫秒）
+     * @return
+     */
+    public double getQueueMillis() {
+        return average(queueNanos.sum(), parsed.sum());
+    }
+
+    /***
+     * 平均解析耗时（毫秒）
+     * @return
+     */
+    public double getParseMillis() {
+        return average(parseNanos.sum(), parsed.sum());
+    }
+
+    public double getAverageQueueDepth() {
+        long n = parsed.sum();
+        return n == 0 ? 0 : (double) queueDepthSum.sum() / n;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    private static double average(long nanos, long count) {
+        return count == 0 ? 0 : nanos / 1e6 / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("requests=%d failures=%d network=%.1fms queue=%.1fms parse=%.1fms queueDepth(avg=%.1f max=%d)",
+                getRequests(), getFailures(), getNetworkMillis(), getQueueMillis(), getParseMillis(),
+                getAverageQueueDepth(), getMaxQueueDepth());
+    }
+}
@@ -0,0 +1,132 @@
+package com.firespider.spidersql.action;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 响应解析线程池
+ * 线程数与CPU核数相同，与网络I/O线程分开，解析大页面时不占用处理连接的线程
+ * 等待队列有上限：发送方在积压达到上限时暂停发送新请求(awaitCapacity)，
+ * 已发出的请求陆续完成仍使队列已满时，提交解析的I/O线程等待队列空出，解析始终只在本池中进行
+ * 线程数与队列长度分别由系统属性 spidersql.parse.threads、spidersql.parse.queue 指定
+ */
+public class ParsePool {
+    //每个解析线程对应的默认队列长度，排队的响应正文都留在内存中，不宜过长
+    private static final int QUEUE_PER_THREAD = 64;
+
+    private static final int THREADS = Integer.getInteger("spidersql.parse.threads", Runtime.getRuntime().availableProcessors());
+
+    public static final ParsePool INSTANCE = new ParsePool(THREADS,
+            Integer.getInteger("spidersql.parse.queue", Math.max(THREADS, 1) * QUEUE_PER_THREAD));
+
+    private final ThreadPoolExecutor executor;
+
+    //队列已满时提交线程等待的次数与时间
+    private final LongAdder blocked = new LongAdder();
+
+    private final LongAdder blockedNanos = new LongAdder();
+
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    private final int queueSize;
+
+    //已提交尚未完成的任务数，含正在执行的任务
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Object lock = new Object();
+
+    /**
+     * @param threads   解析线程数
+     * @param queueSize 等待队列长度
+     */
+    public ParsePool(int threads, int queueSize) {
+        int n = Math.max(threads, 1);
+        this.queueSize = Math.max(queueSize, 1);
+        AtomicInteger index = new AtomicInteger();
+        RejectedExecutionHandler blockingPolicy = (r, e) -> {
+            long start = System.nanoTime();
+            try {
+                e.getQueue().put(r);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(ex);
+            } finally {
+                blocked.increment();
+                blockedNanos.add(System.nanoTime() - start);
+            }
+        };
+        this.executor = new ThreadPoolExecutor(n, n, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(this.queueSize), r -> {
+            Thread t = new Thread(r, "parse-" + index.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }, blockingPolicy);
+    }
+
+    /***
+     * 提交解析任务
+     * @param task
+     * @return 提交时的队列长度
+     */
+    public int submit(Runnable task) {
+        pending.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                done();
+            }
+        });
+        int depth = executor.getQueue().size();
+        maxQueueDepth.accumulateAndGet(depth, Math::max);
+        return depth;
+    }
+
+    private void done() {
+        if (pending.decrementAndGet() < queueSize) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /***
+     * 等待积压的解析任务低于队列长度，发送新请求前调用
+     * @throws InterruptedException
+     */
+    public void awaitCapacity() throws InterruptedException {
+        synchronized (lock) {
+            while (pending.get() >= queueSize) {
+                lock.wait();
+            }
+        }
+    }
+
+    public int getThreads() {
+        return executor.getCorePoolSize();
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public long getBlocked() {
+        return blocked.sum();
+    }
+
+    /***
+     * 提交线程等待队列空出的总时间（毫秒）
+     * @return
+     */
+    public long getBlockedMillis() {
+        return blockedNanos.sum() / 1000000;
+    }
+}
@@ -1,51 +1,75 @@
 package com.firespider.spidersql.action;
 
 import com.firespider.spidersql.action.model.ScanParam;
-import com.firespider.spidersql.io.net.HttpAsyncClient;
+import com.firespider.spidersql.aio.net.core.ConnectScanner;
+import com.firespider.spidersql.io.net.CongestionController;
+import com.firespider.spidersql.io.net.ScanTargets;
 import com.firespider.spidersql.lang.GenElement;
 import com.firespider.spidersql.lang.GenObject;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.channels.CompletionHandler;
-import java.util.*;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by xiaotong.shi on 2017/9/14.
  */
 public class ScanAction extends Action {
-    private final HttpAsyncClient client;
+    //共享的非阻塞扫描引擎，不再为每条语句创建线程池
+    private final ConnectScanner scanner;
 
-    private final static int thread = 100;
+    private final CongestionController controller;
+
+    private static final int INIT_WINDOW = 100;
+
+    private static final int MAX_WINDOW = 4096;
 
     public ScanAction(Integer id, ScanParam param, CompletionHandler<GenElement, Boolean> handler) throws IOException {
         super(id, param, handler);
-        this.client = new HttpAsyncClient(thread, param.getTimeout());
+        this.scanner = ConnectScanner.INSTANCE;
+        this.controller = new CongestionController(INIT_WINDOW, 1, MAX_WINDOW, param.getRate());
     }
 
     public void handle() throws IOException, InterruptedException {
-        Set<String> hosts = parseHosts(((ScanParam) param).getHost());
-        Set<String> ports = parsePorts(((ScanParam) param).getPort());
-        CountDownLatch latch = new CountDownLatch(hosts.size() * ports.size());
-        for (String host : hosts) {
-            for (String port : ports) {
-                client.handleScanPort(host, port, new CompletionHandler<Boolean, String>() {
-                    @Override
-                    public void completed(Boolean result, String attachment) {
-                        enableHandle(host, port, attachment, result);
+        //目标按区间惰性生成并随机打散，内存占用与扫描规模无关
+        ScanTargets targets = ScanTargets.parse(((ScanParam) param).getHost(), ((ScanParam) param).getPort());
+        targets.prefetch();
+        //目标数可能超出int范围，以long计数，全部完成后释放latch
+        AtomicLong remaining = new AtomicLong(targets.size());
+        CountDownLatch latch = new CountDownLatch(targets.size() == 0 ? 0 : 1);
+        int timeout = param.getTimeout();
+        for (ScanTargets.Target target : targets) {
+            long start = controller.acquire();
+            scanner.scan(target.getAddress(), timeout, new CompletionHandler<Boolean, InetSocketAddress>() {
+                @Override
+                public void completed(Boolean result, InetSocketAddress attachment) {
+                    //端口关闭(RST)同样是有效应答，只有超时视为丢包
+                    if (result || System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(timeout)) {
+                        controller.onSuccess(start);
+                    } else {
+                        controller.onFailure(start, true);
+                    }
+                    String ip = attachment.isUnresolved() ? "" : attachment.getAddress().getHostAddress();
+                    enableHandle(target.getHost(), String.valueOf(target.getPort()), ip, result);
+                    if (remaining.decrementAndGet() == 0) {
                         latch.countDown();
                     }
+                }
 
-                    @Override
-                    public void failed(Throwable exc, String attachment) {
-                        enableHandle(host, port, "", false);
+                @Override
+                public void failed(Throwable exc, InetSocketAddress attachment) {
+                    controller.onFailure(start, false);
+                    enableHandle(target.getHost(), String.valueOf(target.getPort()), "", false);
+                    if (remaining.decrementAndGet() == 0) {
                         latch.countDown();
                     }
-                });
-            }
+                }
+            });
         }
         latch.await();
-        client.close();
     }
 
     /***
@@ -67,63 +91,4 @@ public class ScanAction extends Action {
             e.printStackTrace();
         }
     }
-
-    /***
-     * 解析HOST
-     * 解析url 解析IP
-     * 支持分段
-     */
-    private Set<String> parseHosts(String host) {
-        Set<String> res = new LinkedHashSet<>();
-        for (String h : host.split(",")) {
-            if (Character.isDigit(h.getBytes()[0])) {
-                String[] segments = h.split("\\.");
-                Set<String> segments1 = split(segments[0]);
-                Set<String> segments2 = split(segments[1]);
-                Set<String> segments3 = split(segments[2]);
-                Set<String> segments4 = split(segments[3]);
-                for (String segment1 : segments1) {
-                    for (String segment2 : segments2) {
-                        for (String segment3 : segments3) {
-                            for (String segment4 : segments4) {
-                                res.add(String.join(".", segment1, segment2, segment3, segment4));
-                            }
-                        }
-                    }
-                }
-            } else {
-                res.add(h);
-            }
-        }
-        return res;
-    }
-
-    private Set<String> parsePorts(String port) {
-        Set<String> res = new HashSet<>();
-        for (String p : port.split(",")) {
-            res.addAll(split(p));
-        }
-        return res;
-    }
-
-    private Set<String> split(String str) {
-        String[] nums;
-        Set<String> res = new HashSet<>();
-        if (str.contains("-")) {
-            nums = str.split("-");
-        } else if (str.contains("/")) {
-            nums = str.split("/");
-        } else {
-            res.add(str);
-            return res;
-        }
-        int start = Integer.parseInt(nums[0]);
-        int end = Integer.parseInt(nums[1]);
-        for (int i = start; i <= end; i++) {
-            res.add(String.valueOf(i));
-        }
-        return res;
-    }
-
-
 }
@@ -16,6 +16,18 @@ public class GetParam extends Param {
 
     private Map<String, String> header;
 
+    //单主机最大并发数
+    private int hostConcurrency = 8;
+
+    //同一主机相邻请求的最小间隔（毫秒）
+    private int hostDelay = 0;
+
+    //响应缓存策略：none、revalidate、prefer、refresh
+    private String cache;
+
+    //HTTP引擎：io、aio，为null时使用默认引擎
+    private String engine;
+
     public GetParam(GenObject element) {
         this.url = element.get("url").getAsElement();
         if (element.has("filter")) {
@@ -37,6 +49,21 @@ public class GetParam extends Param {
         if (element.has("timeout")) {
             this.setTimeout(element.get("timeout").getAsInteger());
         }
+        if (element.has("rate")) {
+            this.setRate(element.get("rate").getAsInteger());
+        }
+        if (element.has("hostConcurrency")) {
+            this.hostConcurrency = element.get("hostConcurrency").getAsInteger();
+        }
+        if (element.has("hostDelay")) {
+            this.hostDelay = element.get("hostDelay").getAsInteger();
+        }
+        if (element.has("cache")) {
+            this.cache = element.get("cache").getAsString();
+        }
+        if (element.has("engine")) {
+            this.engine = element.get("engine").getAsString();
+        }
     }
 
     public String getCharset() {
@@ -63,6 +90,38 @@ public class GetParam extends Param {
         this.header = header;
     }
 
+    public int getHostConcurrency() {
+        return hostConcurrency;
+    }
+
+    public void setHostConcurrency(int hostConcurrency) {
+        this.hostConcurrency = hostConcurrency;
+    }
+
+    public int getHostDelay() {
+        return hostDelay;
+    }
+
+    public void setHostDelay(int hostDelay) {
+        this.hostDelay = hostDelay;
+    }
+
+    public String getCache() {
+        return cache;
+    }
+
+    public void setCache(String cache) {
+        this.cache = cache;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+
     public GenObject getParse() {
         return parse;
     }
@@ -6,6 +6,9 @@ package com.firespider.spidersql.action.model;
 public abstract class Param {
     private int timeout = 5000;
 
+    //每秒最大请求数，0表示不限制
+    private int rate = 0;
+
     public int getTimeout() {
         return timeout;
     }
@@ -13,4 +16,12 @@ public abstract class Param {
     public void setTimeout(int timeout) {
         this.timeout = timeout;
     }
+
+    public int getRate() {
+        return rate;
+    }
+
+    public void setRate(int rate) {
+        this.rate = rate;
+    }
 }
@@ -12,6 +12,12 @@ public class ScanParam extends Param{
     public ScanParam(GenObject element){
         this.host = element.get("host").getAsString();
         this.port = element.get("port").getAsString();
+        if (element.has("timeout")) {
+            this.setTimeout(element.get("timeout").getAsInteger());
+        }
+        if (element.has("rate")) {
+            this.setRate(element.get("rate").getAsInteger());
+        }
     }
 
     public String getHost() {
@@ -1,12 +1,18 @@
 package com.firespider.spidersql.aio.net.core;
 
+import com.firespider.spidersql.utils.DnsResolver;
+import com.firespider.spidersql.utils.ProxyPool;
+
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
 import java.net.StandardSocketOptions;
 import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
-import java.nio.channels.SocketChannel;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AsyncSocketExecutor {
 
@@ -14,6 +20,11 @@ public class AsyncSocketExecutor {
 
     private final ExecutorService service;
 
+    private final ConnectionPool connectionPool;
+
+    //代理池为空或为null时直接连接
+    private volatile ProxyPool proxyPool = ProxyPool.INSTANCE;
+
     private static final int THREAD_NUM = 20;
 
     public AsyncSocketExecutor() throws IOException {
@@ -21,48 +32,196 @@ public class AsyncSocketExecutor {
     }
 
     public AsyncSocketExecutor(int threadNum) throws IOException {
-        this.service = Executors.newFixedThreadPool(threadNum);
+        this(threadNum, new ConnectionPool());
+    }
+
+    public AsyncSocketExecutor(int threadNum, ConnectionPool connectionPool) throws IOException {
+        AtomicInteger index = new AtomicInteger();
+        //作为进程内共享的HTTP引擎时长期存在，不阻止进程退出
+        this.service = Executors.newFixedThreadPool(threadNum, r -> {
+            Thread t = new Thread(r, "aio-client-" + index.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
         this.channelGroup = AsynchronousChannelGroup.withThreadPool(service);
+        this.connectionPool = connectionPool;
     }
 
+    /***
+     * 执行会话
+     * 优先复用连接池中的空闲连接，否则新建连接
+     * @param session
+     * @param handler
+     */
     protected void execute(Session session, CompletionHandler<Message, Session> handler) throws IOException, ExecutionException, InterruptedException {
-        AsynchronousSocketChannel sc = AsynchronousSocketChannel.open(this.channelGroup);
         session.setCustomHandler(handler);
-        session.setSocketChannel(sc);
-        sc.setOption(StandardSocketOptions.TCP_NODELAY, true);
-        sc.setOption(StandardSocketOptions.SO_REUSEADDR, true);
-        sc.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
-        sc.connect(session.getAddress(), session, session.getConnectionHandler());
+        session.setExecutor(this);
+        session.setConnectionPool(connectionPool);
+        session.setProxyPool(proxyPool);
+        session.begin();
+        connectionPool.acquire(session, new CompletionHandler<AsynchronousSocketChannel, Session>() {
+            @Override
+            public void completed(AsynchronousSocketChannel channel, Session session) {
+                if (channel != null) {
+                    session.setSocketChannel(channel);
+                    session.setReused(true);
+                    if (session.isExpired()) {
+                        session.handleFail();
+                        return;
+                    }
+                    session.writeToChannel();
+                } else {
+                    connect(session);
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, Session session) {
+                session.handleFail(exc);
+            }
+        });
     }
 
-    protected void scanPort(Session session, CompletionHandler<Boolean, Session> handler) throws IOException {
+    /***
+     * 新建连接，连接池名额已由调用方占用
+     * 代理池非空时先申请代理，连接代理后由代理建立到目标主机的隧道，目标域名交由代理解析
+     * 代理全部停用时申请失败，不改为直接连接
+     * @param session
+     */
+    protected void connect(Session session) {
+        if (!session.beginConnect()) {
+            session.handleFail();
+            return;
+        }
+        ProxyPool pool = this.proxyPool;
+        if (session.getProxy() == null && pool != null && !pool.isEmpty()) {
+            session.setProxyPool(pool);
+            session.acquireProxy(new CompletionHandler<ProxyPool.Node, Void>() {
+                @Override
+                public void completed(ProxyPool.Node result, Void attachment) {
+                    connect(session);
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    session.handleFail(exc);
+                }
+            });
+            return;
+        }
+        boolean proxied = session.getProxy() != null;
+        InetSocketAddress address = proxied ? session.getProxy().getAddress() : session.getAddress();
+        if (address.isUnresolved()) {
+            DnsResolver.INSTANCE.resolve(address.getHostString(), new CompletionHandler<InetAddress, String>() {
+                @Override
+                public void completed(InetAddress result, String host) {
+                    InetSocketAddress resolved = new InetSocketAddress(result, address.getPort());
+                    if (!proxied) {
+                        session.setAddress(resolved);
+                    }
+                    open(session, resolved);
+                }
+
+                @Override
+                public void failed(Throwable exc, String host) {
+                    session.handleFail(exc);
+                }
+            });
+            return;
+        }
+        open(session, address);
+    }
+
+    /***
+     * 打开通道并连接
+     * @param session
+     * @param address 目标主机或代理的地址
+     */
+    private void open(Session session, InetSocketAddress address) {
+        if (session.isExpired()) {
+            session.handleFail();
+            return;
+        }
+        try {
+            session.initSSL();
+            AsynchronousSocketChannel sc = AsynchronousSocketChannel.open(this.channelGroup);
+            session.setSocketChannel(sc);
+            session.setReused(false);
+            sc.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            sc.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            sc.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            sc.connect(address, session, session.getConnectionHandler());
+        } catch (IOException e) {
+            session.handleFail(e);
+        }
+    }
+
+    /***
+     * 设置代理池，为null时直接连接
+     * @param proxyPool
+     */
+    public void setProxyPool(ProxyPool proxyPool) {
+        this.proxyPool = proxyPool;
+    }
+
+    public ProxyPool getProxyPool() {
+        return proxyPool;
+    }
 
-        this.service.execute(() -> {
+    /***
+     * 延迟执行任务，由会话共用的时间轮调度，任务在时间轮线程中执行
+     * @param task
+     * @param delay
+     * @param unit
+     * @return
+     */
+    protected TimerWheel.Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return Session.TIMER.schedule(task, delay, unit);
+    }
+
+    /***
+     * 在线程池中执行任务
+     * @param task
+     */
+    void dispatch(Runnable task) {
+        service.execute(task);
+    }
+
+    /***
+     * 端口扫描，由非阻塞扫描引擎完成，不占用线程池
+     * @param session
+     * @param handler
+     */
+    protected void scanPort(Session session, CompletionHandler<Boolean, Session> handler) throws IOException {
+        InetSocketAddress address = session.getAddress();
+        if (address.isUnresolved()) {
             try {
-                AsynchronousSocketChannel sc = AsynchronousSocketChannel.open(this.channelGroup);
-                session.setCustomHandler(handler);
-                session.setSocketChannel(sc);
-                sc.connect(session.getAddress()).get(100L, TimeUnit.MILLISECONDS);
-                handler.completed(true, session);
-            } catch (InterruptedException | ExecutionException | IOException | TimeoutException e) {
+                address = new InetSocketAddress(DnsResolver.INSTANCE.resolve(address.getHostString()), address.getPort());
+                session.setAddress(address);
+            } catch (UnknownHostException e) {
                 handler.completed(false, session);
+                return;
             }
-        });
+        }
+        try {
+            ConnectScanner.INSTANCE.scan(address, session.getTimeout() * 1000, new CompletionHandler<Boolean, InetSocketAddress>() {
+                @Override
+                public void completed(Boolean result, InetSocketAddress attachment) {
+                    handler.completed(result, session);
+                }
 
-//        sc.connect(session.getAddress(), session, new CompletionHandler<Void, Session>() {
-//            @Override
-//            public void completed(Void result, Session attachment) {
-//                handler.completed(true, session);
-//            }
-//
-//            @Override
-//            public void failed(Throwable exc, Session attachment) {
-//                handler.failed(exc, session);
-//            }
-//        });
+                @Override
+                public void failed(Throwable exc, InetSocketAddress attachment) {
+                    handler.failed(exc, session);
+                }
+            });
+        } catch (InterruptedException e) {
+            handler.failed(e, session);
+        }
     }
 
     public void close() throws IOException {
+        this.connectionPool.close();
         this.channelGroup.shutdownNow();
     }
 
@@ -0,0 +1,169 @@
+package com.firespider.spidersql.aio.net.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 直接内存缓冲区池
+ * 按2的幂划分规格（4KB ~ 64KB），归还的缓冲区优先放入当前线程的本地缓存，
+ * 本地缓存已满时放入全局空闲列表，超出上限的直接丢弃交给GC回收；超出最大规格的申请不做池化
+ * 启动参数 -Dspidersql.buffer.debug=true 时记录每个缓冲区的申请位置，退出时打印未归还的缓冲区
+ */
+public class BufferPool {
+    private static final int MIN_SHIFT = 12;
+
+    private static final int MAX_SHIFT = 16;
+
+    private static final int LOCAL_SIZE = 16;
+
+    private static final int GLOBAL_SIZE = 256;
+
+    private static final boolean DEBUG = Boolean.getBoolean("spidersql.buffer.debug");
+
+    public static final BufferPool INSTANCE = new BufferPool(LOCAL_SIZE, GLOBAL_SIZE, DEBUG);
+
+    private final int localSize;
+
+    private final int globalSize;
+
+    private final Queue<ByteBuffer>[] globalQueues;
+
+    private final AtomicInteger[] globalCounts;
+
+    private final ThreadLocal<ArrayDeque<ByteBuffer>[]> localQueues;
+
+    //调试模式下记录未归还的缓冲区及其申请位置
+    private final Map<ByteBuffer, Throwable> outstanding;
+
+    /**
+     * @param localSize  每个线程每种规格的缓存数量
+     * @param globalSize 全局每种规格的缓存数量
+     * @param debug      是否追踪泄漏
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(int localSize, int globalSize, boolean debug) {
+        int classes = MAX_SHIFT - MIN_SHIFT + 1;
+        this.localSize = localSize;
+        this.globalSize = globalSize;
+        this.globalQueues = new Queue[classes];
+        this.globalCounts = new AtomicInteger[classes];
+        for (int i = 0; i < classes; i++) {
+            globalQueues[i] = new ConcurrentLinkedQueue<>();
+            globalCounts[i] = new AtomicInteger();
+        }
+        this.localQueues = ThreadLocal.withInitial(() -> {
+            ArrayDeque<ByteBuffer>[] res = new ArrayDeque[classes];
+            for (int i = 0; i < classes; i++) {
+                res[i] = new ArrayDeque<>();
+            }
+            return res;
+        });
+        if (debug) {
+            //ByteBuffer的equals按内容比较，必须按对象标识记录
+            this.outstanding = Collections.synchronizedMap(new IdentityHashMap<>());
+            Runtime.getRuntime().addShutdownHook(new Thread(this::reportLeaks, "buffer-leak-report"));
+        } else {
+            this.outstanding = null;
+        }
+    }
+
+    /***
+     * 申请缓冲区
+     * 返回的缓冲区已清空，limit为申请的大小，clear后可使用整个规格容量
+     * @param size
+     * @return
+     */
+    public ByteBuffer acquire(int size) {
+        int index = sizeClass(size);
+        ByteBuffer buf = null;
+        if (index >= 0) {
+            buf = localQueues.get()[index].pollFirst();
+            if (buf == null) {
+                buf = globalQueues[index].poll();
+                if (buf != null) {
+                    globalCounts[index].decrementAndGet();
+                }
+            }
+            if (buf == null) {
+                buf = ByteBuffer.allocateDirect(1 << (index + MIN_SHIFT));
+            }
+        } else {
+            buf = ByteBuffer.allocateDirect(size);
+        }
+        buf.clear().limit(size);
+        if (outstanding != null) {
+            outstanding.put(buf, new Throwable("buffer acquired here, size " + size));
+        }
+        return buf;
+    }
+
+    /***
+     * 归还缓冲区，归还后调用方不得再使用
+     * @param buf
+     */
+    public void release(ByteBuffer buf) {
+        if (buf == null) {
+            return;
+        }
+        if (outstanding != null && outstanding.remove(buf) == null) {
+            new Throwable("release of a buffer not acquired from pool or released twice").printStackTrace();
+            return;
+        }
+        if (!buf.isDirect() || Integer.bitCount(buf.capacity()) != 1) {
+            return;
+        }
+        int index = Integer.numberOfTrailingZeros(buf.capacity()) - MIN_SHIFT;
+        if (index < 0 || index >= globalQueues.length) {
+            return;
+        }
+        buf.clear();
+        ArrayDeque<ByteBuffer> local = localQueues.get()[index];
+        if (local.size() < localSize) {
+            local.offerFirst(buf);
+        } else if (globalCounts[index].incrementAndGet() <= globalSize) {
+            globalQueues[index].offer(buf);
+        } else {
+            globalCounts[index].decrementAndGet();
+        }
+    }
+
+    /***
+     * 未归还的缓冲区数量，仅调试模式下有效
+     * @return
+     */
+    public int outstanding() {
+        return outstanding == null ? -1 : outstanding.size();
+    }
+
+    /***
+     * 打印未归还缓冲区的申请位置
+     */
+    public void reportLeaks() {
+        if (outstanding == null) {
+            return;
+        }
+        synchronized (outstanding) {
+            if (!outstanding.isEmpty()) {
+                System.err.println("BufferPool: " + outstanding.size() + " buffer(s) not released");
+                outstanding.values().forEach(Throwable::printStackTrace);
+            }
+        }
+    }
+
+    /***
+     * 规格序号，超出最大规格时返回-1
+     */
+    private static int sizeClass(int size) {
+        if (size > 1 << MAX_SHIFT) {
+            return -1;
+        }
+        int shift = size <= 1 << MIN_SHIFT ? MIN_SHIFT : 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift - MIN_SHIFT;
+    }
+}
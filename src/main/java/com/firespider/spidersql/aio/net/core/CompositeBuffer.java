@@ -0,0 +1,251 @@
+package com.firespider.spidersql.aio.net.core;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * 分段缓冲区
+ * 由多个缓冲区片段顺序拼接而成，追加数据时直接挂接片段而不复制、不扩容，
+ * 按全局偏移量随机访问，区间以片段视图(slice)形式返回
+ * 片段可以属于缓冲区池（清空时归还），也可以只是其他缓冲区的视图（清空时不做处理）
+ */
+public class CompositeBuffer {
+    private static final int INIT_SEGMENTS = 8;
+
+    //各片段的视图，position为0，limit为片段长度
+    private ByteBuffer[] segments = new ByteBuffer[INIT_SEGMENTS];
+
+    //片段所属的池化缓冲区，非池化片段为null
+    private ByteBuffer[] owners = new ByteBuffer[INIT_SEGMENTS];
+
+    //片段在整体中的起始偏移量
+    private int[] offsets = new int[INIT_SEGMENTS];
+
+    private int count;
+
+    private int length;
+
+    //最近一次访问的片段，顺序扫描时避免重复查找
+    private int hint;
+
+    /***
+     * 挂接池化缓冲区 [position, limit) 的数据，缓冲区的所有权转交给本对象
+     * @param buf
+     */
+    public void appendOwned(ByteBuffer buf) {
+        if (!buf.hasRemaining()) {
+            BufferPool.INSTANCE.release(buf);
+            return;
+        }
+        add(buf.slice(), buf);
+    }
+
+    /***
+     * 挂接缓冲区 [position, limit) 的视图，不复制、不接管所有权
+     * @param buf
+     */
+    public void append(ByteBuffer buf) {
+        if (buf.hasRemaining()) {
+            add(buf.slice(), null);
+        }
+    }
+
+    /***
+     * 挂接数组片段，不复制
+     * @param buf
+     * @param offset
+     * @param len
+     */
+    public void append(byte[] buf, int offset, int len) {
+        if (len > 0) {
+            add(ByteBuffer.wrap(buf, offset, len).slice(), null);
+        }
+    }
+
+    /***
+     * 挂接另一个分段缓冲区 [from, to) 的视图
+     * @param other
+     * @param from
+     * @param to
+     */
+    public void append(CompositeBuffer other, int from, int to) {
+        for (ByteBuffer slice : other.slices(from, to)) {
+            add(slice, null);
+        }
+    }
+
+    private void add(ByteBuffer segment, ByteBuffer owner) {
+        if (count == segments.length) {
+            int size = count << 1;
+            ByteBuffer[] newSegments = new ByteBuffer[size];
+            ByteBuffer[] newOwners = new ByteBuffer[size];
+            int[] newOffsets = new int[size];
+            System.arraycopy(segments, 0, newSegments, 0, count);
+            System.arraycopy(owners, 0, newOwners, 0, count);
+            System.arraycopy(offsets, 0, newOffsets, 0, count);
+            segments = newSegments;
+            owners = newOwners;
+            offsets = newOffsets;
+        }
+        segments[count] = segment;
+        owners[count] = owner;
+        offsets[count] = length;
+        count++;
+        length += segment.limit();
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /***
+     * 读取指定位置的字节
+     * @param index
+     * @return
+     */
+    public byte get(int index) {
+        int i = segmentOf(index);
+        return segments[i].get(index - offsets[i]);
+    }
+
+    /***
+     * 复制 [from, from + len) 到数组
+     */
+    public void copyTo(int from, byte[] dst, int dstOffset, int len) {
+        for (ByteBuffer slice : slices(from, from + len)) {
+            int n = slice.remaining();
+            slice.get(dst, dstOffset, n);
+            dstOffset += n;
+        }
+    }
+
+    /***
+     * [from, to) 区间的片段视图，不复制数据
+     * @param from
+     * @param to
+     * @return
+     */
+    public ByteBuffer[] slices(int from, int to) {
+        to = Math.min(to, length);
+        if (from >= to) {
+            return new ByteBuffer[0];
+        }
+        int first = segmentOf(from);
+        int last = segmentOf(to - 1);
+        ByteBuffer[] res = new ByteBuffer[last - first + 1];
+        for (int i = first; i <= last; i++) {
+            ByteBuffer view = segments[i].duplicate();
+            int start = Math.max(from - offsets[i], 0);
+            int end = Math.min(to - offsets[i], view.limit());
+            view.limit(end).position(start);
+            res[i - first] = view;
+        }
+        return res;
+    }
+
+    /***
+     * 截断至指定长度，被整体丢弃的池化片段归还缓冲区池
+     * @param newLength
+     */
+    public void truncate(int newLength) {
+        if (newLength >= length || newLength < 0) {
+            return;
+        }
+        while (count > 0 && offsets[count - 1] >= newLength) {
+            count--;
+            BufferPool.INSTANCE.release(owners[count]);
+            segments[count] = owners[count] = null;
+        }
+        if (count > 0) {
+            ByteBuffer last = segments[count - 1].duplicate();
+            last.limit(newLength - offsets[count - 1]);
+            segments[count - 1] = last.slice();
+        }
+        length = newLength;
+        hint = 0;
+    }
+
+    /***
+     * 清空数据，池化片段归还缓冲区池
+     */
+    public void clear() {
+        for (int i = 0; i < count; i++) {
+            BufferPool.INSTANCE.release(owners[i]);
+            segments[i] = owners[i] = null;
+        }
+        count = 0;
+        length = 0;
+        hint = 0;
+    }
+
+    /***
+     * 按指定编码解码 [from, to)，跨片段的多字节字符由解码器自行拼接
+     * @param from
+     * @param to
+     * @param charset
+     * @return
+     */
+    public String toString(int from, int to, Charset charset) {
+        ByteBuffer[] slices = slices(from, to);
+        if (slices.length == 0) {
+            return "";
+        }
+        if (slices.length == 1 && slices[0].hasArray()) {
+            ByteBuffer s = slices[0];
+            return new String(s.array(), s.arrayOffset() + s.position(), s.remaining(), charset);
+        }
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer out = CharBuffer.allocate((int) Math.ceil((to - from) * (double) decoder.maxCharsPerByte()) + 1);
+        //片段末尾不完整的多字节字符暂存，逐字节与下一片段拼接
+        ByteBuffer pending = ByteBuffer.allocate(16);
+        for (int i = 0; i < slices.length; i++) {
+            ByteBuffer in = slices[i];
+            while (pending.position() > 0 && in.hasRemaining()) {
+                pending.put(in.get()).flip();
+                decoder.decode(pending, out, false);
+                pending.compact();
+            }
+            decoder.decode(in, out, i == slices.length - 1 && pending.position() == 0);
+            if (in.hasRemaining()) {
+                pending.put(in);
+            }
+        }
+        if (pending.position() > 0) {
+            pending.flip();
+            decoder.decode(pending, out, true);
+        }
+        decoder.flush(out);
+        out.flip();
+        return out.toString();
+    }
+
+    private int segmentOf(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        int h = hint;
+        if (h < count && offsets[h] <= index && index - offsets[h] < segments[h].limit()) {
+            return h;
+        }
+        if (h + 1 < count && offsets[h + 1] <= index && index - offsets[h + 1] < segments[h + 1].limit()) {
+            hint = h + 1;
+            return h + 1;
+        }
+        int lo = 0, hi = count - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offsets[mid] <= index) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        hint = lo;
+        return lo;
+    }
+}
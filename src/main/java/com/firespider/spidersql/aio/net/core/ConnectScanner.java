@@ -0,0 +1,239 @@
+package com.firespider.spidersql.aio.net.core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 非阻塞端口扫描引擎
+ * 基于Selector发起非阻塞connect，少量线程即可同时维持数千个未完成的连接，
+ * 超时由时间轮管理，连接结束后以SO_LINGER=0关闭（发送RST），避免大量TIME_WAIT
+ */
+public class ConnectScanner {
+    private static final int LOOP_NUM = 1;
+
+    private static final int MAX_OUTSTANDING = 4096;
+
+    private static final long TICK_MILLIS = 10;
+
+    public static final ConnectScanner INSTANCE = new ConnectScanner(LOOP_NUM, MAX_OUTSTANDING);
+
+    private final ScanLoop[] loops;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param loopNum        Selector线程数
+     * @param maxOutstanding 每个线程最大未完成连接数
+     */
+    public ConnectScanner(int loopNum, int maxOutstanding) {
+        this.loops = new ScanLoop[Math.max(loopNum, 1)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new ScanLoop(maxOutstanding, i);
+        }
+    }
+
+    /***
+     * 提交扫描任务
+     * 未完成的连接超过上限时在提交线程上阻塞，等待空位
+     * @param address 目标地址
+     * @param timeout 连接超时（毫秒）
+     * @param handler 回调，结果为端口是否可连接
+     */
+    public void scan(InetSocketAddress address, int timeout, CompletionHandler<Boolean, InetSocketAddress> handler) throws InterruptedException {
+        if (address.isUnresolved()) {
+            handler.completed(false, address);
+            return;
+        }
+        ScanLoop loop = loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+        loop.submit(new ScanTask(address, timeout, handler));
+    }
+
+    public void close() {
+        for (ScanLoop loop : loops) {
+            loop.close();
+        }
+    }
+
+    private static class ScanTask {
+        private final InetSocketAddress address;
+        private final int timeout;
+        private final CompletionHandler<Boolean, InetSocketAddress> handler;
+        private SocketChannel channel;
+        private TimerWheel.Timeout deadline;
+        private boolean done;
+
+        ScanTask(InetSocketAddress address, int timeout, CompletionHandler<Boolean, InetSocketAddress> handler) {
+            this.address = address;
+            this.timeout = timeout;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * 单个Selector线程
+     * 所有连接状态只在本线程中修改，无需加锁
+     */
+    private static class ScanLoop implements Runnable {
+        private final BlockingQueue<ScanTask> pending;
+
+        private final int maxOutstanding;
+
+        private final TimerWheel timerWheel = new TimerWheel(TICK_MILLIS);
+
+        private final AtomicBoolean wakenUp = new AtomicBoolean();
+
+        private final int index;
+
+        private Selector selector;
+
+        private Thread thread;
+
+        private volatile boolean running = true;
+
+        private int outstanding;
+
+        ScanLoop(int maxOutstanding, int index) {
+            this.maxOutstanding = maxOutstanding;
+            this.pending = new LinkedBlockingQueue<>(maxOutstanding);
+            this.index = index;
+        }
+
+        void submit(ScanTask task) throws InterruptedException {
+            start();
+            pending.put(task);
+            if (wakenUp.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        private synchronized void start() {
+            if (thread != null) {
+                return;
+            }
+            try {
+                selector = Selector.open();
+            } catch (IOException e) {
+                throw new IllegalStateException("open selector error", e);
+            }
+            thread = new Thread(this, "connect-scanner-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    wakenUp.set(false);
+                    registerPending();
+                    selector.select(outstanding > 0 ? TICK_MILLIS : 0);
+                    processSelectedKeys();
+                    timerWheel.advance();
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                finish((ScanTask) key.attachment(), false);
+            }
+            ScanTask task;
+            while ((task = pending.poll()) != null) {
+                task.handler.completed(false, task.address);
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        /***
+         * 从等待队列中取出任务发起连接，直至达到未完成连接上限
+         */
+        private void registerPending() {
+            ScanTask task;
+            while (outstanding < maxOutstanding && (task = pending.poll()) != null) {
+                connect(task);
+            }
+        }
+
+        private void connect(ScanTask task) {
+            outstanding++;
+            try {
+                SocketChannel channel = SocketChannel.open();
+                task.channel = channel;
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+                if (channel.connect(task.address)) {
+                    finish(task, true);
+                    return;
+                }
+                channel.register(selector, SelectionKey.OP_CONNECT, task);
+                task.deadline = timerWheel.schedule(() -> finish(task, false), task.timeout, TimeUnit.MILLISECONDS);
+            } catch (IOException e) {
+                finish(task, false);
+            }
+        }
+
+        private void processSelectedKeys() {
+            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                ScanTask task = (ScanTask) key.attachment();
+                boolean result;
+                try {
+                    result = key.isValid() && key.isConnectable() && task.channel.finishConnect();
+                } catch (IOException e) {
+                    result = false;
+                }
+                finish(task, result);
+            }
+        }
+
+        /***
+         * 结束任务：取消超时，关闭通道并回调
+         * @param task
+         * @param result
+         */
+        private void finish(ScanTask task, boolean result) {
+            if (task.done) {
+                return;
+            }
+            task.done = true;
+            outstanding--;
+            if (task.deadline != null) {
+                task.deadline.cancel();
+            }
+            if (task.channel != null) {
+                try {
+                    task.channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+            try {
+                task.handler.completed(result, task.address);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        void close() {
+            running = false;
+            if (selector != null) {
+                selector.wakeup();
+            }
+        }
+    }
+}
@@ -9,16 +9,25 @@ public class ConnectionHandler implements CompletionHandler<Void, Session> {
 
     @Override
     public void completed(Void result, Session session) {
-//        if(session.isSSL()){
-//            session.doSSLHandShake();
-//        }else {
-//            session.writeToChannel();
-//        }
+        if (session.getProxy() != null) {
+            session.openTunnel();
+        } else if (session.isSSL()) {
+            session.doSSLHandShake();
+        } else {
+            session.connected();
+        }
+    }
+
+    /***
+     * 连接建立（SSL连接已完成握手）后发送请求
+     * @param session
+     */
+    protected void established(Session session) {
         session.writeToChannel();
     }
 
     @Override
     public void failed(Throwable exc, Session session) {
-        session.handleFail();
+        session.handleFail(exc);
     }
 }
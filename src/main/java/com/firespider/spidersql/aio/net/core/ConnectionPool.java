@@ -0,0 +1,228 @@
+package com.firespider.spidersql.aio.net.core;
+
+import com.firespider.spidersql.utils.ProxyPool;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 长连接池
+ * 按 host:port 维护空闲通道，支持最大空闲数、单主机最大连接数与空闲超时回收
+ * SSL连接单独分组，空闲时连同已完成握手的TLS状态与经由的代理一起保存
+ * 超出单主机连接上限的会话进入等待队列，待连接归还后复用
+ */
+public class ConnectionPool {
+    private static final int MAX_IDLE = 8;
+
+    private static final int MAX_PER_HOST = 16;
+
+    private static final long IDLE_TIMEOUT = 30 * 1000L;
+
+    private final int maxIdle;
+
+    private final int maxPerHost;
+
+    private final long idleTimeout;
+
+    private final Map<String, HostPool> hostPoolMap = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService evictor;
+
+    public ConnectionPool() {
+        this(MAX_IDLE, MAX_PER_HOST, IDLE_TIMEOUT);
+    }
+
+    /**
+     * @param maxIdle     单主机最大空闲连接数
+     * @param maxPerHost  单主机最大连接数（使用中 + 空闲）
+     * @param idleTimeout 空闲超时时间（毫秒）
+     */
+    public ConnectionPool(int maxIdle, int maxPerHost, long idleTimeout) {
+        this.maxIdle = maxIdle;
+        this.maxPerHost = maxPerHost;
+        this.idleTimeout = idleTimeout;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(idleTimeout / 2, 1);
+        this.evictor.scheduleAtFixedRate(this::evict, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /***
+     * 获取连接
+     * 1. 存在空闲连接则直接复用（回调结果为已连接的通道）
+     * 2. 未达到单主机上限则占用一个名额（回调结果为null，由调用方新建连接）
+     * 3. 否则进入等待队列
+     * @param session
+     * @param handler
+     */
+    public void acquire(Session session, CompletionHandler<AsynchronousSocketChannel, Session> handler) {
+        HostPool pool = getHostPool(session);
+        AsynchronousSocketChannel channel = null;
+        boolean granted = false;
+        synchronized (pool) {
+            IdleChannel idle;
+            long now = System.currentTimeMillis();
+            while ((idle = pool.idle.pollFirst()) != null) {
+                if (idle.channel.isOpen() && now - idle.idleSince < idleTimeout) {
+                    channel = idle.channel;
+                    session.setSslManager(idle.sslManager);
+                    session.attachProxy(idle.proxy);
+                    granted = true;
+                    break;
+                }
+                pool.total--;
+                close(idle.channel);
+            }
+            if (!granted) {
+                if (pool.total < maxPerHost) {
+                    pool.total++;
+                    granted = true;
+                } else {
+                    pool.waiters.offer(new Waiter(session, handler));
+                }
+            }
+        }
+        if (granted) {
+            handler.completed(channel, session);
+        }
+    }
+
+    /***
+     * 归还连接
+     * 可复用的连接优先交给等待队列，其次放入空闲队列，超出空闲上限则关闭
+     * 不可复用的连接直接关闭，释放的名额交给下一个等待者新建连接
+     * @param session
+     * @param channel
+     * @param sslManager 通道的TLS状态，非SSL连接为null
+     * @param proxy      通道经由的代理，直连时为null
+     * @param reusable
+     */
+    public void release(Session session, AsynchronousSocketChannel channel, SSLManager sslManager, ProxyPool.Node proxy, boolean reusable) {
+        HostPool pool = getHostPool(session);
+        Waiter waiter;
+        synchronized (pool) {
+            waiter = pool.waiters.poll();
+            if (reusable && channel != null && channel.isOpen()) {
+                if (waiter == null) {
+                    if (pool.idle.size() < maxIdle) {
+                        pool.idle.offerFirst(new IdleChannel(channel, sslManager, proxy, System.currentTimeMillis()));
+                        return;
+                    }
+                    pool.total--;
+                    close(channel);
+                    return;
+                }
+            } else {
+                close(channel);
+                if (waiter == null) {
+                    pool.total--;
+                    return;
+                }
+                channel = null;
+            }
+        }
+        waiter.session.setSslManager(channel == null ? null : sslManager);
+        if (channel != null) {
+            waiter.session.attachProxy(proxy);
+        }
+        waiter.handler.completed(channel, waiter.session);
+    }
+
+    /***
+     * 取消仍在等待队列中的会话
+     * @param session
+     * @return 会话仍在等待时返回true，之后不会再交给它连接
+     */
+    public boolean cancel(Session session) {
+        HostPool pool = getHostPool(session);
+        synchronized (pool) {
+            return pool.waiters.removeIf(waiter -> waiter.session == session);
+        }
+    }
+
+    /***
+     * 回收超时的空闲连接
+     */
+    private void evict() {
+        long now = System.currentTimeMillis();
+        for (HostPool pool : hostPoolMap.values()) {
+            synchronized (pool) {
+                Iterator<IdleChannel> iterator = pool.idle.iterator();
+                while (iterator.hasNext()) {
+                    IdleChannel idle = iterator.next();
+                    if (!idle.channel.isOpen() || now - idle.idleSince >= idleTimeout) {
+                        iterator.remove();
+                        pool.total--;
+                        close(idle.channel);
+                    }
+                }
+            }
+        }
+    }
+
+    private HostPool getHostPool(Session session) {
+        String key = session.getAddress().getHostString() + ":" + session.getAddress().getPort();
+        return hostPoolMap.computeIfAbsent(session.isSSL() ? key + ":tls" : key, k -> new HostPool());
+    }
+
+    private void close(AsynchronousSocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    public void close() {
+        evictor.shutdownNow();
+        for (HostPool pool : hostPoolMap.values()) {
+            synchronized (pool) {
+                pool.idle.forEach(idle -> close(idle.channel));
+                pool.idle.clear();
+                pool.waiters.clear();
+                pool.total = 0;
+            }
+        }
+        hostPoolMap.clear();
+    }
+
+    private static class HostPool {
+        private final Deque<IdleChannel> idle = new ArrayDeque<>();
+        private final Queue<Waiter> waiters = new ArrayDeque<>();
+        private int total;
+    }
+
+    private static class IdleChannel {
+        private final AsynchronousSocketChannel channel;
+        private final SSLManager sslManager;
+        private final ProxyPool.Node proxy;
+        private final long idleSince;
+
+        IdleChannel(AsynchronousSocketChannel channel, SSLManager sslManager, ProxyPool.Node proxy, long idleSince) {
+            this.channel = channel;
+            this.sslManager = sslManager;
+            this.proxy = proxy;
+            this.idleSince = idleSince;
+        }
+    }
+
+    private static class Waiter {
+        private final Session session;
+        private final CompletionHandler<AsynchronousSocketChannel, Session> handler;
+
+        Waiter(Session session, CompletionHandler<AsynchronousSocketChannel, Session> handler) {
+            this.session = session;
+            this.handler = handler;
+        }
+    }
+}
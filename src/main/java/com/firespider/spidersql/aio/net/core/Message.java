@@ -5,34 +5,26 @@ import java.nio.charset.Charset;
 
 /**
  * Created by stone on 2017/9/17.
+ * 报文数据保存在分段缓冲区中，追加数据时挂接新片段，不扩容、不整体复制
  */
 public class Message {
-    protected byte[] buffer;
-
-    private int capacity;
-
-    private int position;
-
-    private final static int DEFAULT_CAPACITY = 8192;
+    protected CompositeBuffer content;
 
     protected Charset charset;
 
     protected Message(byte[] buffer, Charset charset) {
-        this.buffer = buffer;
-        this.capacity = buffer.length;
-        this.position = this.capacity;
+        this.content = new CompositeBuffer();
+        this.content.append(buffer, 0, buffer.length);
         this.charset = charset;
     }
 
     protected Message(int capacity, Charset charset) {
-        this.capacity = capacity;
-        this.position = 0;
-        this.buffer = new byte[capacity];
+        this.content = new CompositeBuffer();
         this.charset = charset;
     }
 
     protected Message() {
-        this(DEFAULT_CAPACITY, Charset.defaultCharset());
+        this(Charset.defaultCharset());
     }
 
     protected Message(byte[] buffer) {
@@ -44,7 +36,16 @@ public class Message {
     }
 
     protected Message(Charset charset) {
-        this(DEFAULT_CAPACITY, charset);
+        this(0, charset);
+    }
+
+    /***
+     * 共享原报文的缓冲区，不复制数据
+     * @param message
+     */
+    protected Message(Message message) {
+        this.content = message.content;
+        this.charset = message.charset;
     }
 
     protected Message(String str, Charset charset) {
@@ -56,68 +57,106 @@ public class Message {
     }
 
     protected void setBuffer(byte[] buffer) {
-        this.buffer = buffer;
-        this.capacity = buffer.length;
-        this.position = this.capacity;
+        this.content.clear();
+        this.content.append(buffer, 0, buffer.length);
+    }
+
+    /***
+     * 清空有效数据，池化片段归还缓冲区池
+     */
+    protected void clear() {
+        this.content.clear();
+    }
+
+    /***
+     * 截断有效数据至指定长度
+     * @param length
+     */
+    protected void truncate(int length) {
+        this.content.truncate(length);
     }
 
+    /***
+     * 报文数据，只有一个片段时直接返回其视图，否则合并为一个缓冲区
+     * @return
+     */
     public ByteBuffer getBuffer() {
-        return ByteBuffer.wrap(buffer, 0, this.position);
+        ByteBuffer[] slices = content.slices(0, content.length());
+        if (slices.length == 1) {
+            return slices[0];
+        }
+        ByteBuffer res = ByteBuffer.allocate(content.length());
+        for (ByteBuffer slice : slices) {
+            res.put(slice);
+        }
+        res.flip();
+        return res;
+    }
+
+    /***
+     * 有效数据长度
+     * @return
+     */
+    public int length() {
+        return content.length();
     }
 
     public byte[] getEffectBytes() {
-        byte[] res = new byte[this.position];
-        System.arraycopy(this.buffer, 0, res, 0, this.position);
+        byte[] res = new byte[content.length()];
+        content.copyTo(0, res, 0, res.length);
         return res;
     }
 
     public byte[] getBytes() {
-        byte[] res = new byte[this.capacity];
-        System.arraycopy(this.buffer, 0, res, 0, this.capacity);
-        return res;
+        return getEffectBytes();
     }
 
     /***
-     * 1. 判断扩容
-     * 2. 调用系统复制函数
-     * 3. 重置有效长度
+     * 追加数组，数组由报文接管，调用方不得再修改
      * @param newBytes
      */
     protected void put(final byte[] newBytes) {
         if (newBytes != null && newBytes.length > 0) {
             put(newBytes, 0, newBytes.length);
         }
-
     }
 
     protected void put(final byte[] newBytes, int start, int length) {
-        if (newBytes != null && newBytes.length > 0) {
-            checkCapacity(newBytes.length);
-            System.arraycopy(newBytes, start, this.buffer, this.position, length);
-            this.position += length;
+        if (newBytes != null && length > 0) {
+            content.append(newBytes, start, length);
         }
     }
 
+    /***
+     * 复制追加缓冲区中 [position, limit) 的数据，用于调用方仍需复用的缓冲区
+     * @param src
+     */
+    protected void put(ByteBuffer src) {
+        int length = src.remaining();
+        if (length > 0) {
+            byte[] copy = new byte[length];
+            src.get(copy);
+            content.append(copy, 0, length);
+        }
+    }
+
+    /***
+     * 挂接缓冲区池中的缓冲区，不复制，所有权转交给报文
+     * @param buf 已flip的缓冲区
+     */
+    protected void putOwned(ByteBuffer buf) {
+        content.appendOwned(buf);
+    }
+
     void put(final String newStr) {
         put(newStr.getBytes(charset));
     }
 
     /***
-     * 如果新数组长与原有效长度之和大于容量则二倍扩容，若仍不足，则将长度扩容至所需长度
-     * @param length
+     * 释放报文占用的池化缓冲区
      */
-    private void checkCapacity(int length) {
-        int wholeLength = this.position + length;
-        if (wholeLength > this.capacity) {
-            int newCapacity = this.capacity << 1;
-            if (wholeLength > newCapacity) {
-                newCapacity = wholeLength;
-            }
-            byte[] newBuffer = new byte[newCapacity];
-            System.arraycopy(this.buffer, 0, newBuffer, 0, this.capacity);
-            this.capacity = newCapacity;
-            this.buffer = newBuffer;
-        }
+    public void release() {
+        content.clear();
     }
 
     public void setCharset(Charset charset) {
@@ -129,7 +168,7 @@ public class Message {
     }
 
     public String toString() {
-        return new String(this.buffer, 0, this.position, charset);
+        return content.toString(0, content.length(), charset);
     }
 
 }
@@ -0,0 +1,225 @@
+package com.firespider.spidersql.aio.net.core;
+
+import com.firespider.spidersql.utils.ProxyPool;
+
+import java.io.IOException;
+import java.net.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 经由代理建立到目标主机的隧道
+ * HTTP代理发送 CONNECT 请求，SOCKS代理按SOCKS5协议（无认证）请求连接，目标域名交由代理解析
+ * 隧道建立后通道与直连无异，TLS握手与请求照常进行
+ * 读取应答时不越过应答的结尾，隧道建立后目标主机先发送的数据（如h2c的SETTINGS）留在通道中
+ */
+class ProxyTunnel {
+    private static final int MAX_REPLY = 8192;
+
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+
+    private static final byte SOCKS_VERSION = 5;
+
+    private static final byte SOCKS_NO_AUTH = 0;
+
+    private static final byte SOCKS_CONNECT = 1;
+
+    private static final byte SOCKS_DOMAIN = 3;
+
+    private enum STEP {
+        HTTP_CONNECT, SOCKS_GREETING, SOCKS_CONNECT
+    }
+
+    private final Session session;
+
+    private final AsynchronousSocketChannel channel;
+
+    private final CompletionHandler<Void, Session> handler;
+
+    private final ByteBuffer in = ByteBuffer.allocate(MAX_REPLY);
+
+    private STEP step;
+
+    ProxyTunnel(Session session, CompletionHandler<Void, Session> handler) {
+        this.session = session;
+        this.channel = session.getSocketChannel();
+        this.handler = handler;
+    }
+
+    void start(ProxyPool.Node proxy) {
+        if (proxy.getType() == Proxy.Type.HTTP) {
+            step = STEP.HTTP_CONNECT;
+            String authority = authority();
+            send(("CONNECT " + authority + " HTTP/1.1\r\nHost: " + authority + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        } else {
+            step = STEP.SOCKS_GREETING;
+            send(new byte[]{SOCKS_VERSION, 1, SOCKS_NO_AUTH});
+        }
+    }
+
+    private String authority() {
+        String host = session.getHost();
+        if (host.indexOf(':') >= 0) {
+            host = "[" + host + "]";
+        }
+        return host + ":" + session.getAddress().getPort();
+    }
+
+    private byte[] socksConnect() throws IOException {
+        byte[] host = session.getHost().getBytes(StandardCharsets.US_ASCII);
+        if (host.length > 255) {
+            throw new IOException("host name too long for socks: " + session.getHost());
+        }
+        int port = session.getAddress().getPort();
+        byte[] res = new byte[7 + host.length];
+        res[0] = SOCKS_VERSION;
+        res[1] = SOCKS_CONNECT;
+        res[2] = 0;
+        res[3] = SOCKS_DOMAIN;
+        res[4] = (byte) host.length;
+        System.arraycopy(host, 0, res, 5, host.length);
+        res[res.length - 2] = (byte) (port >> 8);
+        res[res.length - 1] = (byte) port;
+        return res;
+    }
+
+    private void send(byte[] data) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        channel.write(buf, session, new CompletionHandler<Integer, Session>() {
+            @Override
+            public void completed(Integer result, Session attachment) {
+                if (buf.hasRemaining()) {
+                    channel.write(buf, attachment, this);
+                } else {
+                    read(step == STEP.HTTP_CONNECT ? HEADER_END.length : 2);
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, Session attachment) {
+                handler.failed(exc, attachment);
+            }
+        });
+    }
+
+    /***
+     * 读取应答
+     * @param need 应答至少还差的字节数，读取不超过该数量
+     */
+    private void read(int need) {
+        if (in.position() + need > in.capacity()) {
+            handler.failed(new IOException("proxy reply too long"), session);
+            return;
+        }
+        in.limit(in.position() + need);
+        channel.read(in, session, new CompletionHandler<Integer, Session>() {
+            @Override
+            public void completed(Integer result, Session attachment) {
+                if (result < 0) {
+                    handler.failed(new IOException("proxy closed connection"), attachment);
+                    return;
+                }
+                try {
+                    in.limit(in.capacity());
+                    onReply();
+                } catch (IOException e) {
+                    handler.failed(e, attachment);
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, Session attachment) {
+                handler.failed(exc, attachment);
+            }
+        });
+    }
+
+    /***
+     * 处理代理的应答，数据不完整时继续读取
+     * @throws IOException
+     */
+    private void onReply() throws IOException {
+        switch (step) {
+            case HTTP_CONNECT: {
+                int matched = headerEndMatched();
+                if (matched < HEADER_END.length) {
+                    read(HEADER_END.length - matched);
+                    return;
+                }
+                String status = new String(in.array(), 0, in.position(), StandardCharsets.ISO_8859_1);
+                status = status.substring(0, status.indexOf("\r\n"));
+                String[] parts = status.split(" ", 3);
+                if (parts.length < 2 || !parts[0].startsWith("HTTP/") || !parts[1].startsWith("2")) {
+                    throw new IOException("proxy refused tunnel: " + status);
+                }
+                handler.completed(null, session);
+                return;
+            }
+            case SOCKS_GREETING: {
+                if (in.position() < 2) {
+                    read(2 - in.position());
+                    return;
+                }
+                if (in.get(0) != SOCKS_VERSION || in.get(1) != SOCKS_NO_AUTH) {
+                    throw new IOException("socks proxy requires unsupported authentication");
+                }
+                in.clear();
+                step = STEP.SOCKS_CONNECT;
+                send(socksConnect());
+                return;
+            }
+            case SOCKS_CONNECT: {
+                if (in.position() < 5) {
+                    read(5 - in.position());
+                    return;
+                }
+                if (in.get(0) != SOCKS_VERSION || in.get(1) != 0) {
+                    throw new IOException("socks proxy refused connection: " + (in.get(1) & 0xff));
+                }
+                int length;
+                switch (in.get(3)) {
+                    case 1:
+                        length = 4 + 4 + 2;
+                        break;
+                    case SOCKS_DOMAIN:
+                        length = 4 + 1 + (in.get(4) & 0xff) + 2;
+                        break;
+                    case 4:
+                        length = 4 + 16 + 2;
+                        break;
+                    default:
+                        throw new IOException("invalid socks reply");
+                }
+                if (in.position() < length) {
+                    read(length - in.position());
+                    return;
+                }
+                handler.completed(null, session);
+            }
+        }
+    }
+
+    /***
+     * 已读数据的结尾与空行 "\r\n\r\n" 的开头相同的最大长度，等于4时应答头部已完整
+     * @return
+     */
+    private int headerEndMatched() {
+        byte[] data = in.array();
+        int position = in.position();
+        for (int matched = Math.min(HEADER_END.length, position); matched > 0; matched--) {
+            boolean equal = true;
+            for (int i = 0; i < matched; i++) {
+                if (data[position - matched + i] != HEADER_END[i]) {
+                    equal = false;
+                    break;
+                }
+            }
+            if (equal) {
+                return matched;
+            }
+        }
+        return 0;
+    }
+}
@@ -15,6 +15,13 @@ public class ReadFromChannelHandler implements CompletionHandler<Integer, Sessio
 
     @Override
     public void failed(Throwable exc, Session session) {
-        session.handleFail();
+        session.handleFail(exc);
+    }
+
+    /***
+     * 重置读取状态，连接重试前调用
+     */
+    public void reset() {
+
     }
 }
@@ -5,11 +5,44 @@ import javax.net.ssl.*;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
 import java.security.*;
 import java.security.cert.CertificateException;
-import java.util.concurrent.ExecutionException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * 非阻塞TLS
+ * 握手、加密写、解密读均以回调驱动，不阻塞网络线程，SSLEngine的委派任务在独立线程池中执行
+ * 同一协议共享SSLContext，其客户端会话缓存按 host:port 保存会话，再次连接同一主机时使用简化握手
+ * 握手完成后所有加密与发送经同一写队列依次进行，读写可以并发（如HTTP/2），读取时需要回应的握手消息也排入写队列
+ */
 public class SSLManager {
+    private static final int SESSION_CACHE_SIZE = 1024;
+
+    //会话缓存有效期（秒）
+    private static final int SESSION_TIMEOUT = 3600;
+
+    private static final Map<String, SSLContext> CONTEXTS = new ConcurrentHashMap<>();
+
+    private static final ExecutorService TASK_POOL;
+
+    static {
+        AtomicInteger index = new AtomicInteger();
+        TASK_POOL = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread t = new Thread(r, "ssl-task-" + index.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
     private KeyManagerFactory keyManagerFactory;
     private TrustManagerFactory trustManagerFactory;
     private SSLContext context;
@@ -18,7 +51,16 @@ public class SSLManager {
 
     private boolean handShakeDone = false;
 
-    private ByteBuffer appBuffer, netBuffer, readBuffer;
+    //netIn: 已接收未解密的数据（写模式，position为数据末尾）；netOut: 待发送的密文
+    private ByteBuffer netIn, netOut;
+
+    //握手阶段解密输出，握手期间不应产生应用数据
+    private ByteBuffer handshakeApp;
+
+    //等待加密发送的数据，同一时间只有队首的一项使用netOut
+    private final Deque<PendingWrite> writeQueue = new ArrayDeque<>();
+
+    private boolean writing;
 
     /**
      * 构造函数
@@ -41,7 +83,6 @@ public class SSLManager {
     public SSLManager(String protocol, String host, int port, boolean useClientAuth) throws SSLException {
         this.needClientAuth = useClientAuth;
         createSSLEngine(protocol, host, port);
-        initBuf();
     }
 
     /**
@@ -80,17 +121,18 @@ public class SSLManager {
 
     /**
      * 初始化
+     * 未加载证书时同一协议共享SSLContext，以便复用其客户端会话缓存
      *
      * @param protocol 协议名称 SSL/TLS
      * @throws SSLException SSL 异常
      */
     private synchronized void init(String protocol) throws SSLException {
         try {
-            context = SSLContext.getInstance(protocol);
             if (keyManagerFactory != null && trustManagerFactory != null) {
+                context = SSLContext.getInstance(protocol);
                 context.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), new SecureRandom());
             } else {
-                context.init(null, null, null);
+                context = CONTEXTS.computeIfAbsent(protocol, SSLManager::createContext);
             }
         } catch (Exception e) {
 
@@ -99,17 +141,84 @@ public class SSLManager {
 
     }
 
+    private static SSLContext createContext(String protocol) {
+        try {
+            SSLContext res = SSLContext.getInstance(protocol);
+            res.init(null, null, null);
+            res.getClientSessionContext().setSessionCacheSize(SESSION_CACHE_SIZE);
+            res.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT);
+            return res;
+        } catch (NoSuchAlgorithmException | KeyManagementException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /***
+     * 首次使用时从缓冲区池申请缓冲区
+     */
     private void initBuf() {
+        if (netIn != null) {
+            return;
+        }
         SSLSession sslSession = engine.getSession();
         int netBufferMax = sslSession.getPacketBufferSize();
-        int appBufferMax = sslSession.getApplicationBufferSize();
-        this.netBuffer = ByteBuffer.allocateDirect(netBufferMax);
-        this.appBuffer = ByteBuffer.allocateDirect(appBufferMax);
-        this.readBuffer = ByteBuffer.allocateDirect(netBufferMax);
+        this.netIn = BufferPool.INSTANCE.acquire(netBufferMax);
+        this.netIn.clear();
+        this.netOut = BufferPool.INSTANCE.acquire(netBufferMax);
+    }
+
+    /***
+     * 归还缓冲区，未解密的数据会被丢弃
+     */
+    public void releaseBuffers() {
+        BufferPool.INSTANCE.release(netIn);
+        BufferPool.INSTANCE.release(netOut);
+        BufferPool.INSTANCE.release(handshakeApp);
+        netIn = netOut = handshakeApp = null;
+    }
+
+    /***
+     * 是否没有未解密的数据，可以安全地归还连接池
+     * @return
+     */
+    public boolean isIdle() {
+        return handShakeDone && (netIn == null || netIn.position() == 0);
+    }
+
+    public boolean isHandShakeDone() {
+        return handShakeDone;
+    }
+
+    /***
+     * 设置ALPN候选协议，需在握手前调用
+     * @param protocols 按优先级排列，如 h2, http/1.1
+     */
+    public void setApplicationProtocols(String[] protocols) {
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setApplicationProtocols(protocols);
+        engine.setSSLParameters(parameters);
+    }
+
+    /***
+     * 握手完成后协商出的应用层协议，未协商时返回null
+     * @return
+     */
+    public String getApplicationProtocol() {
+        String protocol = engine.getApplicationProtocol();
+        return protocol == null || protocol.isEmpty() ? null : protocol;
+    }
+
+    /***
+     * 解密后单次读取最多产生的数据量
+     * @return
+     */
+    public int getApplicationBufferSize() {
+        return engine.getSession().getApplicationBufferSize();
     }
 
     /**
      * 构造SSLEngine
+     * 传入对端地址，会话缓存据此查找可恢复的会话，并启用SNI与主机名校验
      *
      * @throws SSLException SSL 异常
      */
@@ -118,123 +227,323 @@ public class SSLManager {
         engine = context.createSSLEngine(ipAddress, port);
         engine.setUseClientMode(true);
         engine.setNeedClientAuth(needClientAuth);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        engine.setSSLParameters(parameters);
     }
 
-    public void wrap(ByteBuffer in, ByteBuffer out) throws SSLException {
-        out.clear();
-        in.flip();
-        engine.wrap(in, out);
-        out.flip();
+    /***
+     * 异步握手
+     * @param session
+     * @param handler 握手完成或失败时回调
+     */
+    public void doHandShake(Session session, CompletionHandler<Void, Session> handler) {
+        try {
+            initBuf();
+            engine.beginHandshake();
+            handshakeStep(session, handler);
+        } catch (SSLException e) {
+            handler.failed(e, session);
+        }
     }
 
-    public ByteBuffer wrap(ByteBuffer in) throws SSLException {
-        netBuffer.clear();
-        engine.wrap(in, netBuffer);
-        return netBuffer;
+    /***
+     * 按握手状态推进：发送、接收或执行委派任务，每一步完成后递归推进
+     */
+    private void handshakeStep(Session session, CompletionHandler<Void, Session> handler) {
+        try {
+            while (true) {
+                SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+                switch (status) {
+                    case NEED_WRAP:
+                        netOut.clear();
+                        SSLEngineResult result = engine.wrap(EMPTY, netOut);
+                        if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                            handler.failed(new SSLException("engine closed during handshake"), session);
+                            return;
+                        }
+                        netOut.flip();
+                        writeFully(session, () -> handshakeStep(session, handler), handler);
+                        return;
+                    case NEED_TASK:
+                        runDelegatedTasks(session, () -> handshakeStep(session, handler), handler);
+                        return;
+                    case FINISHED:
+                    case NOT_HANDSHAKING:
+                        handShakeDone = true;
+                        BufferPool.INSTANCE.release(handshakeApp);
+                        handshakeApp = null;
+                        handler.completed(null, session);
+                        return;
+                    default:
+                        //NEED_UNWRAP（JDK9+ 另有 NEED_UNWRAP_AGAIN）：优先解密已缓存的数据，不足时读取
+                        if (netIn.position() > 0 || status.name().equals("NEED_UNWRAP_AGAIN")) {
+                            if (handshakeApp == null) {
+                                handshakeApp = BufferPool.INSTANCE.acquire(getApplicationBufferSize());
+                            }
+                            netIn.flip();
+                            handshakeApp.clear();
+                            result = engine.unwrap(netIn, handshakeApp);
+                            netIn.compact();
+                            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                                handler.failed(new SSLException("connection closed during handshake"), session);
+                                return;
+                            }
+                            if (result.getStatus() != SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                                continue;
+                            }
+                        }
+                        readMore(session, () -> handshakeStep(session, handler), handler);
+                        return;
+                }
+            }
+        } catch (SSLException e) {
+            handler.failed(e, session);
+        }
     }
 
     /***
-     * 解析服务器数据
-     * ! MAC OS JDK1.8 SSLEngine unwrap 方法有异常，待解决
-     * @param in
-     * @param out
-     * @throws SSLException
-     * @throws ExecutionException
-     * @throws InterruptedException
-     */
-    public void unwrap(ByteBuffer in, ByteBuffer out) throws SSLException {
-        out.clear();
-        // TODO: 2017/9/24 SSLENGINE UNWRAP jdk异常。需要寻找解决方案。
-        in.flip();
-        engine.unwrap(in, out);
-    }
-
-    public ByteBuffer unwrap(ByteBuffer in) throws SSLException {
-        appBuffer.clear();
-        in.flip();
-        engine.wrap(in, appBuffer);
-        return appBuffer;
-    }
-
-    public boolean doHandShake(Session session) throws IOException, ExecutionException, InterruptedException {
-
-        engine.beginHandshake();
-        int handShakeCount = 0;
-        SSLEngineResult.HandshakeStatus handshakeStatus = engine.getHandshakeStatus();
-        while (!handShakeDone && handShakeCount < 20) {
-            handShakeCount++;
-            switch (handshakeStatus) {
-                case NEED_TASK:
-                    handshakeStatus = runDelegatedTasks();
-                    break;
-                case NEED_WRAP:
-                    handshakeStatus = doHandShakeWarp(session);
-                    break;
-                case NEED_UNWRAP:
-                    handshakeStatus = doHandShakeUnwarp(session);
-                    break;
-                case FINISHED:
-                    handshakeStatus = engine.getHandshakeStatus();
-                    break;
-                case NOT_HANDSHAKING:
-                    handShakeDone = true;
-                    break;
-                default:
-                    break;
+     * 加密并发送数据，全部写出后回调
+     * @param session
+     * @param src 明文
+     * @param handler 回调结果为发送的明文字节数
+     */
+    public void write(Session session, ByteBuffer src, CompletionHandler<Integer, Session> handler) {
+        int total = src.remaining();
+        enqueue(session, new PendingWrite(src, () -> handler.completed(total, session), failedOnly(handler)));
+    }
+
+    /***
+     * 排入写队列，没有进行中的写操作时开始发送
+     */
+    private void enqueue(Session session, PendingWrite write) {
+        synchronized (writeQueue) {
+            writeQueue.offer(write);
+            if (writing) {
+                return;
             }
+            writing = true;
         }
-        return handShakeDone;
+        flushQueue(session);
     }
 
-    /**
-     * 处理握手 Unwarp;
-     *
-     * @return
-     * @throws IOException
-     * @throws Exception
-     */
-    private SSLEngineResult.HandshakeStatus doHandShakeUnwarp(Session session) throws IOException, ExecutionException, InterruptedException {
-        int length;
-//        do {
-//            readBuffer.clear();
-//            length = session.getSocketChannel().read(readBuffer).get();
-//            unwrap(readBuffer, appBuffer);
-//            session.getReadFromChannelMessage().put(appBuffer.array(), 0, appBuffer.position());
-//        } while (length < readBuffer.capacity());
-        readBuffer.clear();
-        length = session.getSocketChannel().read(readBuffer).get();
-        unwrap(readBuffer, netBuffer);
-        //如果有 HandShake Task 则执行
-        return engine.getHandshakeStatus();
+    /***
+     * 加密并发送队首的数据，全部发送后回调并继续下一项
+     * 失败时队列中的所有写操作一并失败
+     */
+    private void flushQueue(Session session) {
+        PendingWrite write;
+        synchronized (writeQueue) {
+            write = writeQueue.peek();
+            if (write == null) {
+                writing = false;
+                return;
+            }
+        }
+        try {
+            initBuf();
+            netOut.clear();
+            SSLEngineResult result = engine.wrap(write.src, netOut);
+            if (result.getStatus() != SSLEngineResult.Status.OK) {
+                failQueue(session, new SSLException("wrap failed: " + result.getStatus()));
+                return;
+            }
+            netOut.flip();
+        } catch (SSLException e) {
+            failQueue(session, e);
+            return;
+        }
+        writeFully(session, () -> {
+            if (!write.src.hasRemaining()) {
+                synchronized (writeQueue) {
+                    writeQueue.poll();
+                }
+                write.next.run();
+            }
+            flushQueue(session);
+        }, new CompletionHandler<Void, Session>() {
+            @Override
+            public void completed(Void result, Session session) {
+            }
+
+            @Override
+            public void failed(Throwable exc, Session session) {
+                failQueue(session, exc);
+            }
+        });
     }
 
-    /**
-     * 处理握手 Warp;
-     *
-     * @return
-     * @throws IOException
-     * @throws Exception
+    private void failQueue(Session session, Throwable exc) {
+        PendingWrite[] failed;
+        synchronized (writeQueue) {
+            failed = writeQueue.toArray(new PendingWrite[0]);
+            writeQueue.clear();
+            writing = false;
+        }
+        for (PendingWrite write : failed) {
+            write.handler.failed(exc, session);
+        }
+    }
+
+    /***
+     * 读取并解密数据到会话的读缓冲区
+     * 回调结果为解密得到的字节数，连接关闭时为-1
+     * @param session
+     * @param handler
+     */
+    public void read(Session session, CompletionHandler<Integer, Session> handler) {
+        try {
+            initBuf();
+            ByteBuffer dst = session.getReadBuffer();
+            while (true) {
+                if (netIn.position() == 0) {
+                    readMore(session, () -> read(session, handler), failedOnly(handler), () -> handler.completed(-1, session));
+                    return;
+                }
+                netIn.flip();
+                SSLEngineResult result = engine.unwrap(netIn, dst);
+                netIn.compact();
+                switch (result.getStatus()) {
+                    case OK:
+                        break;
+                    case BUFFER_UNDERFLOW:
+                        readMore(session, () -> read(session, handler), failedOnly(handler), () -> handler.completed(-1, session));
+                        return;
+                    case BUFFER_OVERFLOW:
+                        if (dst.position() > 0) {
+                            handler.completed(dst.position(), session);
+                        } else {
+                            handler.failed(new SSLException("read buffer too small"), session);
+                        }
+                        return;
+                    default:
+                        handler.completed(dst.position() > 0 ? dst.position() : -1, session);
+                        return;
+                }
+                SSLEngineResult.HandshakeStatus status = result.getHandshakeStatus();
+                if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    //TLS1.3的会话票据等握手后消息
+                    runDelegatedTasks(session, () -> read(session, handler), failedOnly(handler));
+                    return;
+                }
+                if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    //可能有写操作正在使用netOut，应答经写队列发送
+                    enqueue(session, new PendingWrite(EMPTY, () -> read(session, handler), failedOnly(handler)));
+                    return;
+                }
+                if (dst.position() > 0) {
+                    handler.completed(dst.position(), session);
+                    return;
+                }
+            }
+        } catch (SSLException e) {
+            handler.failed(e, session);
+        }
+    }
+
+    /***
+     * 将netOut全部写出
+     */
+    private void writeFully(Session session, Runnable next, CompletionHandler<Void, Session> handler) {
+        session.touch();
+        session.getSocketChannel().write(netOut, session, new CompletionHandler<Integer, Session>() {
+            @Override
+            public void completed(Integer result, Session attachment) {
+                if (netOut.hasRemaining()) {
+                    session.touch();
+                    session.getSocketChannel().write(netOut, session, this);
+                } else {
+                    next.run();
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, Session attachment) {
+                handler.failed(exc, session);
+            }
+        });
+    }
+
+    private void readMore(Session session, Runnable next, CompletionHandler<Void, Session> handler) {
+        readMore(session, next, handler, () -> handler.failed(new SSLException("connection closed during handshake"), session));
+    }
+
+    /***
+     * 继续从通道读取密文到netIn
      */
-    private SSLEngineResult.HandshakeStatus doHandShakeWarp(Session session) throws IOException, ExecutionException, InterruptedException {
-        wrap(session.getWriteToChannelMessage().getBuffer(), netBuffer);
-        session.getSocketChannel().write(netBuffer).get();
-        //如果有 HandShake Task 则执行
-        return engine.getHandshakeStatus();
+    private void readMore(Session session, Runnable next, CompletionHandler<Void, Session> handler, Runnable onClose) {
+        if (!netIn.hasRemaining()) {
+            //单条记录超过缓冲区容量
+            ByteBuffer bigger = BufferPool.INSTANCE.acquire(netIn.capacity() << 1);
+            bigger.clear();
+            netIn.flip();
+            bigger.put(netIn);
+            BufferPool.INSTANCE.release(netIn);
+            netIn = bigger;
+        }
+        session.touch();
+        session.getSocketChannel().read(netIn, session, new CompletionHandler<Integer, Session>() {
+            @Override
+            public void completed(Integer result, Session attachment) {
+                if (result < 0) {
+                    onClose.run();
+                } else {
+                    next.run();
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, Session attachment) {
+                handler.failed(exc, session);
+            }
+        });
     }
 
     /**
-     * 执行委派任务
-     *
-     * @throws Exception
+     * 在独立线程池中执行委派任务（证书校验、密钥计算等），完成后继续
      */
-    private SSLEngineResult.HandshakeStatus runDelegatedTasks() {
-        if (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
-            Runnable runnable;
-            while ((runnable = engine.getDelegatedTask()) != null) {
-                runnable.run();
+    private void runDelegatedTasks(Session session, Runnable next, CompletionHandler<Void, Session> handler) {
+        TASK_POOL.execute(() -> {
+            try {
+                Runnable runnable;
+                while ((runnable = engine.getDelegatedTask()) != null) {
+                    runnable.run();
+                }
+            } catch (RuntimeException e) {
+                handler.failed(e, session);
+                return;
             }
+            next.run();
+        });
+    }
+
+    /**
+     * 写队列中的一项：明文、全部发送后的后续操作与失败回调
+     */
+    private static class PendingWrite {
+        private final ByteBuffer src;
+
+        private final Runnable next;
+
+        private final CompletionHandler<Void, Session> handler;
+
+        private PendingWrite(ByteBuffer src, Runnable next, CompletionHandler<Void, Session> handler) {
+            this.src = src;
+            this.next = next;
+            this.handler = handler;
         }
-        return engine.getHandshakeStatus();
     }
-}
 
+    private static CompletionHandler<Void, Session> failedOnly(CompletionHandler<Integer, Session> handler) {
+        return new CompletionHandler<Void, Session>() {
+            @Override
+            public void completed(Void result, Session session) {
+            }
+
+            @Override
+            public void failed(Throwable exc, Session session) {
+                handler.failed(exc, session);
+            }
+        };
+    }
+}
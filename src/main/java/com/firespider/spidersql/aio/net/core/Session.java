@@ -1,28 +1,60 @@
 package com.firespider.spidersql.aio.net.core;
 
+import com.firespider.spidersql.utils.ProxyPool;
+
 import javax.net.ssl.SSLException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
 import java.nio.charset.Charset;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Created by stone on 2017/9/17.
+ * 连接（含TLS握手）、首字节、读写间隔与整体截止时间由所有会话共用的时间轮跟踪，
+ * 到期后关闭通道，挂起的读写随之失败，不占用等待线程；通道读写本身不设超时
+ * 经由代理时，会话占用代理的一个名额直到结束，结果计入代理的健康分数；连接归还连接池时代理随通道保存
  */
 public class Session {
     private static final int READ_BUF_SIZE = 4096;
 
     private static final int TIMEOUT = 5;
 
+    //默认的整体截止时间为连接截止时间的倍数
+    private static final int TOTAL_TIMEOUT_RATIO = 12;
+
+    private static final long TICK_MILLIS = 50;
+
+    //会话共用的时间轮
+    static final TimerWheel TIMER = new TimerWheel(TICK_MILLIS).start("session-timer");
+
+    private static final String SSL_PROTOCOL = "TLS";
+
+    //默认截止时间的基准（秒），端口扫描以此为连接超时
     private int timeout;
 
+    //连接、首字节与整体截止时间（毫秒），0表示不限制
+    private long connectTimeout, firstByteTimeout, totalTimeout;
+
+    //发送请求后相邻两次读写之间的最长间隔（毫秒），与首字节截止时间相同，0表示不限制
+    private long idleTimeout;
+
+    //最近一次发起读写的时间（纳秒）
+    private volatile long lastActivity;
+
+    private volatile TimerWheel.Timeout idleDeadline;
+
+    private TimerWheel.Timeout connectDeadline, firstByteDeadline, totalDeadline;
+
+    //截止时间到期或被取消的原因，之后会话不再重试
+    private volatile IOException expired;
+
     private int bufSize;
 
-    private AsynchronousSocketChannel socketChannel;
+    private volatile AsynchronousSocketChannel socketChannel;
 
     private InetSocketAddress address;
 
@@ -34,37 +66,63 @@ public class Session {
 
     private Message writeToChannelMessage, readFromChannelMessage;
 
+    private final String host;
+
+    private final boolean useSSL;
+
+    //当前通道的TLS状态，新建连接时创建，复用连接时随通道从连接池取回
     private SSLManager sslManager;
 
+    //TLS握手时通过ALPN协商的应用层协议，为null时不协商
+    private String[] applicationProtocols;
+
     private ByteBuffer readBuffer;
 
     private CompletionHandler<Message, Session> customHandler;
 
     private Charset charset;
 
+    private AsyncSocketExecutor executor;
+
+    private ConnectionPool connectionPool;
+
+    //当前通道是否来自连接池复用
+    private boolean reused;
+
+    private ProxyPool proxyPool;
+
+    //当前通道经由的代理，直连时为null
+    private ProxyPool.Node proxy;
+
+    //占用代理名额的时间
+    private long proxySince;
+
+    //排队等待代理时的申请，用于取消
+    private volatile CompletionHandler<ProxyPool.Node, Void> proxyRequest;
+
+    //被取消的会话（如对冲中落后的请求）不计入代理的失败
+    private volatile boolean cancelled;
+
     public Session(String host, int port, Message read, Message write, boolean useSSL) {
         this(host, port, read, write, TIMEOUT, READ_BUF_SIZE, useSSL);
     }
 
     public Session(String host, int port, Message read, Message write, int timeout, int bufSize, boolean useSSL) {
-        this.address = new InetSocketAddress(host, port);
+        //不在构造时解析域名，连接前由DnsResolver异步解析
+        this.address = InetSocketAddress.createUnresolved(host, port);
         this.readHandler = new ReadFromChannelHandler();
         this.writeHandler = new WriteToChannelHandler();
         this.connectionHandler = new ConnectionHandler();
         this.bufSize = bufSize;
-        this.readBuffer = ByteBuffer.allocate(bufSize);
         this.writeToChannelMessage = write;
         this.readFromChannelMessage = read;
         this.timeout = timeout;
-        if (useSSL) {
-            try {
-                this.sslManager = new SSLManager("TLSv1.2", host, port);
-            } catch (SSLException e) {
-                e.printStackTrace();
-            }
-        } else {
-            this.sslManager = null;
-        }
+        this.connectTimeout = timeout * 1000L;
+        this.firstByteTimeout = timeout * 1000L;
+        this.idleTimeout = timeout * 1000L;
+        this.totalTimeout = timeout * 1000L * TOTAL_TIMEOUT_RATIO;
+        this.host = host;
+        this.useSSL = useSSL;
     }
 
     public Session(String host, int port) {
@@ -87,42 +145,408 @@ public class Session {
 
     void readFromChannel(Integer length, boolean fromWrite) {
         if (fromWrite) {
-            this.socketChannel.read(readBuffer, timeout, TimeUnit.SECONDS, this, this.readHandler);
+            if (firstByteDeadline == null) {
+                firstByteDeadline = schedule(firstByteTimeout, "first byte");
+            }
+            awaitIdle();
+            read(this.readHandler);
         } else {
-            ByteBuffer buf = getReadBuffer(true);
+            readFromChannelMessage.putOwned(detachReadBuffer());
             if (length >= this.bufSize) {
-                readFromChannelMessage.put(buf.array(), 0, buf.position());
-                readBuffer.clear();
-                this.socketChannel.read(readBuffer, timeout, TimeUnit.SECONDS, this, this.readHandler);
+                read(this.readHandler);
             } else {
+                release(false);
                 this.customHandler.completed(readFromChannelMessage, this);
             }
         }
     }
 
-    void doSSLHandShake() {
-        try {
-            sslManager.doHandShake(this);
-        } catch (IOException | ExecutionException | InterruptedException e) {
-            e.printStackTrace();
+    /***
+     * 读取数据到读缓冲区，SSL连接读取并解密
+     * 回调结果为读取（解密）的字节数，连接关闭时为-1
+     * @param handler
+     */
+    public void read(CompletionHandler<Integer, Session> handler) {
+        if (firstByteDeadline != null) {
+            handler = awaitFirstByte(handler);
+        }
+        touch();
+        if (isSSL()) {
+            sslManager.read(this, handler);
+        } else {
+            this.socketChannel.read(getReadBuffer(), this, handler);
+        }
+    }
+
+    /***
+     * 会话共用的时间轮，供在会话之上复用连接的模块跟踪自己的截止时间
+     * @return
+     */
+    public static TimerWheel timer() {
+        return TIMER;
+    }
+
+    /***
+     * 记录一次读写，读写间隔从此刻重新计算
+     */
+    void touch() {
+        lastActivity = System.nanoTime();
+    }
+
+    /***
+     * 启动读写间隔的截止时间
+     * 只保留一个定时任务，到期时距最近一次读写不足间隔则顺延，读写本身不重新定时
+     */
+    private void awaitIdle() {
+        if (idleTimeout > 0 && idleDeadline == null) {
+            touch();
+            idleDeadline = TIMER.schedule(this::checkIdle, idleTimeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void checkIdle() {
+        //已归还或重新连接的会话不再检查
+        if (idleDeadline == null || socketChannel == null) {
+            return;
+        }
+        long rest = idleTimeout - (System.nanoTime() - lastActivity) / 1000000L;
+        if (rest <= 0) {
+            idleDeadline = null;
+            expire(new SocketTimeoutException("read timed out"));
+        } else {
+            idleDeadline = TIMER.schedule(this::checkIdle, rest, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /***
+     * 首次读取到数据时取消首字节截止时间
+     * @param handler
+     * @return
+     */
+    private CompletionHandler<Integer, Session> awaitFirstByte(CompletionHandler<Integer, Session> handler) {
+        return new CompletionHandler<Integer, Session>() {
+            @Override
+            public void completed(Integer result, Session session) {
+                if (result > 0) {
+                    firstByteDeadline = cancel(firstByteDeadline);
+                }
+                handler.completed(result, session);
+            }
+
+            @Override
+            public void failed(Throwable exc, Session session) {
+                handler.failed(exc, session);
+            }
+        };
+    }
+
+    /***
+     * 会话开始执行，启动整体截止时间
+     */
+    void begin() {
+        if (totalDeadline == null) {
+            totalDeadline = schedule(totalTimeout, "total");
+        }
+    }
+
+    /***
+     * 开始新建连接，启动连接截止时间（包含域名解析与TLS握手）
+     * @return 会话已超时返回false
+     */
+    boolean beginConnect() {
+        if (expired != null) {
+            return false;
+        }
+        if (connectDeadline == null) {
+            connectDeadline = schedule(connectTimeout, "connect");
+        }
+        return true;
+    }
+
+    /***
+     * 连接建立（SSL连接已完成握手）
+     */
+    void connected() {
+        connectDeadline = cancel(connectDeadline);
+        connectionHandler.established(this);
+    }
+
+    private TimerWheel.Timeout schedule(long millis, String phase) {
+        return millis > 0 ? TIMER.schedule(() -> expire(new SocketTimeoutException(phase + " timed out")), millis, TimeUnit.MILLISECONDS) : null;
+    }
+
+    private static TimerWheel.Timeout cancel(TimerWheel.Timeout deadline) {
+        if (deadline != null) {
+            deadline.cancel();
+        }
+        return null;
+    }
+
+    private void cancelDeadlines() {
+        connectDeadline = cancel(connectDeadline);
+        firstByteDeadline = cancel(firstByteDeadline);
+        totalDeadline = cancel(totalDeadline);
+        idleDeadline = cancel(idleDeadline);
+    }
+
+    /***
+     * 取消会话，关闭通道使挂起的读写失败，已结束的会话不受影响
+     */
+    public void cancel() {
+        cancelled = true;
+        expire(new IOException("cancelled"));
+    }
+
+    /***
+     * 截止时间到期或被取消
+     * 关闭通道使挂起的读写失败；仍在连接池等待队列中的会话直接失败
+     * @param reason
+     */
+    private void expire(IOException reason) {
+        expired = reason;
+        AsynchronousSocketChannel channel = this.socketChannel;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        } else if (connectionPool != null && connectionPool.cancel(this)) {
+            executor.dispatch(this::handleFail);
+        } else {
+            CompletionHandler<ProxyPool.Node, Void> request = proxyRequest;
+            if (request != null && proxyPool.cancel(request)) {
+                proxyRequest = null;
+                if (executor != null) {
+                    executor.dispatch(this::handleFail);
+                } else {
+                    handleFail();
+                }
+            }
+        }
+    }
+
+    /***
+     * 为新建的连接创建TLS状态，旧连接的状态随之丢弃
+     * @throws SSLException
+     */
+    void initSSL() throws SSLException {
+        if (sslManager != null) {
+            sslManager.releaseBuffers();
+            sslManager = null;
+        }
+        if (useSSL) {
+            sslManager = new SSLManager(SSL_PROTOCOL, host, address.getPort());
+            if (applicationProtocols != null) {
+                sslManager.setApplicationProtocols(applicationProtocols);
+            }
+        }
+    }
+
+    /***
+     * 申请代理，全部达到上限时排队，会话到期时取消排队
+     * @param handler
+     */
+    void acquireProxy(CompletionHandler<ProxyPool.Node, Void> handler) {
+        proxyRequest = new CompletionHandler<ProxyPool.Node, Void>() {
+            @Override
+            public void completed(ProxyPool.Node result, Void attachment) {
+                proxyRequest = null;
+                setProxy(result);
+                handler.completed(result, attachment);
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                proxyRequest = null;
+                handler.failed(exc, attachment);
+            }
+        };
+        proxyPool.acquire(proxyRequest);
+    }
+
+    private void setProxy(ProxyPool.Node proxy) {
+        this.proxy = proxy;
+        this.proxySince = System.currentTimeMillis();
+    }
+
+    /***
+     * 复用经由代理建立的连接，重新占用该代理的名额
+     * @param proxy 直连的通道为null
+     */
+    void attachProxy(ProxyPool.Node proxy) {
+        if (proxy != null && proxyPool != null) {
+            proxyPool.reacquire(proxy);
+            setProxy(proxy);
+        }
+    }
+
+    /***
+     * 归还代理名额
+     * @param outcome 成功为true，失败为false，不计入健康分数为null
+     */
+    private void releaseProxy(Boolean outcome) {
+        ProxyPool.Node node = this.proxy;
+        if (node == null) {
+            return;
+        }
+        this.proxy = null;
+        if (Boolean.TRUE.equals(outcome)) {
+            proxyPool.succeeded(node, System.currentTimeMillis() - proxySince);
+        } else if (Boolean.FALSE.equals(outcome) && !cancelled) {
+            proxyPool.failed(node);
         }
+        proxyPool.release(node);
+    }
+
+    /***
+     * 经由代理建立隧道，完成后进行TLS握手或发送请求
+     */
+    void openTunnel() {
+        new ProxyTunnel(this, new CompletionHandler<Void, Session>() {
+            @Override
+            public void completed(Void result, Session session) {
+                if (isSSL()) {
+                    doSSLHandShake();
+                } else {
+                    connected();
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, Session session) {
+                connectionHandler.failed(exc, session);
+            }
+        }).start(proxy);
+    }
+
+    /***
+     * 异步TLS握手，完成后发送请求
+     */
+    void doSSLHandShake() {
+        sslManager.doHandShake(this, new CompletionHandler<Void, Session>() {
+            @Override
+            public void completed(Void result, Session session) {
+                connected();
+            }
+
+            @Override
+            public void failed(Throwable exc, Session session) {
+                connectionHandler.failed(exc, session);
+            }
+        });
     }
 
     void handleFail() {
-        this.customHandler.failed(new Throwable("fail"), this);
+        handleFail(null);
     }
 
-    void writeToChannel() {
-        ByteBuffer buf = this.getWriteToChannelMessage().getBuffer();
-        if (isSSL()) {
+    /***
+     * 处理失败
+     * 复用的连接可能已被服务端关闭，此时新建连接重试一次；截止时间到期的会话不重试
+     * @param cause 失败原因，回调时优先使用截止时间到期的异常
+     */
+    void handleFail(Throwable cause) {
+        if (reused && executor != null && expired == null) {
+            closeChannel();
+            if (readBuffer != null) {
+                readBuffer.clear();
+            }
+            readHandler.reset();
+            firstByteDeadline = cancel(firstByteDeadline);
+            idleDeadline = cancel(idleDeadline);
+            //复用的连接失效不归咎于代理，重新申请
+            releaseProxy(null);
+            executor.connect(this);
+            return;
+        }
+        releaseProxy(false);
+        release(false);
+        this.customHandler.failed(expired != null ? expired : cause != null ? cause : new Throwable("fail"), this);
+    }
+
+    /***
+     * 归还连接
+     * 可复用的连接回到连接池，否则关闭
+     * @param reusable 报文是否已完整读取且服务端允许保持连接
+     */
+    public void release(boolean reusable) {
+        cancelDeadlines();
+        //仍有未解密数据的SSL连接无法安全复用
+        reusable = reusable && (sslManager == null || sslManager.isIdle());
+        releaseBuffers();
+        AsynchronousSocketChannel channel = this.socketChannel;
+        SSLManager ssl = this.sslManager;
+        ProxyPool.Node proxy = this.proxy;
+        this.socketChannel = null;
+        this.sslManager = null;
+        releaseProxy(true);
+        if (channel == null) {
+            return;
+        }
+        if (connectionPool != null) {
+            connectionPool.release(this, channel, ssl, proxy, reusable);
+        } else {
             try {
-                buf = sslManager.wrap(buf);
-            } catch (SSLException e) {
-                this.customHandler.failed(e, this);
+                channel.close();
+            } catch (IOException ignored) {
             }
         }
-        this.socketChannel.write(buf, this, this.writeHandler);
+    }
+
+    /***
+     * 读缓冲区与SSL缓冲区归还缓冲区池，会话结束后不再使用
+     */
+    private void releaseBuffers() {
+        BufferPool.INSTANCE.release(readBuffer);
+        readBuffer = null;
+        if (sslManager != null) {
+            sslManager.releaseBuffers();
+        }
+    }
+
+    private void closeChannel() {
+        if (socketChannel != null) {
+            try {
+                socketChannel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    void writeToChannel() {
+        awaitIdle();
+        write(this.getWriteToChannelMessage().getBuffer(), this.writeHandler);
+    }
+
+    /***
+     * 将缓冲区中的数据全部写出，SSL连接加密后写出
+     * @param buf
+     * @param handler 回调结果为写出的字节数
+     */
+    public void write(ByteBuffer buf, CompletionHandler<Integer, Session> handler) {
+        if (isSSL()) {
+            touch();
+            sslManager.write(this, buf, handler);
+            return;
+        }
+        int total = buf.remaining();
+        touch();
+        this.socketChannel.write(buf, this, new CompletionHandler<Integer, Session>() {
+            @Override
+            public void completed(Integer result, Session session) {
+                if (buf.hasRemaining()) {
+                    touch();
+                    socketChannel.write(buf, session, this);
+                } else {
+                    handler.completed(total, session);
+                }
+            }
 
+            @Override
+            public void failed(Throwable exc, Session session) {
+                handler.failed(exc, session);
+            }
+        });
     }
 
 
@@ -134,14 +558,91 @@ public class Session {
         this.socketChannel = socketChannel;
     }
 
+    void setSslManager(SSLManager sslManager) {
+        this.sslManager = sslManager;
+    }
+
+    void setExecutor(AsyncSocketExecutor executor) {
+        this.executor = executor;
+    }
+
+    void setConnectionPool(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    void setProxyPool(ProxyPool proxyPool) {
+        this.proxyPool = proxyPool;
+    }
+
+    /***
+     * 当前通道经由的代理，直连时为null
+     * @return
+     */
+    public ProxyPool.Node getProxy() {
+        return proxy;
+    }
+
+    String getHost() {
+        return host;
+    }
+
+    void setReused(boolean reused) {
+        this.reused = reused;
+    }
+
+    public boolean isReused() {
+        return reused;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /***
+     * 设置截止时间（毫秒），0表示不限制
+     * @param connectTimeout   建立连接，包含域名解析与TLS握手
+     * @param firstByteTimeout 请求写出后到收到响应第一个字节，之后相邻读写的最长间隔与之相同
+     * @param totalTimeout     整个会话
+     */
+    public void setDeadlines(long connectTimeout, long firstByteTimeout, long totalTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.firstByteTimeout = firstByteTimeout;
+        this.idleTimeout = firstByteTimeout;
+        this.totalTimeout = totalTimeout;
+    }
+
+    public boolean isExpired() {
+        return expired != null;
+    }
+
     public InetSocketAddress getAddress() {
         return address;
     }
 
+    void setAddress(InetSocketAddress address) {
+        this.address = address;
+    }
+
     public ConnectionHandler getConnectionHandler() {
         return connectionHandler;
     }
 
+    public void setConnectionHandler(ConnectionHandler connectionHandler) {
+        this.connectionHandler = connectionHandler;
+    }
+
+    public void setApplicationProtocols(String[] applicationProtocols) {
+        this.applicationProtocols = applicationProtocols;
+    }
+
+    /***
+     * ALPN协商结果，非SSL连接或未协商时返回null
+     * @return
+     */
+    public String getApplicationProtocol() {
+        return sslManager == null ? null : sslManager.getApplicationProtocol();
+    }
+
     public ReadFromChannelHandler getReadHandler() {
         return readHandler;
     }
@@ -174,21 +675,31 @@ public class Session {
         return customHandler;
     }
 
+    /***
+     * 读缓冲区，首次使用时从缓冲区池申请
+     * SSL连接至少能容纳一条解密后的记录
+     * @return
+     */
     public ByteBuffer getReadBuffer() {
-        return readBuffer;
-    }
-    public ByteBuffer getReadBuffer(boolean ssl) {
-        if(ssl && isSSL()){
-            try {
-                readBuffer = sslManager.unwrap(readBuffer);
-            } catch (SSLException e) {
-                e.printStackTrace();
-            }
+        if (readBuffer == null) {
+            int size = isSSL() ? Math.max(bufSize, sslManager.getApplicationBufferSize()) : bufSize;
+            readBuffer = BufferPool.INSTANCE.acquire(size);
         }
         return readBuffer;
     }
 
+    /***
+     * 取走读缓冲区（已flip），所有权转交给调用方，下次读取时重新申请
+     * @return
+     */
+    public ByteBuffer detachReadBuffer() {
+        ByteBuffer buf = getReadBuffer();
+        readBuffer = null;
+        buf.flip();
+        return buf;
+    }
+
     public boolean isSSL() {
-        return sslManager != null;
+        return useSSL;
     }
 }
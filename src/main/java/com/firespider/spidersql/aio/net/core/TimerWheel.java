@@ -0,0 +1,187 @@
+package com.firespider.spidersql.aio.net.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 哈希时间轮
+ * 定时任务按到期时间散列到环形槽位中，添加与取消均为O(1)，
+ * 每个刻度只检查当前槽位，适合管理大量短周期的超时任务
+ * 由调用方线程驱动(advance)，或调用start由守护线程按刻度驱动，到期任务在驱动线程中执行
+ */
+public class TimerWheel {
+    private static final int WHEEL_SIZE = 512;
+
+    private final long tickMillis;
+
+    private final int mask;
+
+    private final Timeout[] wheel;
+
+    //已处理到的刻度
+    private long currentTick;
+
+    private final long startTime;
+
+    public TimerWheel(long tickMillis) {
+        this(tickMillis, WHEEL_SIZE);
+    }
+
+    /**
+     * @param tickMillis 刻度时长（毫秒）
+     * @param wheelSize  槽位数量，取2的幂
+     */
+    public TimerWheel(long tickMillis, int wheelSize) {
+        int size = Integer.highestOneBit(Math.max(wheelSize, 2) - 1) << 1;
+        this.tickMillis = Math.max(tickMillis, 1);
+        this.mask = size - 1;
+        this.wheel = new Timeout[size];
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /***
+     * 添加定时任务
+     * @param task
+     * @param delay
+     * @param unit
+     * @return 可取消的超时句柄
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long deadline = System.currentTimeMillis() + Math.max(unit.toMillis(delay), 0);
+        Timeout timeout = new Timeout(this, task, deadline);
+        synchronized (this) {
+            long ticks = Math.max((deadline - startTime + tickMillis - 1) / tickMillis, currentTick);
+            timeout.rounds = (ticks - currentTick) / wheel.length;
+            int index = (int) (ticks & mask);
+            timeout.bucket = index;
+            timeout.next = wheel[index];
+            if (wheel[index] != null) {
+                wheel[index].prev = timeout;
+            }
+            wheel[index] = timeout;
+        }
+        return timeout;
+    }
+
+    /***
+     * 推进时间轮至当前时间并执行到期任务
+     * @return 执行的任务数量
+     */
+    public int advance() {
+        long now = System.currentTimeMillis();
+        List<Timeout> expired = new ArrayList<>();
+        synchronized (this) {
+            long targetTick = (now - startTime) / tickMillis;
+            for (; currentTick <= targetTick; currentTick++) {
+                Timeout timeout = wheel[(int) (currentTick & mask)];
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.rounds <= 0) {
+                        unlink(timeout);
+                        expired.add(timeout);
+                    } else {
+                        timeout.rounds--;
+                    }
+                    timeout = next;
+                }
+            }
+        }
+        for (Timeout timeout : expired) {
+            timeout.expire();
+        }
+        return expired.size();
+    }
+
+    /***
+     * 启动守护线程，按刻度持续推进时间轮
+     * @param name 线程名
+     * @return
+     */
+    public TimerWheel start(String name) {
+        Thread driver = new Thread(() -> {
+            while (true) {
+                try {
+                    advance();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                try {
+                    Thread.sleep(tickMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, name);
+        driver.setDaemon(true);
+        driver.start();
+        return this;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    private synchronized boolean remove(Timeout timeout) {
+        if (timeout.bucket < 0) {
+            return false;
+        }
+        unlink(timeout);
+        return true;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            wheel[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = timeout.next = null;
+        timeout.bucket = -1;
+    }
+
+    /**
+     * 超时句柄
+     */
+    public static class Timeout {
+        private final TimerWheel wheel;
+        private final Runnable task;
+        private final long deadline;
+        private long rounds;
+        private int bucket = -1;
+        private Timeout prev, next;
+        private volatile boolean cancelled;
+
+        private Timeout(TimerWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /***
+         * 取消任务
+         * @return 任务尚未执行时返回true
+         */
+        public boolean cancel() {
+            cancelled = true;
+            return wheel.remove(this);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        private void expire() {
+            if (!cancelled) {
+                task.run();
+            }
+        }
+    }
+}
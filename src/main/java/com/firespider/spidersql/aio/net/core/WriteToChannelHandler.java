@@ -14,6 +14,6 @@ public class WriteToChannelHandler implements CompletionHandler<Integer, Session
 
     @Override
     public void failed(Throwable exc, Session session) {
-        session.handleFail();
+        session.handleFail(exc);
     }
 }
@@ -0,0 +1,154 @@
+package com.firespider.spidersql.aio.net.http;
+
+import com.firespider.spidersql.aio.net.core.CompositeBuffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 分块传输编码(Transfer-Encoding: chunked)流式解码器
+ * 数据可分多次到达，解码状态在两次调用之间保留
+ * 分块数据以输入缓冲区的视图形式挂接到输出中，不复制数据
+ */
+public class ChunkedDecoder {
+    private enum STATE {
+        SIZE, EXTENSION, SIZE_LF, DATA, DATA_CR, DATA_LF, TRAILER, TRAILER_LF, DONE
+    }
+
+    private STATE state = STATE.SIZE;
+
+    //当前分块剩余字节数
+    private long remaining;
+
+    //当前分块大小是否已读到数字
+    private boolean hasDigit;
+
+    //当前trailer行是否为空行
+    private boolean emptyLine = true;
+
+    /***
+     * 解码 buf[position, limit) 中的分块数据，正文以视图形式追加到out
+     * @param buf
+     * @param out
+     */
+    public void decode(ByteBuffer buf, CompositeBuffer out) {
+        int in = buf.position();
+        int end = buf.limit();
+        while (in < end && state != STATE.DONE) {
+            byte b = buf.get(in);
+            switch (state) {
+                case SIZE:
+                    int d = hexValue(b);
+                    if (d >= 0) {
+                        //分块大小不超过int范围，避免移位溢出与截断为负数
+                        if (remaining > Integer.MAX_VALUE >> 4) {
+                            throw new IllegalStateException("invalid chunk size");
+                        }
+                        remaining = (remaining << 4) | d;
+                        hasDigit = true;
+                        in++;
+                    } else if (b == ';' || b == ' ' || b == '\t') {
+                        state = STATE.EXTENSION;
+                        in++;
+                    } else if (b == '\r') {
+                        state = STATE.SIZE_LF;
+                        in++;
+                    } else if (b == '\n') {
+                        state = STATE.SIZE_LF;
+                    } else {
+                        throw new IllegalStateException("invalid chunk size");
+                    }
+                    break;
+                case EXTENSION:
+                    if (b == '\r') {
+                        state = STATE.SIZE_LF;
+                    } else if (b == '\n') {
+                        state = STATE.SIZE_LF;
+                        continue;
+                    }
+                    in++;
+                    break;
+                case SIZE_LF:
+                    if (b != '\n') {
+                        throw new IllegalStateException("invalid chunk size line");
+                    }
+                    in++;
+                    if (!hasDigit) {
+                        throw new IllegalStateException("invalid chunk size");
+                    }
+                    state = remaining == 0 ? STATE.TRAILER : STATE.DATA;
+                    emptyLine = true;
+                    break;
+                case DATA:
+                    int length = (int) Math.min(remaining, end - in);
+                    ByteBuffer data = buf.duplicate();
+                    data.limit(in + length).position(in);
+                    out.append(data);
+                    in += length;
+                    remaining -= length;
+                    if (remaining == 0) {
+                        state = STATE.DATA_CR;
+                    }
+                    break;
+                case DATA_CR:
+                    if (b == '\r') {
+                        in++;
+                    }
+                    state = STATE.DATA_LF;
+                    break;
+                case DATA_LF:
+                    if (b != '\n') {
+                        throw new IllegalStateException("missing CRLF after chunk data");
+                    }
+                    in++;
+                    state = STATE.SIZE;
+                    hasDigit = false;
+                    break;
+                case TRAILER:
+                    if (b == '\r') {
+                        state = STATE.TRAILER_LF;
+                    } else if (b == '\n') {
+                        state = STATE.TRAILER_LF;
+                        continue;
+                    } else {
+                        emptyLine = false;
+                    }
+                    in++;
+                    break;
+                case TRAILER_LF:
+                    if (b != '\n') {
+                        throw new IllegalStateException("invalid chunk trailer");
+                    }
+                    in++;
+                    if (emptyLine) {
+                        state = STATE.DONE;
+                    } else {
+                        state = STATE.TRAILER;
+                        emptyLine = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        buf.position(in);
+    }
+
+    /***
+     * 是否已读取到最后一个分块及trailer
+     * @return
+     */
+    public boolean isFinished() {
+        return state == STATE.DONE;
+    }
+
+    private static int hexValue(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        } else if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        } else if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+}
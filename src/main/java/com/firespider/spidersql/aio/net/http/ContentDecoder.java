@@ -0,0 +1,249 @@
+package com.firespider.spidersql.aio.net.http;
+
+import com.firespider.spidersql.aio.net.core.CompositeBuffer;
+import com.firespider.spidersql.utils.InflaterPool;
+
+import java.nio.ByteBuffer;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 正文内容解码器(Content-Encoding: gzip/deflate)
+ * 每次读取到新的正文数据后立即解压，不等待压缩数据全部接收
+ * 解压结果按块追加保存，不扩容复制；Inflater从InflaterPool借用，解码结束后归还
+ */
+public class ContentDecoder {
+    private enum STATE {
+        GZIP_HEADER, DEFLATE_DETECT, INFLATE, DONE
+    }
+
+    private static final int MIN_CHUNK = 8192;
+
+    private static final int MAX_CHUNK = 65536;
+
+    //直接内存输入需暂存到数组后交给Inflater(JDK8仅支持数组输入)
+    private static final int STAGING_SIZE = 8192;
+
+    private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+
+    private final boolean gzip;
+
+    private final InflaterPool pool;
+
+    private STATE state;
+
+    private Inflater inflater;
+
+    private boolean nowrap;
+
+    //gzip头与deflate格式探测需要的少量字节
+    private byte[] header = new byte[16];
+
+    private int headerLength;
+
+    //已写满的输出块
+    private final CompositeBuffer output = new CompositeBuffer();
+
+    //当前输出块
+    private byte[] chunk = new byte[MIN_CHUNK];
+
+    private int chunkLength;
+
+    private byte[] staging;
+
+    private ContentDecoder(boolean gzip, InflaterPool pool) {
+        this.gzip = gzip;
+        this.pool = pool;
+        this.state = gzip ? STATE.GZIP_HEADER : STATE.DEFLATE_DETECT;
+    }
+
+    /***
+     * 根据Content-Encoding创建解码器，不需要解码时返回null
+     * @param contentEncoding
+     * @return
+     */
+    public static ContentDecoder create(String contentEncoding) {
+        if (contentEncoding == null) {
+            return null;
+        }
+        String encoding = contentEncoding.trim().toLowerCase();
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            return new ContentDecoder(true, InflaterPool.INSTANCE);
+        } else if (encoding.equals("deflate")) {
+            return new ContentDecoder(false, InflaterPool.INSTANCE);
+        }
+        return null;
+    }
+
+    /***
+     * 解码缓冲区 [position, limit) 中的压缩数据
+     * @param buf
+     */
+    public void decode(ByteBuffer buf) {
+        if (buf.hasArray()) {
+            decode(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            buf.position(buf.limit());
+            return;
+        }
+        if (staging == null) {
+            staging = new byte[STAGING_SIZE];
+        }
+        while (buf.hasRemaining() && state != STATE.DONE) {
+            int n = Math.min(buf.remaining(), staging.length);
+            buf.get(staging, 0, n);
+            decode(staging, 0, n);
+        }
+    }
+
+    /***
+     * 解码一段压缩数据
+     * @param buf
+     * @param offset
+     * @param length
+     */
+    public void decode(byte[] buf, int offset, int length) {
+        int end = offset + length;
+        while (offset < end && state != STATE.DONE) {
+            switch (state) {
+                case GZIP_HEADER:
+                case DEFLATE_DETECT:
+                    offset = readHeader(buf, offset, end);
+                    break;
+                case INFLATE:
+                    offset = inflate(buf, offset, end);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /***
+     * 收集头部字节，解析完成后进入解压状态并把头部之后的剩余字节交给Inflater
+     */
+    private int readHeader(byte[] buf, int offset, int end) {
+        if (headerLength == header.length) {
+            byte[] newHeader = new byte[header.length << 1];
+            System.arraycopy(header, 0, newHeader, 0, headerLength);
+            header = newHeader;
+        }
+        header[headerLength++] = buf[offset++];
+        int bodyStart = state == STATE.GZIP_HEADER ? gzipHeaderLength() : deflateDetect();
+        if (bodyStart >= 0) {
+            inflater = pool.borrow(nowrap);
+            state = STATE.INFLATE;
+            if (bodyStart < headerLength) {
+                inflate(header, bodyStart, headerLength);
+            }
+        }
+        return offset;
+    }
+
+    /***
+     * 解析gzip头(RFC 1952)，头部尚不完整时返回-1
+     */
+    private int gzipHeaderLength() {
+        if (headerLength < 10) {
+            return -1;
+        }
+        if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || header[2] != 8) {
+            throw new IllegalStateException("invalid gzip header");
+        }
+        int flags = header[3] & 0xff;
+        int pos = 10;
+        if ((flags & FEXTRA) != 0) {
+            if (headerLength < pos + 2) {
+                return -1;
+            }
+            pos += 2 + ((header[pos] & 0xff) | ((header[pos + 1] & 0xff) << 8));
+        }
+        if ((flags & FNAME) != 0) {
+            pos = skipZeroTerminated(pos);
+        }
+        if (pos >= 0 && (flags & FCOMMENT) != 0) {
+            pos = skipZeroTerminated(pos);
+        }
+        if (pos >= 0 && (flags & FHCRC) != 0) {
+            pos += 2;
+        }
+        if (pos < 0 || pos > headerLength) {
+            return -1;
+        }
+        nowrap = true;
+        return pos;
+    }
+
+    private int skipZeroTerminated(int pos) {
+        while (pos < headerLength) {
+            if (header[pos++] == 0) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /***
+     * 区分zlib格式与原始deflate格式，部分服务端会发送不带zlib头的数据
+     */
+    private int deflateDetect() {
+        if (headerLength < 2) {
+            return -1;
+        }
+        int cmf = header[0] & 0xff;
+        int flg = header[1] & 0xff;
+        nowrap = (cmf & 0x0f) != 8 || ((cmf << 8) | flg) % 31 != 0;
+        return 0;
+    }
+
+    private int inflate(byte[] buf, int offset, int end) {
+        inflater.setInput(buf, offset, end - offset);
+        try {
+            while (!inflater.finished() && !inflater.needsInput()) {
+                if (chunkLength == chunk.length) {
+                    output.append(chunk, 0, chunkLength);
+                    chunk = new byte[Math.min(chunk.length << 1, MAX_CHUNK)];
+                    chunkLength = 0;
+                }
+                int n = inflater.inflate(chunk, chunkLength, chunk.length - chunkLength);
+                if (n == 0 && (inflater.needsDictionary() || (!inflater.finished() && !inflater.needsInput()))) {
+                    throw new IllegalStateException("invalid compressed data");
+                }
+                chunkLength += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        if (inflater.finished()) {
+            //gzip尾部的CRC32与长度不再校验，剩余数据直接丢弃
+            state = STATE.DONE;
+        }
+        return end;
+    }
+
+    /***
+     * 已解压的数据，以视图形式返回，不复制
+     * @return
+     */
+    public CompositeBuffer getOutput() {
+        CompositeBuffer res = new CompositeBuffer();
+        res.append(output, 0, output.length());
+        res.append(chunk, 0, chunkLength);
+        return res;
+    }
+
+    public int getOutputLength() {
+        return output.length() + chunkLength;
+    }
+
+    /***
+     * 结束解码，归还Inflater
+     */
+    public void finish() {
+        if (inflater != null) {
+            pool.release(inflater, nowrap);
+            inflater = null;
+        }
+        state = STATE.DONE;
+    }
+}
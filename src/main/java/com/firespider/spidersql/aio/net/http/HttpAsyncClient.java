@@ -3,6 +3,9 @@ package com.firespider.spidersql.aio.net.http;
 import com.firespider.spidersql.aio.net.core.AsyncSocketExecutor;
 import com.firespider.spidersql.aio.net.core.Message;
 import com.firespider.spidersql.aio.net.core.Session;
+import com.firespider.spidersql.aio.net.core.TimerWheel;
+import com.firespider.spidersql.aio.net.http2.Http2ConnectionManager;
+import com.firespider.spidersql.aio.net.http2.Http2Exception;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -11,6 +14,7 @@ import java.nio.charset.Charset;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 // TODO: 2017/9/26 支持接口扫描，支持https 
 public class HttpAsyncClient extends AsyncSocketExecutor {
@@ -19,6 +23,26 @@ public class HttpAsyncClient extends AsyncSocketExecutor {
 
     private Charset charset;
 
+    //启用HTTP/2时非空：https通过ALPN协商h2，http使用h2c，对端不支持时回退HTTP/1.1
+    private Http2ConnectionManager http2;
+
+    //流水线深度，大于1时批量GET中同一主机的请求在一个长连接上连续发送
+    private int pipelineDepth = 1;
+
+    //不支持流水线的主机
+    private final Set<String> serialHosts = ConcurrentHashMap.newKeySet();
+
+    //连接、首字节与整体截止时间（毫秒），为null时使用会话的默认值
+    private long[] deadlines;
+
+    private RetryPolicy retryPolicy = RetryPolicy.NONE;
+
+    //是否对超过主机p95延迟的请求发送对冲请求
+    private boolean hedging;
+
+    //各主机的响应延迟统计，用于确定对冲时机
+    private final Map<String, LatencyTracker> latencies = new ConcurrentHashMap<>();
+
     public HttpAsyncClient() throws IOException {
         super(Runtime.getRuntime().availableProcessors());
         charset = Charset.defaultCharset();
@@ -26,18 +50,14 @@ public class HttpAsyncClient extends AsyncSocketExecutor {
 
     public HttpAsyncClient(int threadNum) throws IOException {
         super(threadNum);
+        charset = Charset.defaultCharset();
     }
 
     // TODO: 2017/9/28 决定是否需要为上层封装同步实现 
     public Map<Response, Boolean> get(List<String> uriList) throws InterruptedException, IOException {
         final Map<Response, Boolean> responseMap = new ConcurrentHashMap<>();
-        List<Session> sessionList = new ArrayList<>();
-        for (String uri : uriList) {
-            Request request = new Request(uri, this.header);
-            sessionList.add(parseSession(request));
-        }
-        final CountDownLatch latch = new CountDownLatch(sessionList.size());
-        handle(sessionList, new CompletionHandler<Response, Response>() {
+        final CountDownLatch latch = new CountDownLatch(uriList.size());
+        handleGet(uriList, new CompletionHandler<Response, Response>() {
             @Override
             public void completed(Response result, Response response) {
                 responseMap.put(result, true);
@@ -79,6 +99,10 @@ public class HttpAsyncClient extends AsyncSocketExecutor {
     }
 
     public void handleGet(List<String> uriList, CompletionHandler<Response, Response> handler) {
+        if (pipelineDepth > 1 && http2 == null) {
+            handlePipelined(uriList, handler);
+            return;
+        }
         List<Session> sessionList = new ArrayList<>();
         for (String uri : uriList) {
             Request request = new Request(uri, this.header);
@@ -93,43 +117,134 @@ public class HttpAsyncClient extends AsyncSocketExecutor {
         handle(session, handler);
     }
 
+    /***
+     * 按主机分组，每组按流水线深度切分，每段在一个连接上以流水线方式发送
+     * 单个请求或已知不支持流水线的主机逐个发送
+     * @param uriList
+     * @param handler
+     */
+    private void handlePipelined(List<String> uriList, CompletionHandler<Response, Response> handler) {
+        Map<String, List<Request>> hostMap = new LinkedHashMap<>();
+        for (String uri : uriList) {
+            Request request = new Request(uri, this.header);
+            hostMap.computeIfAbsent(key(request), k -> new ArrayList<>()).add(request);
+        }
+        for (Map.Entry<String, List<Request>> entry : hostMap.entrySet()) {
+            List<Request> requests = entry.getValue();
+            if (requests.size() == 1 || serialHosts.contains(entry.getKey())) {
+                for (Request request : requests) {
+                    handleGet(request, handler);
+                }
+                continue;
+            }
+            for (int i = 0; i < requests.size(); i += pipelineDepth) {
+                List<Request> batch = requests.subList(i, Math.min(i + pipelineDepth, requests.size()));
+                new HttpPipeline(this, entry.getKey(), batch, handler).start();
+            }
+        }
+    }
+
+    /***
+     * 执行会话，供流水线等同包组件使用
+     * @param session
+     * @param handler
+     */
+    void send(Session session, CompletionHandler<Message, Session> handler) {
+        try {
+            execute(session, handler);
+        } catch (Exception e) {
+            handler.failed(e, session);
+        }
+    }
+
+    /***
+     * 延迟执行任务
+     * @param task
+     * @param delay 毫秒
+     * @return
+     */
+    TimerWheel.Timeout schedule(Runnable task, long delay) {
+        return schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    void disablePipelining(String key) {
+        serialHosts.add(key);
+    }
+
+    private static String key(Request request) {
+        return request.getProtocol() + "://" + request.getHost() + ":" + request.getPort();
+    }
+
     public void handleScanPort(String host, String port, CompletionHandler<Boolean, String[]> handler) throws IOException {
         Session session = new Session(host, Integer.parseInt(port));
         scanPort(session, new CompletionHandler<Boolean, Session>() {
             @Override
             public void completed(Boolean result, Session attachment) {
-                String[] res = new String[3];
-                InetSocketAddress address = attachment.getAddress();
-                res[0] = address.getAddress().getHostAddress();
-                res[1] = address.getAddress().getHostName();
-                res[2] = String.valueOf(address.getPort());
-                handler.completed(result, res);
+                handler.completed(result, describe(attachment.getAddress()));
             }
 
             @Override
             public void failed(Throwable exc, Session attachment) {
-                String[] res = new String[3];
-                InetSocketAddress address = attachment.getAddress();
-                res[0] = address.getAddress().getHostAddress();
-                res[1] = address.getAddress().getHostName();
-                res[2] = String.valueOf(address.getPort());
-                handler.failed(exc, res);
+                handler.failed(exc, describe(attachment.getAddress()));
             }
         });
 
     }
 
+    /***
+     * 扫描结果：IP、主机名、端口；域名解析失败时地址未解析，IP与主机名均为原域名
+     * @param address
+     * @return
+     */
+    private static String[] describe(InetSocketAddress address) {
+        String[] res = new String[3];
+        if (address.isUnresolved()) {
+            res[0] = address.getHostString();
+            res[1] = address.getHostString();
+        } else {
+            res[0] = address.getAddress().getHostAddress();
+            res[1] = address.getAddress().getHostName();
+        }
+        res[2] = String.valueOf(address.getPort());
+        return res;
+    }
+
+    /***
+     * 为请求新建会话，重试与对冲时使用
+     * @param request
+     * @return
+     */
+    Session newSession(Request request) {
+        return parseSession(request);
+    }
+
     private Session parseSession(Request request) {
         Session session;
+        Charset charset = request.getResponseCharset() != null ? request.getResponseCharset() : this.charset;
         if (request.getProtocol().equals("https")) {
-            session = new Session(request.getHost(), request.getPort(), request, true, charset);
+            session = new Session(request.getHost(), request.getPort(), new HttpMessage(charset), request, true);
         } else {
-            session = new Session(request.getHost(), request.getPort(), request, charset);
+            session = new Session(request.getHost(), request.getPort(), new HttpMessage(charset), request, false);
         }
         session.setReadFromChannelHandler(new ReadFromChannelHttpHandler());
+        configure(session);
+        if (request.getTimeout() > 0) {
+            //与HttpURLConnection的连接、读取超时对应，整体不限制
+            session.setDeadlines(request.getTimeout(), request.getTimeout(), 0);
+        }
         return session;
     }
 
+    /***
+     * 应用客户端级别的会话设置
+     * @param session
+     */
+    void configure(Session session) {
+        if (deadlines != null) {
+            session.setDeadlines(deadlines[0], deadlines[1], deadlines[2]);
+        }
+    }
+
     private void handle(List<Session> sessionList, CompletionHandler<Response, Response> handler) {
         for (Session session : sessionList) {
             handle(session, handler);
@@ -138,25 +253,94 @@ public class HttpAsyncClient extends AsyncSocketExecutor {
 
     /**
      * 处理请求
-     * todo 支持请求转发，异常重试功能
+     * 设置了重试策略或启用对冲时由HttpCall管理多次发送
+     * todo 支持请求转发
      *
      * @param session
      * @param handler
      */
     private void handle(Session session, CompletionHandler<Response, Response> handler) {
+        if (retryPolicy.getMaxRetries() > 0 || hedging) {
+            Request request = (Request) session.getWriteToChannelMessage();
+            LatencyTracker latency = hedging ? latencies.computeIfAbsent(key(request), k -> new LatencyTracker()) : null;
+            new HttpCall(this, request, retryPolicy, latency, handler).start(session);
+            return;
+        }
+        attempt(session, handler);
+    }
+
+    /***
+     * 发送一次请求
+     * @param session
+     * @param handler
+     */
+    void attempt(Session session, CompletionHandler<Response, Response> handler) {
         Request request = (Request) session.getWriteToChannelMessage();
+        if (http2 != null && !http2.isHttp1(request)) {
+            handleHttp2(session, request, handler);
+            return;
+        }
+        handleHttp1(session, request, handler);
+    }
+
+    /***
+     * 以HTTP/2流发送请求，对端要求HTTP/1.1时改用原会话重新发送
+     * @param session
+     * @param request
+     * @param handler
+     */
+    private void handleHttp2(Session session, Request request, CompletionHandler<Response, Response> handler) {
+        HttpMessage message = (HttpMessage) session.getReadFromChannelMessage();
+        http2.submit(request, message, new CompletionHandler<Message, Request>() {
+            @Override
+            public void completed(Message result, Request attachment) {
+                Response res = new Response(result, request);
+                try {
+                    handler.completed(res, res);
+                } finally {
+                    res.detach();
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, Request attachment) {
+                if (exc instanceof Http2Exception && ((Http2Exception) exc).isHttp1Required()) {
+                    message.recycle();
+                    handleHttp1(session, request, handler);
+                    return;
+                }
+                Response res = new Response(message, request);
+                try {
+                    handler.failed(exc, res);
+                } finally {
+                    res.detach();
+                }
+            }
+        });
+    }
+
+    private void handleHttp1(Session session, Request request, CompletionHandler<Response, Response> handler) {
         try {
             execute(session, new CompletionHandler<Message, Session>() {
                 @Override
                 public void completed(Message result, Session session) {
-                    Response res = new Response(result.getEffectBytes(), request, charset);
-                    handler.completed(res, res);
+                    Response res = new Response(result, request);
+                    try {
+                        handler.completed(res, res);
+                    } finally {
+                        //回调返回后缓冲区归还缓冲区池，只保留字符串结果
+                        res.detach();
+                    }
                 }
 
                 @Override
                 public void failed(Throwable exc, Session session) {
-                    Response res = new Response(session.getReadFromChannelMessage().getEffectBytes(), request, charset);
-                    handler.failed(exc, res);
+                    Response res = new Response(session.getReadFromChannelMessage(), request);
+                    try {
+                        handler.failed(exc, res);
+                    } finally {
+                        res.detach();
+                    }
                 }
             });
         } catch (Exception e) {
@@ -174,6 +358,65 @@ public class HttpAsyncClient extends AsyncSocketExecutor {
         this.header = header;
     }
 
+    /***
+     * 启用或关闭HTTP/2
+     * @param enabled
+     */
+    public void setHttp2(boolean enabled) {
+        if (http2 != null) {
+            http2.close();
+        }
+        this.http2 = enabled ? new Http2ConnectionManager(this::connect) : null;
+    }
+
+    public boolean isHttp2() {
+        return http2 != null;
+    }
+
+    /***
+     * 设置流水线深度，1为不使用流水线
+     * 仅对HTTP/1.1的批量GET生效，启用HTTP/2时由多路复用代替
+     * @param pipelineDepth
+     */
+    public void setPipelineDepth(int pipelineDepth) {
+        this.pipelineDepth = Math.max(pipelineDepth, 1);
+    }
+
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    /***
+     * 设置请求的截止时间（毫秒），0表示不限制
+     * @param connectTimeout   建立连接，包含域名解析与TLS握手
+     * @param firstByteTimeout 请求写出后到收到响应第一个字节
+     * @param totalTimeout     整个请求
+     */
+    public void setDeadlines(long connectTimeout, long firstByteTimeout, long totalTimeout) {
+        this.deadlines = new long[]{connectTimeout, firstByteTimeout, totalTimeout};
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy == null ? RetryPolicy.NONE : retryPolicy;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /***
+     * 启用或关闭对冲请求
+     * 同一主机积累足够的延迟样本后，超过p95延迟仍未返回的请求会再发送一次，取先返回的结果
+     * @param hedging
+     */
+    public void setHedging(boolean hedging) {
+        this.hedging = hedging;
+    }
+
+    public boolean isHedging() {
+        return hedging;
+    }
+
     public Charset getCharset() {
         return charset;
     }
@@ -183,6 +426,9 @@ public class HttpAsyncClient extends AsyncSocketExecutor {
     }
 
     public void close() throws IOException {
+        if (http2 != null) {
+            http2.close();
+        }
         super.close();
     }
 
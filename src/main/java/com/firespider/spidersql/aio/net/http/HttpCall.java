@@ -0,0 +1,194 @@
+package com.firespider.spidersql.aio.net.http;
+
+import com.firespider.spidersql.aio.net.core.Session;
+import com.firespider.spidersql.aio.net.core.TimerWheel;
+
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 带重试与对冲的单次请求
+ * 失败或返回暂时不可用的状态码时，按重试策略退避后在新会话上重新发送；
+ * 启用对冲时，请求耗时超过该主机最近的p95延迟仍未返回，则再发送一个相同的请求，
+ * 先返回的结果交给回调，其余的会话被取消
+ * 只有幂等请求会被重试或对冲
+ */
+class HttpCall {
+    private static final double HEDGE_PERCENTILE = 0.95;
+
+    private final HttpAsyncClient client;
+
+    private final Request request;
+
+    private final CompletionHandler<Response, Response> handler;
+
+    private final RetryPolicy policy;
+
+    private final LatencyTracker latency;
+
+    private final boolean idempotent;
+
+    //进行中的会话
+    private final List<Session> attempts = new ArrayList<>();
+
+    private int retries;
+
+    private boolean hedged;
+
+    private boolean done;
+
+    private TimerWheel.Timeout hedge;
+
+    HttpCall(HttpAsyncClient client, Request request, RetryPolicy policy, LatencyTracker latency, CompletionHandler<Response, Response> handler) {
+        this.client = client;
+        this.request = request;
+        this.policy = policy;
+        this.latency = latency;
+        this.handler = handler;
+        this.idempotent = policy.isRetryable(request);
+    }
+
+    void start(Session session) {
+        if (latency != null && idempotent) {
+            long delay = latency.percentile(HEDGE_PERCENTILE);
+            if (delay >= 0) {
+                hedge = client.schedule(this::hedge, delay);
+            }
+        }
+        send(session);
+    }
+
+    /***
+     * 发送会话；对冲与延迟重试在锁外发起，期间请求可能已结束，此时取消新会话
+     */
+    private void send(Session session) {
+        long begin = System.currentTimeMillis();
+        boolean finished;
+        synchronized (this) {
+            finished = done;
+            if (!finished) {
+                attempts.add(session);
+            }
+        }
+        if (finished) {
+            session.cancel();
+            return;
+        }
+        client.attempt(session, new CompletionHandler<Response, Response>() {
+            @Override
+            public void completed(Response result, Response attachment) {
+                onCompleted(session, result, System.currentTimeMillis() - begin);
+            }
+
+            @Override
+            public void failed(Throwable exc, Response attachment) {
+                onFailed(session, exc, attachment);
+            }
+        });
+    }
+
+    /***
+     * 收到响应：状态码可重试且没有其他进行中的会话时退避重试，否则作为最终结果
+     * 可重试的响应在另一个会话仍在进行时丢弃，由该会话决定结果
+     */
+    private void onCompleted(Session session, Response res, long elapsed) {
+        List<Session> losers;
+        long delay = -1;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            attempts.remove(session);
+            if (idempotent && policy.isRetryable(res.getStatusCode())) {
+                if (!attempts.isEmpty()) {
+                    return;
+                }
+                if (retries < policy.getMaxRetries()) {
+                    delay = policy.backoff(retries++, res.getHeader("Retry-After"));
+                }
+            }
+            if (delay < 0) {
+                losers = finish();
+            } else {
+                losers = null;
+            }
+        }
+        if (delay >= 0) {
+            retry(delay);
+            return;
+        }
+        if (latency != null) {
+            latency.record(elapsed);
+        }
+        cancel(losers);
+        handler.completed(res, res);
+    }
+
+    /***
+     * 失败：另一个会话仍在进行时等待其结果，否则退避重试，重试次数用尽时作为最终结果
+     */
+    private void onFailed(Session session, Throwable exc, Response res) {
+        long delay = -1;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            attempts.remove(session);
+            if (!attempts.isEmpty()) {
+                return;
+            }
+            if (idempotent && retries < policy.getMaxRetries()) {
+                delay = policy.backoff(retries++, null);
+            } else {
+                finish();
+            }
+        }
+        if (delay >= 0) {
+            retry(delay);
+        } else {
+            handler.failed(exc, res);
+        }
+    }
+
+    private void retry(long delay) {
+        if (delay > 0) {
+            client.schedule(() -> send(client.newSession(request)), delay);
+        } else {
+            send(client.newSession(request));
+        }
+    }
+
+    /***
+     * 只有一个会话在进行时发送对冲请求，每次请求最多对冲一次
+     */
+    private void hedge() {
+        synchronized (this) {
+            if (done || hedged || attempts.size() != 1) {
+                return;
+            }
+            hedged = true;
+        }
+        send(client.newSession(request));
+    }
+
+    /***
+     * 标记结束，返回需要取消的其他会话
+     * @return
+     */
+    private List<Session> finish() {
+        done = true;
+        if (hedge != null) {
+            hedge.cancel();
+        }
+        List<Session> res = new ArrayList<>(attempts);
+        attempts.clear();
+        return res;
+    }
+
+    private static void cancel(List<Session> sessions) {
+        for (Session session : sessions) {
+            session.cancel();
+        }
+    }
+}
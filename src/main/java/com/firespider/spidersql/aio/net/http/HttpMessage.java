@@ -1,32 +1,84 @@
 package com.firespider.spidersql.aio.net.http;
 
+import com.firespider.spidersql.aio.net.core.CompositeBuffer;
 import com.firespider.spidersql.aio.net.core.Message;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
 /**
  * Created by stone on 2017/9/16.
+ * 报文解析为增量状态机：每次读取到新数据后从上次的位置继续扫描，
+ * 只记录状态行、头部与正文在缓冲区中的偏移量，头部值在查询时才解析
+ * 分块传输的正文以原缓冲区视图的形式单独保存，不移动数据
  */
 public class HttpMessage extends Message {
     protected final static String CRLF = "\r\n";
 
+    private enum STATE {
+        STATUS_LINE, HEADER, BODY
+    }
+
     private String statusLine;
 
     private Map<String, String> header;
 
     private String body;
 
-    private long bodyLength;
+    private STATE state = STATE.STATUS_LINE;
+
+    //下一次扫描的起始位置与当前行的起始位置
+    private int scanPosition, lineStart;
+
+    private int statusLineEnd = -1, bodyStart = -1;
+
+    //状态码缓存，-2表示尚未解析
+    private int statusCode = -2;
+
+    //分块传输解码后的正文（原缓冲区的视图），非分块传输时为null
+    private CompositeBuffer payload;
+
+    //头部行偏移量，每行依次记录：名称起始，冒号位置，行尾
+    private int[] headerOffsets = new int[3 * 16];
+
+    private int headerCount;
+
+    //正文内容解码器，Content-Encoding为gzip/deflate时存在
+    private ContentDecoder contentDecoder;
 
     public HttpMessage() {
 
     }
 
+    /***
+     * 共享原报文的缓冲区与解析结果，不复制、不重复解析
+     * @param message
+     */
     public HttpMessage(Message message) {
-        this.buffer = message.getBytes();
-        this.charset = message.getCharset();
+        super(message);
+        if (message instanceof HttpMessage) {
+            HttpMessage httpMessage = (HttpMessage) message;
+            this.state = httpMessage.state;
+            this.scanPosition = httpMessage.scanPosition;
+            this.lineStart = httpMessage.lineStart;
+            this.statusLineEnd = httpMessage.statusLineEnd;
+            this.bodyStart = httpMessage.bodyStart;
+            this.statusCode = httpMessage.statusCode;
+            this.payload = httpMessage.payload;
+            this.statusLine = httpMessage.statusLine;
+            this.header = httpMessage.header;
+            this.body = httpMessage.body;
+            this.headerOffsets = httpMessage.headerOffsets;
+            this.headerCount = httpMessage.headerCount;
+            this.contentDecoder = httpMessage.contentDecoder;
+        } else {
+            parse();
+        }
     }
 
     public HttpMessage(Charset charset) {
@@ -42,61 +94,294 @@ public class HttpMessage extends Message {
 
     public HttpMessage(byte[] buf) {
         super(buf);
-        parse(buf);
+        parse();
     }
 
 
     public HttpMessage(byte[] buf, Charset charset) {
         super(buf, charset);
-        parse(buf);
+        parse();
     }
 
     public void setBuffer(byte[] buf, int start, int length) {
-        byte[] newBytes = new byte[length];
-        System.arraycopy(buf, start, newBytes, 0, length);
-        super.setBuffer(newBytes);
-        parse(newBytes);
+        recycle();
+        put(buf, start, length);
+    }
+
+    /***
+     * 清空数据与解析状态，保留已分配的缓冲区以便复用
+     */
+    public void recycle() {
+        clear();
+        resetParser();
     }
 
+    /***
+     * 追加数据并继续解析
+     * @param buf
+     * @param start
+     * @param length
+     */
     public void put(byte[] buf, int start, int length) {
         super.put(buf, start, length);
-//        parse(this.buffer);
+        this.body = null;
+        parse();
+    }
+
+    /***
+     * 追加缓冲区中的剩余数据并继续解析
+     * @param src
+     */
+    public void put(ByteBuffer src) {
+        super.put(src);
+        this.body = null;
+        parse();
+    }
+
+    /***
+     * 挂接缓冲区池中的缓冲区并继续解析，不复制
+     * @param buf 已flip的缓冲区，所有权转交给报文
+     */
+    public void putOwned(ByteBuffer buf) {
+        super.putOwned(buf);
+        this.body = null;
+        parse();
+    }
+
+    /***
+     * 解码 [from, length) 的分块数据，正文以视图形式追加到payload
+     * @param decoder
+     * @param from
+     * @return 解码停止的位置，读取到最后一个分块时即为报文末尾
+     */
+    int decodeChunked(ChunkedDecoder decoder, int from) {
+        if (payload == null) {
+            payload = new CompositeBuffer();
+        }
+        int position = from;
+        for (ByteBuffer slice : content.slices(from, length())) {
+            int start = slice.position();
+            decoder.decode(slice, payload);
+            position += slice.position() - start;
+            if (decoder.isFinished()) {
+                break;
+            }
+        }
+        this.body = null;
+        return position;
+    }
+
+    /***
+     * 截断报文至end，返回其后的多余数据（如流水线中下一个响应的开头）
+     * @param end
+     * @return 没有多余数据时返回null
+     */
+    byte[] cut(int end) {
+        int length = length();
+        if (end >= length) {
+            return null;
+        }
+        byte[] surplus = new byte[length - end];
+        content.copyTo(end, surplus, 0, surplus.length);
+        truncate(end);
+        this.body = null;
+        return surplus;
     }
 
     void setHeader(Map<String, String> header) {
-//        setBuffer(parse(this.statusLine, header, this.body));
         this.header = header;
     }
 
     void setBody(String body) {
-//        setBuffer(parse(this.statusLine, this.header, body));
         this.body = body;
     }
 
     void setStatusLine(String statusLine) {
-//        setBuffer(parse(statusLine, this.header, this.body));
         this.statusLine = statusLine;
     }
 
+    /***
+     * 头部是否已完整接收
+     * @return
+     */
+    public boolean isHeaderComplete() {
+        return state == STATE.BODY;
+    }
+
+    /***
+     * 已接收的正文长度，分块传输时为解码后的长度
+     * @return
+     */
     public long getBodyLength() {
-        return bodyLength;
+        if (payload != null) {
+            return payload.length();
+        }
+        return bodyStart < 0 ? 0 : length() - bodyStart;
+    }
+
+    /***
+     * 正文在缓冲区中的起始位置，头部未接收完整时为-1
+     * @return
+     */
+    public int getBodyStart() {
+        return bodyStart;
     }
 
     protected String getStatusLine() {
+        if (statusLine == null && statusLineEnd >= 0) {
+            statusLine = content.toString(0, trimEnd(0, statusLineEnd), StandardCharsets.ISO_8859_1);
+        }
         return statusLine;
     }
 
+    /***
+     * 直接从缓冲区解析状态码，无效时返回-1
+     * @return
+     */
+    public int getStatusCode() {
+        if (statusCode != -2) {
+            return statusCode;
+        }
+        if (statusLineEnd < 0) {
+            return -1;
+        }
+        int pos = 0;
+        while (pos < statusLineEnd && content.get(pos) != ' ') {
+            pos++;
+        }
+        int code = 0;
+        int digits = 0;
+        for (pos++; pos < statusLineEnd && digits < 3; pos++, digits++) {
+            int d = content.get(pos) - '0';
+            if (d < 0 || d > 9) {
+                return statusCode = -1;
+            }
+            code = code * 10 + d;
+        }
+        return statusCode = digits == 3 ? code : -1;
+    }
+
+    /***
+     * 查询单个头部值，名称不区分大小写，不存在时返回null
+     * @param name
+     * @return
+     */
+    public String getHeader(String name) {
+        if (header != null) {
+            return header.get(name);
+        }
+        for (int i = 0; i < headerCount; i++) {
+            int nameStart = headerOffsets[i * 3];
+            int colon = headerOffsets[i * 3 + 1];
+            if (nameEquals(name, nameStart, colon)) {
+                return headerValue(colon, headerOffsets[i * 3 + 2]);
+            }
+        }
+        return null;
+    }
+
+    /***
+     * 查询同名头部的所有值，按出现顺序，名称不区分大小写
+     * @param name
+     * @return
+     */
+    public List<String> getHeaders(String name) {
+        List<String> res = new ArrayList<>();
+        if (header != null) {
+            String value = header.get(name);
+            if (value != null) {
+                res.add(value);
+            }
+            return res;
+        }
+        for (int i = 0; i < headerCount; i++) {
+            int nameStart = headerOffsets[i * 3];
+            int colon = headerOffsets[i * 3 + 1];
+            if (nameEquals(name, nameStart, colon)) {
+                res.add(headerValue(colon, headerOffsets[i * 3 + 2]));
+            }
+        }
+        return res;
+    }
+
     protected Map<String, String> getHeader() {
-        if (header == null) {
-            parse(this.buffer);
+        if (header == null && isHeaderComplete()) {
+            Map<String, String> res = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 0; i < headerCount; i++) {
+                int nameStart = headerOffsets[i * 3];
+                int colon = headerOffsets[i * 3 + 1];
+                res.put(content.toString(nameStart, colon, StandardCharsets.ISO_8859_1).trim(),
+                        headerValue(colon, headerOffsets[i * 3 + 2]));
+            }
+            header = res;
         }
         return header;
     }
 
     protected String getBody() {
+        if (body == null && bodyStart >= 0) {
+            if (contentDecoder != null) {
+                body = contentDecoder.getOutput().toString(0, contentDecoder.getOutputLength(), this.charset);
+            } else if (payload != null) {
+                body = payload.toString(0, payload.length(), this.charset);
+            } else {
+                body = content.toString(bodyStart, length(), this.charset);
+            }
+        }
         return body;
     }
 
+    /***
+     * 解码正文中 [from, to) 范围内新到达的数据，偏移量相对正文起始位置
+     * @param from
+     * @param to
+     */
+    void decodeContent(int from, int to) {
+        if (contentDecoder != null && to > from) {
+            ByteBuffer[] slices = payload != null ? payload.slices(from, to) : content.slices(bodyStart + from, bodyStart + to);
+            for (ByteBuffer slice : slices) {
+                contentDecoder.decode(slice);
+            }
+            this.body = null;
+        }
+    }
+
+    /***
+     * 生成状态行、头部与正文字符串后释放缓冲区，之后只能访问字符串结果
+     */
+    public void detach() {
+        getStatusCode();
+        getStatusLine();
+        getHeader();
+        getBody();
+        if (payload != null) {
+            payload.clear();
+        }
+        release();
+    }
+
+    /***
+     * 正文已完整接收且边界由外部确定时（如HTTP/2流结束），按Content-Encoding一次性解码
+     */
+    public void decodeBody() {
+        if (!isHeaderComplete() || contentDecoder != null) {
+            return;
+        }
+        contentDecoder = ContentDecoder.create(getHeader("Content-Encoding"));
+        decodeContent(0, (int) getBodyLength());
+        if (contentDecoder != null) {
+            contentDecoder.finish();
+        }
+    }
+
+    void setContentDecoder(ContentDecoder contentDecoder) {
+        this.contentDecoder = contentDecoder;
+    }
+
+    ContentDecoder getContentDecoder() {
+        return contentDecoder;
+    }
+
     public void reset() {
         setBuffer(parse(statusLine, header, body));
     }
@@ -114,35 +399,105 @@ public class HttpMessage extends Message {
         return res.toString();
     }
 
-    private void parse(byte[] buf) {
-        this.header = new TreeMap<>();
+    private void resetParser() {
+        this.state = STATE.STATUS_LINE;
+        this.scanPosition = 0;
+        this.lineStart = 0;
+        this.statusLineEnd = -1;
+        this.bodyStart = -1;
+        this.statusCode = -2;
+        this.headerCount = 0;
+        if (this.payload != null) {
+            this.payload.clear();
+            this.payload = null;
+        }
+        if (this.contentDecoder != null) {
+            this.contentDecoder.finish();
+            this.contentDecoder = null;
+        }
+        this.statusLine = null;
+        this.header = null;
+        this.body = null;
+    }
 
-        int pos = 0;
-        int lastPos = 0;
-        boolean hasStatusLine = false;
-        boolean hasHeader = false;
-        for (; pos < buf.length; pos++) {
-            char c = (char) buf[pos];
-            char next = pos + 1 >= buf.length ? 0 : (char) buf[pos + 1];
-            if (c == '\r' && next == '\n' && !hasHeader) {
-                if (!hasStatusLine) {
-                    this.statusLine = new String(buf, lastPos, pos - lastPos, this.charset);
-                    hasStatusLine = true;
+    /***
+     * 从上次扫描位置继续解析，仅记录偏移量
+     * 兼容CRLF与单独的LF换行
+     */
+    private void parse() {
+        int end = length();
+        int pos = scanPosition;
+        while (state != STATE.BODY && pos < end) {
+            if (content.get(pos) == '\n') {
+                int lineEnd = trimEnd(lineStart, pos);
+                if (state == STATE.STATUS_LINE) {
+                    statusLineEnd = lineEnd;
+                    state = STATE.HEADER;
+                } else if (lineEnd == lineStart) {
+                    bodyStart = pos + 1;
+                    state = STATE.BODY;
                 } else {
-                    String headerLine = new String(buf, lastPos, pos - lastPos, this.charset);
-                    String[] split = headerLine.split(": ");
-                    if (split.length == 2) {
-                        this.header.put(split[0], split[1]);
-                    } else {
-                        hasHeader = true;
-                    }
+                    addHeaderLine(lineStart, lineEnd);
                 }
-                ++pos;
-                lastPos = pos + 1;
+                lineStart = pos + 1;
+            }
+            pos++;
+        }
+        scanPosition = pos;
+    }
+
+    private void addHeaderLine(int start, int end) {
+        int colon = start;
+        while (colon < end && content.get(colon) != ':') {
+            colon++;
+        }
+        if (colon == end) {
+            return;
+        }
+        if ((headerCount + 1) * 3 > headerOffsets.length) {
+            int[] newOffsets = new int[headerOffsets.length << 1];
+            System.arraycopy(headerOffsets, 0, newOffsets, 0, headerCount * 3);
+            headerOffsets = newOffsets;
+        }
+        headerOffsets[headerCount * 3] = start;
+        headerOffsets[headerCount * 3 + 1] = colon;
+        headerOffsets[headerCount * 3 + 2] = end;
+        headerCount++;
+    }
+
+    private int trimEnd(int start, int end) {
+        while (end > start && content.get(end - 1) == '\r') {
+            end--;
+        }
+        return end;
+    }
+
+    private boolean nameEquals(String name, int start, int end) {
+        while (end > start && content.get(end - 1) == ' ') {
+            end--;
+        }
+        if (end - start != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            int a = content.get(start + i);
+            int b = name.charAt(i);
+            if (a != b && Character.toLowerCase(a) != Character.toLowerCase(b)) {
+                return false;
             }
         }
-        this.body = new String(buf, lastPos, pos - lastPos, this.charset);
-        this.bodyLength = pos - lastPos;
+        return true;
+    }
+
+    private String headerValue(int colon, int end) {
+        int start = colon + 1;
+        while (start < end && (content.get(start) == ' ' || content.get(start) == '\t')) {
+            start++;
+        }
+        while (end > start && (content.get(end - 1) == ' ' || content.get(end - 1) == '\t')) {
+            end--;
+        }
+        return content.toString(start, end, StandardCharsets.ISO_8859_1);
     }
 
 }
@@ -0,0 +1,145 @@
+package com.firespider.spidersql.aio.net.http;
+
+import com.firespider.spidersql.aio.net.core.Message;
+import com.firespider.spidersql.aio.net.core.Session;
+
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * HTTP/1.1 请求流水线
+ * 同一主机的多个请求在一个长连接上连续写出，不等待响应，响应按请求顺序依次解析，
+ * 上一个响应末尾之后的数据作为下一个响应的开头
+ * 服务端中途关闭连接时，尚未得到响应的请求在新连接上重新发送；
+ * 连接上一个响应都没有得到，或只得到一个响应就被关闭时，认为服务端不支持流水线，剩余请求逐个发送
+ */
+class HttpPipeline extends ReadFromChannelHttpHandler {
+    private final HttpAsyncClient client;
+
+    private final String key;
+
+    //尚未得到响应的请求，按发送顺序排列
+    private final Deque<Request> pending;
+
+    private final CompletionHandler<Response, Response> handler;
+
+    private Session session;
+
+    //当前连接上已得到的响应数
+    private int answered;
+
+    HttpPipeline(HttpAsyncClient client, String key, List<Request> requests, CompletionHandler<Response, Response> handler) {
+        this.client = client;
+        this.key = key;
+        this.pending = new ArrayDeque<>(requests);
+        this.handler = handler;
+    }
+
+    /***
+     * 在一个连接上发送所有尚未得到响应的请求
+     */
+    void start() {
+        Request first = pending.peek();
+        session = new Session(first.getHost(), first.getPort(), new HttpMessage(client.getCharset()), batch(), "https".equals(first.getProtocol()));
+        session.setReadFromChannelHandler(this);
+        client.configure(session);
+        answered = 0;
+        start(null);
+        client.send(session, new CompletionHandler<Message, Session>() {
+            @Override
+            public void completed(Message result, Session session) {
+            }
+
+            @Override
+            public void failed(Throwable exc, Session session) {
+                abort();
+            }
+        });
+    }
+
+    @Override
+    protected void onMessage(HttpMessage message, Session session, boolean keepAlive) {
+        Request request = pending.poll();
+        answered++;
+        byte[] surplus = takeSurplus();
+        if (keepAlive && !pending.isEmpty()) {
+            deliver(request, message);
+            HttpMessage next = new HttpMessage(client.getCharset());
+            session.setReadFromChannelMessage(next);
+            start(next);
+            if (surplus == null) {
+                session.read(this);
+            } else {
+                next.put(surplus, 0, surplus.length);
+                process(session);
+            }
+            return;
+        }
+        session.release(keepAlive && surplus == null);
+        deliver(request, message);
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (answered == 1) {
+            fallback();
+        } else {
+            start();
+        }
+    }
+
+    /***
+     * 复用的连接失效后，会话在新连接上重试前调用，只重新发送尚未得到响应的请求
+     */
+    @Override
+    public void reset() {
+        super.reset();
+        answered = 0;
+        session.setWriteToChannelMessage(batch());
+    }
+
+    /***
+     * 连接中途失败：已有进展时在新连接上继续，否则改为逐个发送
+     */
+    private void abort() {
+        if (answered > 0) {
+            start();
+        } else {
+            fallback();
+        }
+    }
+
+    /***
+     * 服务端不支持流水线，记录主机，剩余请求各自发送
+     */
+    private void fallback() {
+        client.disablePipelining(key);
+        Request request;
+        while ((request = pending.poll()) != null) {
+            client.handleGet(request, handler);
+        }
+    }
+
+    private void deliver(Request request, HttpMessage message) {
+        Response res = new Response(message, request);
+        try {
+            handler.completed(res, res);
+        } finally {
+            res.detach();
+        }
+    }
+
+    /***
+     * 将尚未得到响应的请求依次拼接为一个报文
+     * @return
+     */
+    private HttpMessage batch() {
+        HttpMessage batch = new HttpMessage();
+        for (Request request : pending) {
+            byte[] bytes = request.getEffectBytes();
+            batch.put(bytes, 0, bytes.length);
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,42 @@
+package com.firespider.spidersql.aio.net.http;
+
+import java.util.Arrays;
+
+/**
+ * 单个主机的响应延迟统计
+ * 保留最近的若干个样本，按需计算分位数，样本不足时不给出结果
+ */
+class LatencyTracker {
+    private static final int SAMPLES = 256;
+
+    private static final int MIN_SAMPLES = 20;
+
+    private final long[] samples = new long[SAMPLES];
+
+    private int count;
+
+    private int next;
+
+    synchronized void record(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % SAMPLES;
+        if (count < SAMPLES) {
+            count++;
+        }
+    }
+
+    /***
+     * 最近样本的分位数
+     * @param p 取值 (0, 1]
+     * @return 毫秒，样本不足时返回-1
+     */
+    synchronized long percentile(double p) {
+        if (count < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(p * count) - 1;
+        return sorted[Math.min(Math.max(index, 0), count - 1)];
+    }
+}
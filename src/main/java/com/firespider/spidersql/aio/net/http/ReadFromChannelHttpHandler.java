@@ -3,44 +3,269 @@ package com.firespider.spidersql.aio.net.http;
 import com.firespider.spidersql.aio.net.core.ReadFromChannelHandler;
 import com.firespider.spidersql.aio.net.core.Session;
 
-import java.nio.ByteBuffer;
+import java.io.IOException;
+import java.util.List;
 
 /**
  * Created by stone on 2017/9/24.
+ * 每次读取完成后将读缓冲区直接挂接到会话的HttpMessage中增量解析，不复制数据
+ * 报文边界按以下顺序确定：无正文的状态码，分块传输，Content-Length，连接关闭
+ * Content-Length 为负、超出可缓存的长度或多个值互相矛盾时视为协议错误
+ * 1xx临时响应（如100、103）只有头部，丢弃后继续解析其后的最终响应
  */
 public class ReadFromChannelHttpHandler extends ReadFromChannelHandler {
-    private int threshold;
-    private ByteBuffer readBuffer;
+    private enum FRAMING {
+        NONE, LENGTH, CHUNKED, CLOSE
+    }
+
     private HttpMessage message;
-    private long length = 0, currentLength = 0;
 
-    public ReadFromChannelHttpHandler(int threshold){
-        this.threshold = threshold;
-    }
-    public ReadFromChannelHttpHandler(){
-        this(3);
-    }
+    private FRAMING framing;
+
+    private long length;
+
+    private ChunkedDecoder chunkedDecoder;
+
+    //已解码的分块数据末尾
+    private int decodedPosition;
+
+    //已交给内容解码器的正文长度
+    private int contentPosition;
+
+    //报文末尾之后的多余数据
+    private byte[] surplus;
 
     @Override
     public void completed(Integer result, Session session) {
         if (message == null) {
-            readBuffer = session.getReadBuffer(true);
-            message = new HttpMessage(session.getReadFromChannelMessage());
-            message.setBuffer(readBuffer.array(), 0, readBuffer.position());
-            if (message.getHeader() != null && message.getHeader().containsKey("Content-Length")) {
-                length = Long.parseLong(message.getHeader().get("Content-Length"));
+            message = (HttpMessage) session.getReadFromChannelMessage();
+        }
+        if (result < 0) {
+            if (message.length() == 0) {
+                //复用的连接已被服务端关闭
+                failed(new IOException("connection closed"), session);
+            } else if (framing == FRAMING.CLOSE) {
+                finish(session, false);
+            } else {
+                failed(new IOException("unexpected end of stream"), session);
             }
-            currentLength = message.getBodyLength();
-        } else {
-            message.put(readBuffer.array(), 0, readBuffer.position());
-            currentLength += result;
+            return;
+        }
+        //SSL连接的读缓冲区中已是解密后的数据
+        message.putOwned(session.detachReadBuffer());
+        process(session);
+    }
+
+    /***
+     * 解析已接收的数据，报文完整时结束，否则继续读取
+     * @param session
+     */
+    protected void process(Session session) {
+        boolean done;
+        try {
+            done = isComplete();
+        } catch (RuntimeException e) {
+            failed(e, session);
+            return;
         }
-        if (currentLength >= length - threshold) {
-            System.out.println(((Request) session.getWriteToChannelMessage()).getUrl());
-            session.getCustomHandler().completed(message, session);
+        if (done) {
+            finish(session, isKeepAlive());
         } else {
-            readBuffer.clear();
-            session.getSocketChannel().read(readBuffer, session, this);
+            session.read(this);
+        }
+    }
+
+    /***
+     * 判断报文是否已完整接收
+     * 新到达的正文数据在确定边界后立即交给内容解码器，报文末尾之后的数据截下保存
+     * @return
+     */
+    private boolean isComplete() {
+        if (!message.isHeaderComplete()) {
+            return false;
+        }
+        while (framing == null && isInterim()) {
+            byte[] rest = message.cut(message.getBodyStart());
+            message.recycle();
+            if (rest != null) {
+                message.put(rest, 0, rest.length);
+            }
+            if (!message.isHeaderComplete()) {
+                return false;
+            }
+        }
+        if (framing == null) {
+            framing = parseFraming();
+            decodedPosition = message.getBodyStart();
+            contentPosition = 0;
+            message.setContentDecoder(ContentDecoder.create(message.getHeader("Content-Encoding")));
+        }
+        boolean complete;
+        switch (framing) {
+            case NONE:
+                surplus = message.cut(message.getBodyStart());
+                complete = true;
+                break;
+            case LENGTH:
+                complete = message.getBodyLength() >= length;
+                if (complete) {
+                    surplus = message.cut((int) (message.getBodyStart() + length));
+                }
+                break;
+            case CHUNKED:
+                decodedPosition = message.decodeChunked(chunkedDecoder, decodedPosition);
+                complete = chunkedDecoder.isFinished();
+                if (complete) {
+                    surplus = message.cut(decodedPosition);
+                }
+                break;
+            default:
+                complete = false;
+                break;
+        }
+        int bodyLength = (int) message.getBodyLength();
+        message.decodeContent(contentPosition, bodyLength);
+        contentPosition = bodyLength;
+        return complete;
+    }
+
+    /***
+     * 是否为临时响应，101表示切换协议，视为最终响应
+     * @return
+     */
+    private boolean isInterim() {
+        int code = message.getStatusCode();
+        return code >= 100 && code < 200 && code != 101;
+    }
+
+    private FRAMING parseFraming() {
+        int code = message.getStatusCode();
+        if (code == 101 || code == 204 || code == 304) {
+            return FRAMING.NONE;
+        }
+        String transferEncoding = message.getHeader("Transfer-Encoding");
+        if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+            chunkedDecoder = new ChunkedDecoder();
+            return FRAMING.CHUNKED;
         }
+        List<String> contentLength = message.getHeaders("Content-Length");
+        if (!contentLength.isEmpty()) {
+            length = parseContentLength(contentLength);
+            return FRAMING.LENGTH;
+        }
+        return FRAMING.CLOSE;
+    }
+
+    /***
+     * 解析Content-Length，允许重复出现或以逗号分隔的相同值
+     * @param values 所有 Content-Length 头部的值
+     * @return
+     */
+    private long parseContentLength(List<String> values) {
+        long res = -1;
+        for (String value : values) {
+            for (String item : value.split(",")) {
+                long parsed;
+                try {
+                    parsed = Long.parseLong(item.trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalStateException("invalid Content-Length: " + value);
+                }
+                //正文缓存在内存中，位置以int表示
+                if (parsed < 0 || parsed > Integer.MAX_VALUE - message.getBodyStart()) {
+                    throw new IllegalStateException("invalid Content-Length: " + value);
+                }
+                if (res >= 0 && parsed != res) {
+                    throw new IllegalStateException("conflicting Content-Length: " + String.join(", ", values));
+                }
+                res = parsed;
+            }
+        }
+        return res;
+    }
+
+    private void finish(Session session, boolean keepAlive) {
+        releaseDecoder();
+        onMessage(message, session, keepAlive);
+    }
+
+    /***
+     * 报文接收完整，归还连接并回调
+     * @param message
+     * @param session
+     * @param keepAlive 连接是否可以继续使用
+     */
+    protected void onMessage(HttpMessage message, Session session, boolean keepAlive) {
+        //响应之后还有多余数据的连接不能复用
+        session.release(keepAlive && takeSurplus() == null);
+        session.getCustomHandler().completed(message, session);
+    }
+
+    /***
+     * 取走报文末尾之后的多余数据
+     * @return 没有多余数据时返回null
+     */
+    protected byte[] takeSurplus() {
+        byte[] res = surplus;
+        surplus = null;
+        return res;
+    }
+
+    /***
+     * 判断连接是否可以归还连接池
+     * 报文边界明确且服务端未要求关闭连接时复用，Connection 为逗号分隔的选项列表
+     * @return
+     */
+    private boolean isKeepAlive() {
+        if (framing == FRAMING.CLOSE) {
+            return false;
+        }
+        List<String> connection = message.getHeaders("Connection");
+        if (!connection.isEmpty()) {
+            for (String value : connection) {
+                for (String option : value.split(",")) {
+                    if ("close".equalsIgnoreCase(option.trim())) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        String statusLine = message.getStatusLine();
+        return statusLine == null || !statusLine.startsWith("HTTP/1.0");
+    }
+
+    @Override
+    public void failed(Throwable exc, Session session) {
+        releaseDecoder();
+        super.failed(exc, session);
+    }
+
+    private void releaseDecoder() {
+        if (message != null && message.getContentDecoder() != null) {
+            message.getContentDecoder().finish();
+        }
+    }
+
+    @Override
+    public void reset() {
+        if (message != null) {
+            message.recycle();
+        }
+        start(message);
+    }
+
+    /***
+     * 开始接收下一个报文，同一连接上连续接收多个响应时使用
+     * @param next
+     */
+    protected void start(HttpMessage next) {
+        message = next;
+        surplus = null;
+        framing = null;
+        length = 0;
+        chunkedDecoder = null;
+        decodedPosition = 0;
+        contentPosition = 0;
     }
 }
@@ -1,6 +1,7 @@
 package com.firespider.spidersql.aio.net.http;
 
 
+import java.nio.charset.Charset;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -18,6 +19,12 @@ public class Request extends HttpMessage {
 
     private String method = "GET";
 
+    //单次请求的响应编码，为null时使用客户端的编码
+    private Charset responseCharset;
+
+    //单次请求的连接与首字节截止时间（毫秒），0时使用客户端的设置
+    private long timeout;
+
     private final String[] userAgents = new String[]{
             "Mozilla/4.0 (compatible; MSIE 6.0; Windows NT 5.1; SV1; AcooBrowser; .NET CLR 1.1.4322; .NET CLR 2.0.50727)",
             "Mozilla/4.0 (compatible; MSIE 7.0; Windows NT 6.0; Acoo Browser; SLCC1; .NET CLR 2.0.50727; Media Center PC 5.0; .NET CLR 3.0.04506)",
@@ -65,6 +72,7 @@ public class Request extends HttpMessage {
         resMap.put("Connection", "Keep-Alive");
         resMap.put("User-Agent", userAgents[(int) (System.currentTimeMillis() & (userAgents.length - 1))]);
         resMap.put("Accept-Language", "en-us");
+        resMap.put("Accept-Encoding", "gzip, deflate");
         if (header != null)
             resMap.putAll(header);
         return resMap;
@@ -75,6 +83,18 @@ public class Request extends HttpMessage {
         return "";
     }
 
+    public String getMethod() {
+        return method;
+    }
+
+    /***
+     * 请求路径，包含查询参数
+     * @return
+     */
+    public String getPath() {
+        return url.getPath();
+    }
+
     public String getHost() {
         return this.url.getHost();
     }
@@ -90,4 +110,20 @@ public class Request extends HttpMessage {
     public String getUrl() {
         return url.getUrl();
     }
+
+    public Charset getResponseCharset() {
+        return responseCharset;
+    }
+
+    public void setResponseCharset(Charset responseCharset) {
+        this.responseCharset = responseCharset;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
 }
@@ -1,6 +1,9 @@
 package com.firespider.spidersql.aio.net.http;
 
+import com.firespider.spidersql.aio.net.core.Message;
+
 import java.nio.charset.Charset;
+import java.util.Map;
 
 /**
  * Created by stone on 2017/9/16.
@@ -17,6 +20,16 @@ public class Response extends HttpMessage {
         this.request = request;
     }
 
+    /***
+     * 直接使用读取到的报文，不复制、不重复解析
+     * @param message
+     * @param request
+     */
+    public Response(Message message, Request request) {
+        super(message);
+        this.request = request;
+    }
+
     public void setRequest(Request request) {
         this.request = request;
     }
@@ -28,4 +41,12 @@ public class Response extends HttpMessage {
     public String getBody() {
         return super.getBody();
     }
+
+    /***
+     * 全部头部，名称不区分大小写
+     * @return
+     */
+    public Map<String, String> getHeader() {
+        return super.getHeader();
+    }
 }
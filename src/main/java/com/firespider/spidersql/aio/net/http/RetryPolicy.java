@@ -0,0 +1,79 @@
+package com.firespider.spidersql.aio.net.http;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 重试策略
+ * 只重试幂等请求，范围为传输层失败与表示暂时不可用的状态码，
+ * 重试间隔按指数退避并在 [0, 上限] 内随机抖动，避免大量请求同时重试
+ */
+public class RetryPolicy {
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0);
+
+    private static final Set<String> IDEMPOTENT_METHODS = new HashSet<>(Arrays.asList("GET", "HEAD", "OPTIONS", "PUT", "DELETE", "TRACE"));
+
+    private static final Set<Integer> RETRY_STATUS = new HashSet<>(Arrays.asList(408, 429, 502, 503, 504));
+
+    //避免退避上限计算溢出
+    private static final int MAX_SHIFT = 20;
+
+    private final int maxRetries;
+
+    private final long baseDelay;
+
+    private final long maxDelay;
+
+    /**
+     * @param maxRetries 最大重试次数
+     * @param baseDelay  首次重试的退避上限（毫秒），之后每次翻倍
+     * @param maxDelay   退避上限的最大值（毫秒）
+     */
+    public RetryPolicy(int maxRetries, long baseDelay, long maxDelay) {
+        this.maxRetries = Math.max(maxRetries, 0);
+        this.baseDelay = Math.max(baseDelay, 0);
+        this.maxDelay = Math.max(maxDelay, this.baseDelay);
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /***
+     * 请求是否可以重试（方法幂等）
+     * @param request
+     * @return
+     */
+    public boolean isRetryable(Request request) {
+        return IDEMPOTENT_METHODS.contains(request.getMethod());
+    }
+
+    /***
+     * 状态码是否表示暂时不可用
+     * @param statusCode
+     * @return
+     */
+    public boolean isRetryable(int statusCode) {
+        return RETRY_STATUS.contains(statusCode);
+    }
+
+    /***
+     * 第 retry 次重试前的等待时间
+     * @param retry      从0开始
+     * @param retryAfter 响应的Retry-After头部（秒），可为null
+     * @return 毫秒
+     */
+    public long backoff(int retry, String retryAfter) {
+        long cap = Math.min(maxDelay, baseDelay << Math.min(retry, MAX_SHIFT));
+        long delay = cap > 0 ? ThreadLocalRandom.current().nextLong(cap + 1) : 0;
+        if (retryAfter != null) {
+            try {
+                delay = Math.max(delay, Math.min(Long.parseLong(retryAfter.trim()) * 1000, maxDelay));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return delay;
+    }
+}
@@ -44,7 +44,6 @@ public class URL {
             if (c == ':' && hasProtocol && !hasHost) {
                 this.host = sb.toString();
                 sb.delete(0, sb.length());
-                pos++;
                 hasHost = true;
                 continue;
             }
@@ -72,7 +71,15 @@ public class URL {
             }
             sb.append(c);
         }
-        this.path = sb.toString();
+        if (hasProtocol && !hasHost) {
+            this.host = sb.toString();
+            this.port = "https".equals(this.protocol) ? 443 : 80;
+            sb.delete(0, sb.length());
+        } else if (hasHost && !hasPort) {
+            this.port = Integer.parseInt(sb.toString());
+            sb.delete(0, sb.length());
+        }
+        this.path = sb.length() == 0 ? "/" : sb.toString();
         return true;
     }
 
@@ -0,0 +1,105 @@
+package com.firespider.spidersql.aio.net.http2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.BiConsumer;
+
+/**
+ * HPACK 头部块解码（RFC 7541 第6节）
+ * 同一连接的所有头部块必须按接收顺序解码，以保持动态表与对端一致
+ */
+class HpackDecoder {
+    private final HpackTable table;
+
+    //本端通过SETTINGS_HEADER_TABLE_SIZE公布的动态表上限
+    private final int maxTableSize;
+
+    HpackDecoder(int maxTableSize) {
+        this.maxTableSize = maxTableSize;
+        this.table = new HpackTable(maxTableSize);
+    }
+
+    /***
+     * 解码完整的头部块
+     * @param block
+     * @param length
+     * @param consumer 按顺序接收 名称, 值
+     * @throws Http2Exception 头部块无效
+     */
+    void decode(byte[] block, int length, BiConsumer<String, String> consumer) throws Http2Exception {
+        int[] pos = new int[]{0};
+        boolean headerSeen = false;
+        while (pos[0] < length) {
+            int b = block[pos[0]++] & 0xff;
+            if ((b & 0x80) != 0) {
+                String[] field = table.get(readInt(block, pos, length, b, 7));
+                consumer.accept(field[0], field[1]);
+                headerSeen = true;
+            } else if ((b & 0x40) != 0) {
+                String name = readName(block, pos, length, b, 6);
+                String value = readString(block, pos, length);
+                table.add(name, value);
+                consumer.accept(name, value);
+                headerSeen = true;
+            } else if ((b & 0x20) != 0) {
+                //动态表大小更新只能出现在头部块开头
+                int size = readInt(block, pos, length, b, 5);
+                if (headerSeen || size > maxTableSize) {
+                    throw new Http2Exception(Http2Frame.COMPRESSION_ERROR, "invalid table size update");
+                }
+                table.setMaxSize(size);
+            } else {
+                //不索引或永不索引的字面值
+                String name = readName(block, pos, length, b, 4);
+                consumer.accept(name, readString(block, pos, length));
+                headerSeen = true;
+            }
+        }
+    }
+
+    private String readName(byte[] block, int[] pos, int length, int first, int prefix) throws Http2Exception {
+        int index = readInt(block, pos, length, first, prefix);
+        return index == 0 ? readString(block, pos, length) : table.get(index)[0];
+    }
+
+    /***
+     * 读取带前缀的整数（RFC 7541 第5.1节）
+     */
+    private static int readInt(byte[] block, int[] pos, int length, int first, int prefix) throws Http2Exception {
+        int max = (1 << prefix) - 1;
+        int value = first & max;
+        if (value < max) {
+            return value;
+        }
+        int shift = 0;
+        int b;
+        do {
+            if (pos[0] >= length || shift > 21) {
+                throw new Http2Exception(Http2Frame.COMPRESSION_ERROR, "invalid integer");
+            }
+            b = block[pos[0]++] & 0xff;
+            value += (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /***
+     * 读取字符串字面值，首位为霍夫曼编码标志
+     */
+    private static String readString(byte[] block, int[] pos, int length) throws Http2Exception {
+        if (pos[0] >= length) {
+            throw new Http2Exception(Http2Frame.COMPRESSION_ERROR, "truncated string");
+        }
+        int first = block[pos[0]++] & 0xff;
+        int len = readInt(block, pos, length, first, 7);
+        if (len > length - pos[0]) {
+            throw new Http2Exception(Http2Frame.COMPRESSION_ERROR, "truncated string");
+        }
+        int start = pos[0];
+        pos[0] += len;
+        if ((first & 0x80) != 0) {
+            return Huffman.decode(block, start, len);
+        }
+        return new String(block, start, len, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,102 @@
+package com.firespider.spidersql.aio.net.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HPACK 头部块编码（RFC 7541 第6节）
+ * 完全匹配的头部直接引用索引；其余头部以字面值发送并加入动态表，
+ * 同一连接上重复的头部（User-Agent、Accept-Encoding等）之后只需1~2字节
+ * :path 等每次都不同的头部不加入动态表，避免挤出可复用的条目
+ */
+class HpackEncoder {
+    private static final int DEFAULT_TABLE_SIZE = 4096;
+
+    private final HpackTable table = new HpackTable(DEFAULT_TABLE_SIZE);
+
+    //对端调整了动态表上限，下一个头部块开头需通知对端
+    private int pendingSizeUpdate = -1;
+
+    /***
+     * 对端SETTINGS_HEADER_TABLE_SIZE变化时调用，本端最多使用默认大小
+     * @param size
+     */
+    void setMaxTableSize(int size) {
+        size = Math.min(size, DEFAULT_TABLE_SIZE);
+        if (size != table.getMaxSize()) {
+            table.setMaxSize(size);
+            pendingSizeUpdate = size;
+        }
+    }
+
+    /***
+     * 开始编码新的头部块
+     * @param out
+     */
+    void begin(ByteArrayOutputStream out) {
+        if (pendingSizeUpdate >= 0) {
+            writeInt(out, 0x20, 5, pendingSizeUpdate);
+            pendingSizeUpdate = -1;
+        }
+    }
+
+    /***
+     * 编码单个头部
+     * @param out
+     * @param name 小写名称
+     * @param value
+     * @param indexing 是否加入动态表
+     */
+    void encode(ByteArrayOutputStream out, String name, String value, boolean indexing) {
+        int index = table.indexOf(name, value);
+        if (index > 0) {
+            writeInt(out, 0x80, 7, index);
+            return;
+        }
+        int nameIndex = table.indexOfName(name);
+        if (indexing) {
+            writeInt(out, 0x40, 6, nameIndex);
+        } else {
+            writeInt(out, 0x00, 4, nameIndex);
+        }
+        if (nameIndex == 0) {
+            writeString(out, name);
+        }
+        writeString(out, value);
+        if (indexing) {
+            table.add(name, value);
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int mask, int prefix, int value) {
+        int max = (1 << prefix) - 1;
+        if (value < max) {
+            out.write(mask | value);
+            return;
+        }
+        out.write(mask | max);
+        value -= max;
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /***
+     * 编码字符串，霍夫曼编码更短时使用霍夫曼编码
+     */
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        int huffmanLength = Huffman.encodedLength(s);
+        if (huffmanLength < s.length()) {
+            byte[] buf = new byte[huffmanLength];
+            Huffman.encode(s, buf, 0);
+            writeInt(out, 0x80, 7, huffmanLength);
+            out.write(buf, 0, buf.length);
+        } else {
+            byte[] buf = s.getBytes(StandardCharsets.ISO_8859_1);
+            writeInt(out, 0x00, 7, buf.length);
+            out.write(buf, 0, buf.length);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.firespider.spidersql.aio.net.http2;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HPACK 索引表（RFC 7541 第2.3节）
+ * 1~61为静态表，之后为动态表，最新插入的条目索引最小
+ * 动态表以环形数组保存，按 名称长度 + 值长度 + 32 计算大小，超出上限时淘汰最旧的条目
+ */
+class HpackTable {
+    static final String[][] STATIC_TABLE = {
+            {":authority", ""},
+            {":method", "GET"},
+            {":method", "POST"},
+            {":path", "/"},
+            {":path", "/index.html"},
+            {":scheme", "http"},
+            {":scheme", "https"},
+            {":status", "200"},
+            {":status", "204"},
+            {":status", "206"},
+            {":status", "304"},
+            {":status", "400"},
+            {":status", "404"},
+            {":status", "500"},
+            {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""},
+            {"accept-ranges", ""},
+            {"accept", ""},
+            {"access-control-allow-origin", ""},
+            {"age", ""},
+            {"allow", ""},
+            {"authorization", ""},
+            {"cache-control", ""},
+            {"content-disposition", ""},
+            {"content-encoding", ""},
+            {"content-language", ""},
+            {"content-length", ""},
+            {"content-location", ""},
+            {"content-range", ""},
+            {"content-type", ""},
+            {"cookie", ""},
+            {"date", ""},
+            {"etag", ""},
+            {"expect", ""},
+            {"expires", ""},
+            {"from", ""},
+            {"host", ""},
+            {"if-match", ""},
+            {"if-modified-since", ""},
+            {"if-none-match", ""},
+            {"if-range", ""},
+            {"if-unmodified-since", ""},
+            {"last-modified", ""},
+            {"link", ""},
+            {"location", ""},
+            {"max-forwards", ""},
+            {"proxy-authenticate", ""},
+            {"proxy-authorization", ""},
+            {"range", ""},
+            {"referer", ""},
+            {"refresh", ""},
+            {"retry-after", ""},
+            {"server", ""},
+            {"set-cookie", ""},
+            {"strict-transport-security", ""},
+            {"transfer-encoding", ""},
+            {"user-agent", ""},
+            {"vary", ""},
+            {"via", ""},
+            {"www-authenticate", ""}
+    };
+
+    //静态表中名称首次出现的索引
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+
+    //静态表中 名称 + 值 的索引
+    private static final Map<String, Integer> STATIC_FIELDS = new HashMap<>();
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+            STATIC_FIELDS.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i + 1);
+        }
+    }
+
+    static final int ENTRY_OVERHEAD = 32;
+
+    private String[] names = new String[16];
+
+    private String[] values = new String[16];
+
+    //最新条目的位置，条目数量与总大小
+    private int head, count, size;
+
+    private int maxSize;
+
+    HpackTable(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    /***
+     * 调整动态表上限，超出部分立即淘汰
+     * @param maxSize
+     */
+    void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict(0);
+    }
+
+    /***
+     * 按索引查找条目
+     * @param index 从1开始
+     * @return {名称, 值}
+     * @throws Http2Exception 索引越界
+     */
+    String[] get(int index) throws Http2Exception {
+        if (index >= 1 && index <= STATIC_TABLE.length) {
+            return STATIC_TABLE[index - 1];
+        }
+        int i = index - STATIC_TABLE.length - 1;
+        if (index < 1 || i >= count) {
+            throw new Http2Exception(Http2Frame.COMPRESSION_ERROR, "invalid header index " + index);
+        }
+        int pos = (head - i) & (names.length - 1);
+        return new String[]{names[pos], values[pos]};
+    }
+
+    /***
+     * 插入动态表
+     * 条目本身超过上限时清空动态表且不插入
+     * @param name
+     * @param value
+     */
+    void add(String name, String value) {
+        int entrySize = name.length() + value.length() + ENTRY_OVERHEAD;
+        evict(entrySize);
+        if (entrySize > maxSize) {
+            return;
+        }
+        if (count == names.length) {
+            grow();
+        }
+        head = (head + 1) & (names.length - 1);
+        names[head] = name;
+        values[head] = value;
+        count++;
+        size += entrySize;
+    }
+
+    /***
+     * 查找完全匹配的条目
+     * @return 索引，不存在时返回0
+     */
+    int indexOf(String name, String value) {
+        Integer index = STATIC_FIELDS.get(name + '\0' + value);
+        if (index != null) {
+            return index;
+        }
+        for (int i = 0; i < count; i++) {
+            int pos = (head - i) & (names.length - 1);
+            if (names[pos].equals(name) && values[pos].equals(value)) {
+                return STATIC_TABLE.length + 1 + i;
+            }
+        }
+        return 0;
+    }
+
+    /***
+     * 查找名称匹配的条目
+     * @return 索引，不存在时返回0
+     */
+    int indexOfName(String name) {
+        Integer index = STATIC_NAMES.get(name);
+        if (index != null) {
+            return index;
+        }
+        for (int i = 0; i < count; i++) {
+            if (names[(head - i) & (names.length - 1)].equals(name)) {
+                return STATIC_TABLE.length + 1 + i;
+            }
+        }
+        return 0;
+    }
+
+    /***
+     * 淘汰最旧的条目，直至能容纳新条目
+     * @param required
+     */
+    private void evict(int required) {
+        while (count > 0 && size + required > maxSize) {
+            int pos = (head - count + 1) & (names.length - 1);
+            size -= names[pos].length() + values[pos].length() + ENTRY_OVERHEAD;
+            names[pos] = values[pos] = null;
+            count--;
+        }
+    }
+
+    private void grow() {
+        String[] newNames = new String[names.length << 1];
+        String[] newValues = new String[values.length << 1];
+        //按从旧到新的顺序复制到新数组开头
+        for (int i = 0; i < count; i++) {
+            int pos = (head - count + 1 + i) & (names.length - 1);
+            newNames[i] = names[pos];
+            newValues[i] = values[pos];
+        }
+        names = newNames;
+        values = newValues;
+        head = count - 1;
+    }
+}
@@ -0,0 +1,794 @@
+package com.firespider.spidersql.aio.net.http2;
+
+import com.firespider.spidersql.aio.net.core.ConnectionHandler;
+import com.firespider.spidersql.aio.net.core.Message;
+import com.firespider.spidersql.aio.net.core.Session;
+import com.firespider.spidersql.aio.net.http.Request;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * HTTP/2 连接
+ * 以 Session 作为传输层（明文h2c或TLS+ALPN h2），在一个连接上复用多个流：
+ * 1. 连接建立后发送连接前言与SETTINGS，收到对端SETTINGS后才开始发送请求，
+ * 若对端首先返回的不是SETTINGS帧（HTTP/1.1服务器）或ALPN未协商出h2，则以 HTTP_1_1_REQUIRED 失败，由调用方回退HTTP/1.1
+ * 2. 并发流数不超过对端的 MAX_CONCURRENT_STREAMS，超出的请求排队等待
+ * 3. 接收方向按流与连接两级窗口做流量控制，数据消费过半后发送WINDOW_UPDATE
+ * 4. 收到GOAWAY后不再接受新请求，未被处理的流转到新连接重试
+ * 5. 传输层只有连接截止时间，空闲时读取一直挂起；流超时以RST_STREAM取消，
+ * 流超时时连接在整个超时内未读到任何数据则视为失效并关闭
+ * 所有状态在连接对象上同步修改，帧按入队顺序写出，保证HPACK编码顺序与流ID递增顺序一致
+ */
+public class Http2Connection {
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    static final String ALPN_H2 = "h2";
+
+    private static final String ALPN_HTTP1 = "http/1.1";
+
+    //本端流窗口与连接窗口
+    private static final int STREAM_WINDOW = 1 << 20;
+
+    private static final int CONNECTION_WINDOW = 1 << 24;
+
+    //收到对端SETTINGS前假定的最大并发流数
+    private static final int DEFAULT_MAX_STREAMS = 100;
+
+    private static final int HEADER_TABLE_SIZE = 4096;
+
+    //读缓冲区需容纳一个完整的帧
+    private static final int READ_BUF_SIZE = 65536;
+
+    //单次写出的最大字节数
+    private static final int MAX_WRITE = 65536;
+
+    private static final int MAX_HEADER_BLOCK = 1 << 20;
+
+    //未指定超时的请求使用的连接超时（秒）
+    private static final int TIMEOUT = 5;
+
+    //HTTP/2禁止的连接级头部
+    private static final Set<String> CONNECTION_HEADERS = new HashSet<>(Arrays.asList(
+            "host", "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade"));
+
+    private enum STATE {
+        CONNECTING, OPEN, CLOSING, CLOSED
+    }
+
+    private final Http2ConnectionManager manager;
+
+    private final String key;
+
+    private final boolean ssl;
+
+    private final String authority;
+
+    private final Session transport;
+
+    private final HpackEncoder encoder = new HpackEncoder();
+
+    private final HpackDecoder decoder = new HpackDecoder(HEADER_TABLE_SIZE);
+
+    private final Map<Integer, Http2Stream> streams = new HashMap<>();
+
+    //等待并发名额的请求
+    private final Deque<Http2Stream> pending = new ArrayDeque<>();
+
+    private final Deque<ByteBuffer> outbound = new ArrayDeque<>();
+
+    private STATE state = STATE.CONNECTING;
+
+    private boolean writing, reading;
+
+    //GOAWAY写出后关闭通道
+    private boolean closeAfterFlush;
+
+    private int nextStreamId = 1;
+
+    //最近一次读到数据的时间（纳秒）
+    private volatile long lastRead = System.nanoTime();
+
+    private int maxConcurrentStreams = DEFAULT_MAX_STREAMS;
+
+    private int peerMaxFrameSize = Http2Frame.DEFAULT_MAX_FRAME_SIZE;
+
+    //连接级接收窗口剩余大小
+    private int connectionWindow = CONNECTION_WINDOW;
+
+    //正在接收的头部块（HEADERS + CONTINUATION）
+    private byte[] headerBlock = new byte[4096];
+
+    private int headerLength, headerStream;
+
+    private boolean headerEndStream, expectContinuation;
+
+    private final CompletionHandler<Integer, Session> readHandler = new CompletionHandler<Integer, Session>() {
+        @Override
+        public void completed(Integer result, Session session) {
+            onRead(result);
+        }
+
+        @Override
+        public void failed(Throwable exc, Session session) {
+            synchronized (Http2Connection.this) {
+                reading = false;
+            }
+            close(beforeSettings(exc));
+        }
+    };
+
+    private final CompletionHandler<Integer, Session> writeHandler = new CompletionHandler<Integer, Session>() {
+        @Override
+        public void completed(Integer result, Session session) {
+            boolean closeTransport;
+            synchronized (Http2Connection.this) {
+                writing = false;
+                flush();
+                closeTransport = !writing && closeAfterFlush;
+            }
+            if (closeTransport) {
+                closeTransport();
+            }
+        }
+
+        @Override
+        public void failed(Throwable exc, Session session) {
+            close(exc);
+        }
+    };
+
+    Http2Connection(Http2ConnectionManager manager, String key, Request request) {
+        this.manager = manager;
+        this.key = key;
+        this.ssl = "https".equals(request.getProtocol());
+        int defaultPort = ssl ? 443 : 80;
+        this.authority = request.getPort() == defaultPort ? request.getHost() : request.getHost() + ":" + request.getPort();
+        this.transport = new Session(request.getHost(), request.getPort(), null, null, TIMEOUT, READ_BUF_SIZE, ssl);
+        //多个流共用传输层，读取间隔与整体时间不限制，由各流的截止时间判断
+        transport.setDeadlines(request.getTimeout() > 0 ? request.getTimeout() : TIMEOUT * 1000L, 0, 0);
+        if (ssl) {
+            transport.setApplicationProtocols(new String[]{ALPN_H2, ALPN_HTTP1});
+        }
+        transport.setConnectionHandler(new ConnectionHandler() {
+            @Override
+            protected void established(Session session) {
+                onEstablished();
+            }
+        });
+        transport.setCustomHandler(new CompletionHandler<Message, Session>() {
+            @Override
+            public void completed(Message result, Session session) {
+            }
+
+            @Override
+            public void failed(Throwable exc, Session session) {
+                close(exc);
+            }
+        });
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    /***
+     * 建立连接
+     * @param connector 新建传输层连接，由 AsyncSocketExecutor 提供
+     */
+    void connect(Consumer<Session> connector) {
+        connector.accept(transport);
+    }
+
+    /***
+     * 提交请求
+     * @param stream
+     * @return 连接已关闭或不再接受新流时返回false
+     */
+    synchronized boolean submit(Http2Stream stream) {
+        if (state == STATE.CLOSING || state == STATE.CLOSED) {
+            return false;
+        }
+        if ((long) nextStreamId + 2L * (pending.size() + 1) > Integer.MAX_VALUE) {
+            //流ID即将耗尽，新请求转到新连接
+            state = STATE.CLOSING;
+            closeIfDone();
+            return false;
+        }
+        stream.connection = this;
+        pending.offer(stream);
+        if (state == STATE.OPEN) {
+            dispatch();
+            flush();
+        }
+        return true;
+    }
+
+    /***
+     * 连接（及TLS握手）完成，发送连接前言
+     */
+    private void onEstablished() {
+        if (ssl && !ALPN_H2.equals(transport.getApplicationProtocol())) {
+            close(new Http2Exception(Http2Frame.HTTP_1_1_REQUIRED, "h2 not negotiated"));
+            return;
+        }
+        synchronized (this) {
+            if (state == STATE.CLOSED) {
+                return;
+            }
+            outbound.offer(ByteBuffer.wrap(PREFACE));
+            outbound.offer(Http2Frame.settings(
+                    Http2Frame.SETTINGS_ENABLE_PUSH, 0,
+                    Http2Frame.SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW));
+            outbound.offer(Http2Frame.intFrame(Http2Frame.WINDOW_UPDATE, 0, 0, CONNECTION_WINDOW - Http2Frame.DEFAULT_WINDOW_SIZE));
+            flush();
+            reading = true;
+        }
+        transport.read(readHandler);
+    }
+
+    private void onRead(int result) {
+        List<Runnable> callbacks = new ArrayList<>();
+        boolean closed;
+        synchronized (this) {
+            reading = false;
+            closed = state == STATE.CLOSED;
+        }
+        if (closed) {
+            closeTransport();
+            return;
+        }
+        if (result < 0) {
+            close(beforeSettings(new IOException("connection closed")));
+            return;
+        }
+        lastRead = System.nanoTime();
+        ByteBuffer buf = transport.getReadBuffer();
+        buf.flip();
+        try {
+            synchronized (this) {
+                processFrames(buf, callbacks);
+                flush();
+            }
+        } catch (Http2Exception e) {
+            buf.compact();
+            runAll(callbacks);
+            goAway(e);
+            return;
+        }
+        buf.compact();
+        runAll(callbacks);
+        synchronized (this) {
+            closed = state == STATE.CLOSED;
+            reading = !closed;
+        }
+        if (closed) {
+            closeTransport();
+        } else {
+            transport.read(readHandler);
+        }
+    }
+
+    /***
+     * 发送连接前言后、收到SETTINGS前连接中断或超时，视为对端不支持HTTP/2
+     * @param exc
+     * @return
+     */
+    private synchronized Throwable beforeSettings(Throwable exc) {
+        if (state == STATE.CONNECTING) {
+            return new Http2Exception(Http2Frame.HTTP_1_1_REQUIRED, "no HTTP/2 preface from server: " + exc);
+        }
+        return exc;
+    }
+
+    /***
+     * 处理缓冲区中的完整帧，剩余的不完整帧留待下次读取
+     */
+    private void processFrames(ByteBuffer buf, List<Runnable> callbacks) throws Http2Exception {
+        while (buf.remaining() >= Http2Frame.HEADER_LENGTH) {
+            int p = buf.position();
+            int length = (buf.get(p) & 0xff) << 16 | (buf.get(p + 1) & 0xff) << 8 | (buf.get(p + 2) & 0xff);
+            int type = buf.get(p + 3) & 0xff;
+            int flags = buf.get(p + 4) & 0xff;
+            int streamId = buf.getInt(p + 5) & Integer.MAX_VALUE;
+            if (state == STATE.CONNECTING && type != Http2Frame.SETTINGS) {
+                //对端不是HTTP/2服务器，如返回了 HTTP/1.1 400
+                throw new Http2Exception(Http2Frame.HTTP_1_1_REQUIRED, "server does not speak HTTP/2");
+            }
+            if (length > Http2Frame.DEFAULT_MAX_FRAME_SIZE) {
+                throw new Http2Exception(Http2Frame.FRAME_SIZE_ERROR, "frame too large: " + length);
+            }
+            if (buf.remaining() < Http2Frame.HEADER_LENGTH + length) {
+                break;
+            }
+            ByteBuffer payload = buf.duplicate();
+            payload.limit(p + Http2Frame.HEADER_LENGTH + length).position(p + Http2Frame.HEADER_LENGTH);
+            buf.position(p + Http2Frame.HEADER_LENGTH + length);
+            if (expectContinuation && type != Http2Frame.CONTINUATION) {
+                throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "expected CONTINUATION");
+            }
+            switch (type) {
+                case Http2Frame.DATA:
+                    onData(flags, streamId, payload, callbacks);
+                    break;
+                case Http2Frame.HEADERS:
+                    onHeaders(flags, streamId, payload, callbacks);
+                    break;
+                case Http2Frame.CONTINUATION:
+                    if (!expectContinuation || streamId != headerStream) {
+                        throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "unexpected CONTINUATION");
+                    }
+                    appendHeaderBlock(payload);
+                    if ((flags & Http2Frame.FLAG_END_HEADERS) != 0) {
+                        expectContinuation = false;
+                        onHeaderBlock(callbacks);
+                    }
+                    break;
+                case Http2Frame.RST_STREAM:
+                    if (length != 4 || streamId == 0) {
+                        throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "invalid RST_STREAM");
+                    }
+                    onReset(streamId, payload.getInt(), callbacks);
+                    break;
+                case Http2Frame.SETTINGS:
+                    onSettings(flags, streamId, payload, callbacks);
+                    break;
+                case Http2Frame.PING:
+                    if (length != 8 || streamId != 0) {
+                        throw new Http2Exception(Http2Frame.FRAME_SIZE_ERROR, "invalid PING");
+                    }
+                    if ((flags & Http2Frame.FLAG_ACK) == 0) {
+                        ByteBuffer pong = ByteBuffer.allocate(Http2Frame.HEADER_LENGTH + 8);
+                        Http2Frame.writeHeader(pong, 8, Http2Frame.PING, Http2Frame.FLAG_ACK, 0);
+                        pong.put(payload);
+                        pong.flip();
+                        outbound.offer(pong);
+                    }
+                    break;
+                case Http2Frame.GOAWAY:
+                    if (length < 8 || streamId != 0) {
+                        throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "invalid GOAWAY");
+                    }
+                    onGoAway(payload.getInt() & Integer.MAX_VALUE, payload.getInt(), callbacks);
+                    break;
+                case Http2Frame.WINDOW_UPDATE:
+                    //请求不携带正文，发送方向无需等待窗口
+                    if (length != 4) {
+                        throw new Http2Exception(Http2Frame.FRAME_SIZE_ERROR, "invalid WINDOW_UPDATE");
+                    }
+                    break;
+                case Http2Frame.PUSH_PROMISE:
+                    throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "push disabled");
+                default:
+                    //PRIORITY及未知类型的帧忽略
+                    break;
+            }
+        }
+    }
+
+    private void onData(int flags, int streamId, ByteBuffer payload, List<Runnable> callbacks) throws Http2Exception {
+        if (streamId == 0) {
+            throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "DATA on stream 0");
+        }
+        int length = payload.remaining();
+        connectionWindow -= length;
+        if (connectionWindow < 0) {
+            throw new Http2Exception(Http2Frame.FLOW_CONTROL_ERROR, "connection window exceeded");
+        }
+        if (connectionWindow <= CONNECTION_WINDOW / 2) {
+            outbound.offer(Http2Frame.intFrame(Http2Frame.WINDOW_UPDATE, 0, 0, CONNECTION_WINDOW - connectionWindow));
+            connectionWindow = CONNECTION_WINDOW;
+        }
+        stripPadding(flags, payload);
+        Http2Stream stream = streams.get(streamId);
+        if (stream == null) {
+            //已重置或已结束的流，数据丢弃
+            return;
+        }
+        stream.touch();
+        stream.window -= length;
+        if (stream.window < 0 || !stream.headersReceived) {
+            resetStream(stream, Http2Frame.FLOW_CONTROL_ERROR, callbacks);
+            return;
+        }
+        stream.response.put(payload);
+        if ((flags & Http2Frame.FLAG_END_STREAM) != 0) {
+            completeStream(stream, callbacks);
+        } else if (stream.window <= STREAM_WINDOW / 2) {
+            outbound.offer(Http2Frame.intFrame(Http2Frame.WINDOW_UPDATE, 0, streamId, STREAM_WINDOW - stream.window));
+            stream.window = STREAM_WINDOW;
+        }
+    }
+
+    private void onHeaders(int flags, int streamId, ByteBuffer payload, List<Runnable> callbacks) throws Http2Exception {
+        if (streamId == 0) {
+            throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "HEADERS on stream 0");
+        }
+        stripPadding(flags, payload);
+        if ((flags & Http2Frame.FLAG_PRIORITY) != 0) {
+            if (payload.remaining() < 5) {
+                throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "invalid HEADERS");
+            }
+            payload.position(payload.position() + 5);
+        }
+        headerStream = streamId;
+        headerEndStream = (flags & Http2Frame.FLAG_END_STREAM) != 0;
+        headerLength = 0;
+        appendHeaderBlock(payload);
+        if ((flags & Http2Frame.FLAG_END_HEADERS) != 0) {
+            onHeaderBlock(callbacks);
+        } else {
+            expectContinuation = true;
+        }
+    }
+
+    /***
+     * 解码完整的头部块
+     * 即使流已不存在也必须解码，以保持动态表同步
+     */
+    private void onHeaderBlock(List<Runnable> callbacks) throws Http2Exception {
+        List<String> fields = new ArrayList<>();
+        decoder.decode(headerBlock, headerLength, (name, value) -> {
+            fields.add(name);
+            fields.add(value);
+        });
+        Http2Stream stream = streams.get(headerStream);
+        if (stream == null) {
+            return;
+        }
+        stream.touch();
+        if (!stream.headersReceived) {
+            String status = null;
+            for (int i = 0; i < fields.size(); i += 2) {
+                if (":status".equals(fields.get(i))) {
+                    status = fields.get(i + 1);
+                }
+            }
+            if (status == null) {
+                resetStream(stream, Http2Frame.PROTOCOL_ERROR, callbacks);
+                return;
+            }
+            if (status.startsWith("1")) {
+                //1xx临时响应，继续等待最终响应
+                return;
+            }
+            //转换为HTTP/1.1格式的报文头，复用HttpMessage的解析
+            StringBuilder head = new StringBuilder(256);
+            head.append("HTTP/2 ").append(status).append("\r\n");
+            for (int i = 0; i < fields.size(); i += 2) {
+                if (fields.get(i).charAt(0) != ':') {
+                    head.append(fields.get(i)).append(": ").append(fields.get(i + 1)).append("\r\n");
+                }
+            }
+            head.append("\r\n");
+            byte[] bytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+            stream.response.put(bytes, 0, bytes.length);
+            stream.headersReceived = true;
+        }
+        if (headerEndStream) {
+            completeStream(stream, callbacks);
+        }
+    }
+
+    private void onReset(int streamId, int errorCode, List<Runnable> callbacks) {
+        Http2Stream stream = streams.remove(streamId);
+        if (stream == null) {
+            return;
+        }
+        if (errorCode == Http2Frame.REFUSED_STREAM) {
+            //对端未处理该流，可安全重试
+            callbacks.add(() -> manager.retry(stream));
+        } else {
+            callbacks.add(() -> stream.fail(new Http2Exception(errorCode, "stream reset by peer, error " + errorCode)));
+        }
+        dispatch();
+        closeIfDone();
+    }
+
+    private void onSettings(int flags, int streamId, ByteBuffer payload, List<Runnable> callbacks) throws Http2Exception {
+        if (streamId != 0) {
+            throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "SETTINGS on stream " + streamId);
+        }
+        if ((flags & Http2Frame.FLAG_ACK) != 0) {
+            return;
+        }
+        if (payload.remaining() % 6 != 0) {
+            throw new Http2Exception(Http2Frame.FRAME_SIZE_ERROR, "invalid SETTINGS");
+        }
+        while (payload.hasRemaining()) {
+            int id = payload.getShort() & 0xffff;
+            int value = payload.getInt();
+            switch (id) {
+                case Http2Frame.SETTINGS_HEADER_TABLE_SIZE:
+                    encoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+                    break;
+                case Http2Frame.SETTINGS_MAX_CONCURRENT_STREAMS:
+                    maxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+                    break;
+                case Http2Frame.SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value < 0) {
+                        throw new Http2Exception(Http2Frame.FLOW_CONTROL_ERROR, "invalid initial window size");
+                    }
+                    break;
+                case Http2Frame.SETTINGS_MAX_FRAME_SIZE:
+                    if (value < Http2Frame.DEFAULT_MAX_FRAME_SIZE || value > 0xffffff) {
+                        throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "invalid max frame size");
+                    }
+                    peerMaxFrameSize = value;
+                    break;
+                default:
+                    break;
+            }
+        }
+        outbound.offer(Http2Frame.intFrame(Http2Frame.SETTINGS, Http2Frame.FLAG_ACK, 0));
+        if (state == STATE.CONNECTING) {
+            state = STATE.OPEN;
+        }
+        dispatch();
+    }
+
+    /***
+     * 对端关闭连接，编号大于 lastStreamId 的流未被处理，转到新连接重试
+     */
+    private void onGoAway(int lastStreamId, int errorCode, List<Runnable> callbacks) {
+        if (state == STATE.OPEN) {
+            state = STATE.CLOSING;
+        }
+        callbacks.add(() -> manager.remove(this));
+        Iterator<Http2Stream> iterator = streams.values().iterator();
+        while (iterator.hasNext()) {
+            Http2Stream stream = iterator.next();
+            if (stream.id > lastStreamId) {
+                iterator.remove();
+                callbacks.add(() -> manager.retry(stream));
+            }
+        }
+        Http2Stream stream;
+        while ((stream = pending.poll()) != null) {
+            Http2Stream retry = stream;
+            callbacks.add(() -> manager.retry(retry));
+        }
+        closeIfDone();
+    }
+
+    /***
+     * 为等待中的请求分配流ID并发送头部，直至达到并发上限
+     */
+    private void dispatch() {
+        while (state == STATE.OPEN && streams.size() < maxConcurrentStreams && !pending.isEmpty()) {
+            Http2Stream stream = pending.poll();
+            stream.id = nextStreamId;
+            stream.window = STREAM_WINDOW;
+            nextStreamId += 2;
+            streams.put(stream.id, stream);
+            writeHeaders(stream);
+        }
+    }
+
+    /***
+     * 编码请求头部，超过对端最大帧长度时拆分为HEADERS + CONTINUATION
+     * @param stream
+     */
+    private void writeHeaders(Http2Stream stream) {
+        Request request = stream.request;
+        ByteArrayOutputStream block = new ByteArrayOutputStream(256);
+        encoder.begin(block);
+        encoder.encode(block, ":method", request.getMethod(), true);
+        encoder.encode(block, ":scheme", ssl ? "https" : "http", true);
+        encoder.encode(block, ":authority", authority, true);
+        encoder.encode(block, ":path", request.getPath(), false);
+        Map<String, String> header = request.getHeader();
+        if (header != null) {
+            for (Map.Entry<String, String> entry : header.entrySet()) {
+                String name = entry.getKey().toLowerCase(Locale.ROOT);
+                if (!CONNECTION_HEADERS.contains(name)) {
+                    encoder.encode(block, name, entry.getValue(), true);
+                }
+            }
+        }
+        byte[] bytes = block.toByteArray();
+        int offset = 0;
+        do {
+            int length = Math.min(peerMaxFrameSize, bytes.length - offset);
+            boolean first = offset == 0;
+            int flags = (first ? Http2Frame.FLAG_END_STREAM : 0) | (offset + length == bytes.length ? Http2Frame.FLAG_END_HEADERS : 0);
+            ByteBuffer frame = ByteBuffer.allocate(Http2Frame.HEADER_LENGTH + length);
+            Http2Frame.writeHeader(frame, length, first ? Http2Frame.HEADERS : Http2Frame.CONTINUATION, flags, stream.id);
+            frame.put(bytes, offset, length);
+            frame.flip();
+            outbound.offer(frame);
+            offset += length;
+        } while (offset < bytes.length);
+    }
+
+    private void completeStream(Http2Stream stream, List<Runnable> callbacks) {
+        streams.remove(stream.id);
+        callbacks.add(stream::complete);
+        dispatch();
+        closeIfDone();
+    }
+
+    /***
+     * 流级错误：通知对端并使请求失败，连接继续使用
+     */
+    private void resetStream(Http2Stream stream, int errorCode, List<Runnable> callbacks) {
+        streams.remove(stream.id);
+        outbound.offer(Http2Frame.intFrame(Http2Frame.RST_STREAM, 0, stream.id, errorCode));
+        callbacks.add(() -> stream.fail(new Http2Exception(errorCode, "stream error " + errorCode)));
+        dispatch();
+        closeIfDone();
+    }
+
+    /***
+     * 流超时：已发送的流以RST_STREAM取消，排队中的流直接移除
+     * 连接在整个超时内未读到任何数据时视为失效，关闭连接
+     * @param stream
+     */
+    void expire(Http2Stream stream) {
+        boolean dead;
+        synchronized (this) {
+            if (stream.id != 0 && streams.get(stream.id) == stream) {
+                streams.remove(stream.id);
+                outbound.offer(Http2Frame.intFrame(Http2Frame.RST_STREAM, 0, stream.id, Http2Frame.CANCEL));
+                dispatch();
+                closeIfDone();
+                flush();
+            } else {
+                pending.remove(stream);
+            }
+            dead = state != STATE.CLOSED && (System.nanoTime() - lastRead) / 1000000L >= stream.timeout;
+        }
+        stream.fail(new SocketTimeoutException("stream timed out"));
+        if (dead) {
+            close(new SocketTimeoutException("connection idle for " + stream.timeout + "ms"));
+        }
+    }
+
+    /***
+     * 不再接受新流且所有流已结束时，发送GOAWAY后关闭
+     */
+    private void closeIfDone() {
+        if (state == STATE.CLOSING && streams.isEmpty() && pending.isEmpty()) {
+            state = STATE.CLOSED;
+            closeAfterFlush = true;
+            outbound.offer(Http2Frame.intFrame(Http2Frame.GOAWAY, 0, 0, 0, Http2Frame.NO_ERROR));
+            flush();
+        }
+    }
+
+    /***
+     * 连接级错误：通知对端后关闭
+     * @param e
+     */
+    private void goAway(Http2Exception e) {
+        if (!e.isHttp1Required()) {
+            synchronized (this) {
+                outbound.offer(Http2Frame.intFrame(Http2Frame.GOAWAY, 0, 0, 0, e.getErrorCode()));
+                flush();
+            }
+        }
+        close(e);
+    }
+
+    /***
+     * 关闭连接
+     * 握手阶段失败时所有请求以该异常失败（HTTP_1_1_REQUIRED 时由调用方回退），
+     * 连接建立后失败时已发送的请求失败，未发送的请求转到新连接
+     * @param exc
+     */
+    void close(Throwable exc) {
+        List<Http2Stream> failed = null;
+        List<Http2Stream> retry = new ArrayList<>();
+        synchronized (this) {
+            if (state != STATE.CLOSED) {
+                failed = new ArrayList<>(streams.values());
+                if (state == STATE.CONNECTING) {
+                    failed.addAll(pending);
+                } else {
+                    retry.addAll(pending);
+                }
+                state = STATE.CLOSED;
+            }
+            streams.clear();
+            pending.clear();
+            outbound.clear();
+        }
+        closeTransport();
+        if (failed == null) {
+            return;
+        }
+        manager.remove(this);
+        if (exc instanceof Http2Exception && ((Http2Exception) exc).isHttp1Required()) {
+            manager.markHttp1(key);
+        }
+        for (Http2Stream stream : failed) {
+            stream.fail(exc);
+        }
+        for (Http2Stream stream : retry) {
+            manager.retry(stream);
+        }
+    }
+
+    /***
+     * 关闭通道；读取进行中时只关闭通道，缓冲区在读取回调中归还
+     */
+    private void closeTransport() {
+        boolean release;
+        synchronized (this) {
+            release = !reading;
+        }
+        if (release) {
+            transport.release(false);
+        } else if (transport.getSocketChannel() != null) {
+            try {
+                transport.getSocketChannel().close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /***
+     * 写出队列中的帧，同一时间只有一个写操作
+     */
+    private void flush() {
+        if (writing || outbound.isEmpty() || transport.getSocketChannel() == null) {
+            return;
+        }
+        int total = 0;
+        for (ByteBuffer frame : outbound) {
+            if (total > 0 && total + frame.remaining() > MAX_WRITE) {
+                break;
+            }
+            total += frame.remaining();
+        }
+        ByteBuffer buf = ByteBuffer.allocate(total);
+        while (buf.hasRemaining()) {
+            buf.put(outbound.poll());
+        }
+        buf.flip();
+        writing = true;
+        transport.write(buf, writeHandler);
+    }
+
+    private void appendHeaderBlock(ByteBuffer payload) throws Http2Exception {
+        int length = payload.remaining();
+        if (headerLength + length > MAX_HEADER_BLOCK) {
+            throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "header block too large");
+        }
+        if (headerLength + length > headerBlock.length) {
+            headerBlock = Arrays.copyOf(headerBlock, Math.max(headerBlock.length << 1, headerLength + length));
+        }
+        payload.get(headerBlock, headerLength, length);
+        headerLength += length;
+    }
+
+    private static void stripPadding(int flags, ByteBuffer payload) throws Http2Exception {
+        if ((flags & Http2Frame.FLAG_PADDED) == 0) {
+            return;
+        }
+        if (!payload.hasRemaining()) {
+            throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "invalid padding");
+        }
+        int padding = payload.get() & 0xff;
+        if (padding > payload.remaining()) {
+            throw new Http2Exception(Http2Frame.PROTOCOL_ERROR, "invalid padding");
+        }
+        payload.limit(payload.limit() - padding);
+    }
+
+    private static void runAll(List<Runnable> callbacks) {
+        for (Runnable callback : callbacks) {
+            try {
+                callback.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
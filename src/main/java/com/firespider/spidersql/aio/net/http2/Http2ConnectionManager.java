@@ -0,0 +1,144 @@
+package com.firespider.spidersql.aio.net.http2;
+
+import com.firespider.spidersql.aio.net.core.Message;
+import com.firespider.spidersql.aio.net.core.Session;
+import com.firespider.spidersql.aio.net.http.HttpMessage;
+import com.firespider.spidersql.aio.net.http.Request;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * HTTP/2 连接管理
+ * 每个 scheme://host:port 只维护一个连接，所有请求在其上以流的形式复用
+ * 不支持HTTP/2的主机记录下来，之后的请求直接以 HTTP_1_1_REQUIRED 失败，由调用方走HTTP/1.1
+ * 流的截止时间由会话共用的时间轮跟踪，转到新连接重试时不重新计时
+ */
+public class Http2ConnectionManager {
+    private final Consumer<Session> connector;
+
+    private final Map<String, Http2Connection> connections = new HashMap<>();
+
+    private final Set<String> http1Hosts = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param connector 新建传输层连接，通常为 AsyncSocketExecutor 的 connect
+     */
+    public Http2ConnectionManager(Consumer<Session> connector) {
+        this.connector = connector;
+    }
+
+    /***
+     * 主机是否已知不支持HTTP/2
+     * @param request
+     * @return
+     */
+    public boolean isHttp1(Request request) {
+        return http1Hosts.contains(key(request));
+    }
+
+    /***
+     * 提交请求
+     * @param request
+     * @param response 接收响应的报文
+     * @param handler 失败且异常为 HTTP_1_1_REQUIRED 的 Http2Exception 时，调用方应改用HTTP/1.1
+     */
+    public void submit(Request request, HttpMessage response, CompletionHandler<Message, Request> handler) {
+        Http2Stream stream = new Http2Stream(request, response, handler);
+        stream.deadline = Session.timer().schedule(() -> checkDeadline(stream), stream.timeout, TimeUnit.MILLISECONDS);
+        submit(stream);
+    }
+
+    /***
+     * 截止时间到期时距最近一次收到本流的帧不足超时则顺延，否则使流超时
+     * @param stream
+     */
+    private void checkDeadline(Http2Stream stream) {
+        if (stream.isFinished()) {
+            return;
+        }
+        long rest = stream.timeout - (System.nanoTime() - stream.lastActivity) / 1000000L;
+        if (rest > 0) {
+            stream.deadline = Session.timer().schedule(() -> checkDeadline(stream), rest, TimeUnit.MILLISECONDS);
+            return;
+        }
+        Http2Connection connection = stream.connection;
+        if (connection != null) {
+            connection.expire(stream);
+        } else {
+            stream.fail(new SocketTimeoutException("stream timed out"));
+        }
+    }
+
+    private void submit(Http2Stream stream) {
+        String key = key(stream.request);
+        while (true) {
+            if (stream.isFinished()) {
+                //转到新连接前已超时
+                return;
+            }
+            if (http1Hosts.contains(key)) {
+                stream.fail(new Http2Exception(Http2Frame.HTTP_1_1_REQUIRED, "HTTP/2 not supported by " + key));
+                return;
+            }
+            Http2Connection connection;
+            boolean created = false;
+            synchronized (this) {
+                connection = connections.get(key);
+                if (connection == null) {
+                    connection = new Http2Connection(this, key, stream.request);
+                    connections.put(key, connection);
+                    created = true;
+                }
+            }
+            if (connection.submit(stream)) {
+                if (created) {
+                    connection.connect(connector);
+                }
+                return;
+            }
+            remove(connection);
+        }
+    }
+
+    /***
+     * 未被对端处理的流转到新连接
+     * @param stream
+     */
+    void retry(Http2Stream stream) {
+        stream.reset();
+        submit(stream);
+    }
+
+    synchronized void remove(Http2Connection connection) {
+        connections.remove(connection.getKey(), connection);
+    }
+
+    void markHttp1(String key) {
+        http1Hosts.add(key);
+    }
+
+    public void close() {
+        List<Http2Connection> all;
+        synchronized (this) {
+            all = new ArrayList<>(connections.values());
+            connections.clear();
+        }
+        for (Http2Connection connection : all) {
+            connection.close(new IOException("client closed"));
+        }
+    }
+
+    private static String key(Request request) {
+        return request.getProtocol() + "://" + request.getHost() + ":" + request.getPort();
+    }
+}
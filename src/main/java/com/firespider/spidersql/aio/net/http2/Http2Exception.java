@@ -0,0 +1,28 @@
+package com.firespider.spidersql.aio.net.http2;
+
+import java.io.IOException;
+
+/**
+ * HTTP/2 协议错误，携带RFC 7540定义的错误码
+ * 错误码为 HTTP_1_1_REQUIRED 时表示对端不支持HTTP/2，调用方应改用HTTP/1.1重试
+ */
+public class Http2Exception extends IOException {
+    private final int errorCode;
+
+    public Http2Exception(int errorCode, String message) {
+        super(message);
+        this.errorCode = errorCode;
+    }
+
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    /***
+     * 是否需要改用HTTP/1.1
+     * @return
+     */
+    public boolean isHttp1Required() {
+        return errorCode == Http2Frame.HTTP_1_1_REQUIRED;
+    }
+}
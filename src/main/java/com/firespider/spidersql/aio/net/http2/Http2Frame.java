@@ -0,0 +1,106 @@
+package com.firespider.spidersql.aio.net.http2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * HTTP/2 帧格式常量（RFC 7540 第4、6、7节）
+ * 帧头固定9字节：长度(24位)，类型(8位)，标志(8位)，流ID(31位)
+ */
+public final class Http2Frame {
+    public static final int HEADER_LENGTH = 9;
+
+    //默认最大帧长度，本端不修改
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+
+    public static final int DEFAULT_WINDOW_SIZE = 65535;
+
+    public static final int DATA = 0x0;
+    public static final int HEADERS = 0x1;
+    public static final int PRIORITY = 0x2;
+    public static final int RST_STREAM = 0x3;
+    public static final int SETTINGS = 0x4;
+    public static final int PUSH_PROMISE = 0x5;
+    public static final int PING = 0x6;
+    public static final int GOAWAY = 0x7;
+    public static final int WINDOW_UPDATE = 0x8;
+    public static final int CONTINUATION = 0x9;
+
+    public static final int FLAG_END_STREAM = 0x1;
+    public static final int FLAG_ACK = 0x1;
+    public static final int FLAG_END_HEADERS = 0x4;
+    public static final int FLAG_PADDED = 0x8;
+    public static final int FLAG_PRIORITY = 0x20;
+
+    public static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    public static final int SETTINGS_ENABLE_PUSH = 0x2;
+    public static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    public static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    public static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    public static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    public static final int NO_ERROR = 0x0;
+    public static final int PROTOCOL_ERROR = 0x1;
+    public static final int INTERNAL_ERROR = 0x2;
+    public static final int FLOW_CONTROL_ERROR = 0x3;
+    public static final int STREAM_CLOSED = 0x5;
+    public static final int FRAME_SIZE_ERROR = 0x6;
+    public static final int REFUSED_STREAM = 0x7;
+    public static final int CANCEL = 0x8;
+    public static final int COMPRESSION_ERROR = 0x9;
+    public static final int HTTP_1_1_REQUIRED = 0xd;
+
+    private Http2Frame() {
+    }
+
+    /***
+     * 写入帧头
+     * @param buf
+     * @param length 负载长度
+     * @param type
+     * @param flags
+     * @param streamId
+     */
+    public static void writeHeader(ByteBuffer buf, int length, int type, int flags, int streamId) {
+        buf.put((byte) (length >>> 16));
+        buf.put((byte) (length >>> 8));
+        buf.put((byte) length);
+        buf.put((byte) type);
+        buf.put((byte) flags);
+        buf.putInt(streamId & Integer.MAX_VALUE);
+    }
+
+    /***
+     * 构造负载为若干个32位整数的帧，如RST_STREAM、WINDOW_UPDATE、GOAWAY
+     * @param type
+     * @param flags
+     * @param streamId
+     * @param values
+     * @return 已flip的缓冲区
+     */
+    public static ByteBuffer intFrame(int type, int flags, int streamId, int... values) {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_LENGTH + values.length * 4);
+        writeHeader(buf, values.length * 4, type, flags, streamId);
+        for (int value : values) {
+            buf.putInt(value);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /***
+     * 构造SETTINGS帧
+     * @param settings 依次为参数ID与参数值
+     * @return 已flip的缓冲区
+     */
+    public static ByteBuffer settings(int... settings) {
+        int length = settings.length / 2 * 6;
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_LENGTH + length);
+        writeHeader(buf, length, SETTINGS, 0, 0);
+        for (int i = 0; i + 1 < settings.length; i += 2) {
+            buf.putShort((short) settings[i]);
+            buf.putInt(settings[i + 1]);
+        }
+        buf.flip();
+        return buf;
+    }
+}
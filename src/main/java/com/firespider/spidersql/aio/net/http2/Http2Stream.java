@@ -0,0 +1,100 @@
+package com.firespider.spidersql.aio.net.http2;
+
+import com.firespider.spidersql.aio.net.core.Message;
+import com.firespider.spidersql.aio.net.core.TimerWheel;
+import com.firespider.spidersql.aio.net.http.HttpMessage;
+import com.firespider.spidersql.aio.net.http.Request;
+
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * HTTP/2 流
+ * 一个请求对应一个流，响应头部与正文写入 response，流结束后回调
+ * 每个流有独立的截止时间：超过请求超时未收到该流的帧即超时，回调只调用一次
+ */
+class Http2Stream {
+    //请求未指定超时时的默认值（毫秒）
+    private static final long DEFAULT_TIMEOUT = 5000;
+
+    final Request request;
+
+    final HttpMessage response;
+
+    final CompletionHandler<Message, Request> handler;
+
+    int id;
+
+    //本端接收窗口剩余大小
+    int window;
+
+    //是否已收到最终响应头部（1xx之外）
+    boolean headersReceived;
+
+    //相邻两次收到本流帧的最长间隔（毫秒），从提交时开始计算
+    final long timeout;
+
+    //最近一次收到本流帧的时间（纳秒）
+    volatile long lastActivity;
+
+    volatile TimerWheel.Timeout deadline;
+
+    //当前所在的连接，转到新连接时更新
+    volatile Http2Connection connection;
+
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    Http2Stream(Request request, HttpMessage response, CompletionHandler<Message, Request> handler) {
+        this.request = request;
+        this.response = response;
+        this.handler = handler;
+        this.timeout = request.getTimeout() > 0 ? request.getTimeout() : DEFAULT_TIMEOUT;
+        this.lastActivity = System.nanoTime();
+    }
+
+    void touch() {
+        lastActivity = System.nanoTime();
+    }
+
+    boolean isFinished() {
+        return finished.get();
+    }
+
+    /***
+     * 标记流结束并取消截止时间
+     * @return 首次结束时返回true
+     */
+    private boolean finish() {
+        if (!finished.compareAndSet(false, true)) {
+            return false;
+        }
+        TimerWheel.Timeout deadline = this.deadline;
+        if (deadline != null) {
+            deadline.cancel();
+        }
+        return true;
+    }
+
+    /***
+     * 重新提交到其他连接前清空状态
+     */
+    void reset() {
+        id = 0;
+        window = 0;
+        headersReceived = false;
+        response.recycle();
+    }
+
+    void complete() {
+        if (finish()) {
+            response.decodeBody();
+            handler.completed(response, request);
+        }
+    }
+
+    void fail(Throwable exc) {
+        if (finish()) {
+            handler.failed(exc, request);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.firespider.spidersql.io.net;
+
+import com.firespider.spidersql.aio.net.http.HttpAsyncClient;
+import com.firespider.spidersql.aio.net.http.Request;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.CompletionHandler;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 以NIO2客户端(aio)实现的HTTP引擎
+ * 请求在少量线程上异步完成，同时进行的请求数不受线程数限制
+ * 行为与基于HttpURLConnection的引擎对齐：跟随重定向，4xx/5xx作为失败返回，响应转换为同样的 Response
+ */
+public class AioHttpClient implements IHttpAsyncClient {
+    //默认并发上限，请求不占用线程，由调用方的拥塞窗口在此范围内调整
+    private static final int CONCURRENCY = 4096;
+
+    private static final int MAX_REDIRECTS = 5;
+
+    private final HttpAsyncClient client;
+
+    private final int concurrency;
+
+    public AioHttpClient(HttpAsyncClient client) {
+        this(client, CONCURRENCY);
+    }
+
+    public AioHttpClient(HttpAsyncClient client, int concurrency) {
+        this.client = client;
+        this.concurrency = concurrency;
+    }
+
+    @Override
+    public void handleGet(String url, CompletionHandler<Response, String> handler) {
+        handleGet(url, RequestConfig.DEFAULT, handler);
+    }
+
+    @Override
+    public void handleGet(String url, RequestConfig config, CompletionHandler<Response, String> handler) {
+        get(url, url, config, 0, handler);
+    }
+
+    /***
+     * 发起一次请求，3xx时按Location继续请求
+     * @param origin   调用方传入的URL，作为回调的attachment
+     * @param url      本次请求的URL
+     * @param config
+     * @param redirects 已跟随的重定向次数
+     * @param handler
+     */
+    private void get(String origin, String url, RequestConfig config, int redirects, CompletionHandler<Response, String> handler) {
+        Request request;
+        try {
+            request = new Request(url, config.getHeader());
+        } catch (RuntimeException e) {
+            handler.failed(new IOException("invalid url: " + url, e), origin);
+            return;
+        }
+        request.setResponseCharset(config.getCharset());
+        request.setTimeout(config.getTimeout());
+        client.handleGet(request, new CompletionHandler<com.firespider.spidersql.aio.net.http.Response, com.firespider.spidersql.aio.net.http.Response>() {
+            @Override
+            public void completed(com.firespider.spidersql.aio.net.http.Response result, com.firespider.spidersql.aio.net.http.Response attachment) {
+                int code = result.getStatusCode();
+                String location = result.getHeader("Location");
+                if (isRedirect(code) && location != null) {
+                    if (redirects >= MAX_REDIRECTS) {
+                        handler.failed(new IOException("too many redirects: " + origin), origin);
+                        return;
+                    }
+                    String next;
+                    try {
+                        next = new URL(new URL(url), location).toString();
+                    } catch (IOException e) {
+                        handler.failed(e, origin);
+                        return;
+                    }
+                    get(origin, next, config, redirects + 1, handler);
+                    return;
+                }
+                if (code == HttpURLConnection.HTTP_NOT_FOUND || code == HttpURLConnection.HTTP_GONE) {
+                    handler.failed(new FileNotFoundException(url), origin);
+                    return;
+                }
+                if (code >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                    handler.failed(new IOException("Server returned HTTP response code: " + code + " for URL: " + url), origin);
+                    return;
+                }
+                Map<String, String> header = result.getHeader();
+                Response res;
+                try {
+                    res = new Response(code, header == null ? new HashMap<>() : new HashMap<>(header), result.getBody(), new URL(url));
+                } catch (IOException | RuntimeException e) {
+                    handler.failed(e, origin);
+                    return;
+                }
+                handler.completed(res, origin);
+            }
+
+            @Override
+            public void failed(Throwable exc, com.firespider.spidersql.aio.net.http.Response attachment) {
+                handler.failed(exc, origin);
+            }
+        });
+    }
+
+    private static boolean isRedirect(int code) {
+        return code == HttpURLConnection.HTTP_MOVED_PERM || code == HttpURLConnection.HTTP_MOVED_TEMP
+                || code == HttpURLConnection.HTTP_SEE_OTHER || code == 307 || code == 308;
+    }
+
+    @Override
+    public void handleScanPort(String host, String port, CompletionHandler<Boolean, String> handler) {
+        try {
+            client.handleScanPort(host, port, new CompletionHandler<Boolean, String[]>() {
+                @Override
+                public void completed(Boolean result, String[] attachment) {
+                    handler.completed(result, attachment[0]);
+                }
+
+                @Override
+                public void failed(Throwable exc, String[] attachment) {
+                    handler.failed(exc, null);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            handler.failed(e, null);
+        }
+    }
+
+    @Override
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public HttpAsyncClient getClient() {
+        return client;
+    }
+
+    public void close() throws IOException {
+        client.close();
+    }
+}
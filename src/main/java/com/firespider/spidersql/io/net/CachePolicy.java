@@ -0,0 +1,31 @@
+package com.firespider.spidersql.io.net;
+
+/**
+ * 响应缓存策略，对应 get{} 的 cache 选项
+ */
+public enum CachePolicy {
+    //不使用缓存
+    NONE,
+    //有缓存时以条件请求验证，304时使用缓存
+    REVALIDATE,
+    //有缓存时直接使用，不访问网络
+    PREFER,
+    //总是重新下载并更新缓存
+    REFRESH;
+
+    /***
+     * 解析 cache 选项，不区分大小写，为null时不使用缓存
+     * @param value
+     * @return
+     */
+    public static CachePolicy parse(String value) {
+        if (value == null) {
+            return NONE;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown cache policy: " + value);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.firespider.spidersql.io.net;
+
+import java.net.HttpURLConnection;
+import java.nio.channels.CompletionHandler;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 带响应缓存的GET请求
+ * 按请求配置的缓存策略查找缓存：有缓存时以 If-None-Match / If-Modified-Since 发起条件请求，
+ * 304时返回缓存中的同一个响应实例，调用方可据此跳过解析；200时更新缓存
+ */
+public class CachingClient implements IHttpAsyncClient {
+    private final IHttpAsyncClient client;
+
+    private final HttpCache cache;
+
+    public CachingClient(IHttpAsyncClient client, HttpCache cache) {
+        this.client = client;
+        this.cache = cache;
+    }
+
+    @Override
+    public void handleGet(String url, CompletionHandler<Response, String> handler) {
+        client.handleGet(url, handler);
+    }
+
+    @Override
+    public void handleGet(String url, RequestConfig config, CompletionHandler<Response, String> handler) {
+        CachePolicy policy = config.getCachePolicy();
+        if (policy == CachePolicy.NONE) {
+            client.handleGet(url, config, handler);
+            return;
+        }
+        HttpCache.Entry entry = policy == CachePolicy.REFRESH ? null : cache.get(url, config.getHeader(), config.getCharset());
+        if (entry != null && policy == CachePolicy.PREFER) {
+            handler.completed(entry.getResponse(), url);
+            return;
+        }
+        RequestConfig request = entry == null ? config : config.withHeader(conditional(config.getHeader(), entry));
+        client.handleGet(url, request, new CompletionHandler<Response, String>() {
+            @Override
+            public void completed(Response result, String attachment) {
+                if (entry != null && result.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    handler.completed(entry.getResponse(), attachment);
+                    return;
+                }
+                cache.put(url, config.getHeader(), config.getCharset(), result);
+                handler.completed(result, attachment);
+            }
+
+            @Override
+            public void failed(Throwable exc, String attachment) {
+                handler.failed(exc, attachment);
+            }
+        });
+    }
+
+    @Override
+    public void handleScanPort(String host, String port, CompletionHandler<Boolean, String> handler) {
+        client.handleScanPort(host, port, handler);
+    }
+
+    @Override
+    public int getConcurrency() {
+        return client.getConcurrency();
+    }
+
+    /***
+     * 在原请求头上加入条件请求头部，已有的同名头部不覆盖
+     * @param header
+     * @param entry
+     * @return
+     */
+    private static Map<String, String> conditional(Map<String, String> header, HttpCache.Entry entry) {
+        Map<String, String> res = header == null ? new HashMap<>() : new HashMap<>(header);
+        String etag = entry.getETag();
+        if (etag != null && HttpCache.find(res, "If-None-Match") == null) {
+            res.put("If-None-Match", etag);
+        }
+        String lastModified = entry.getLastModified();
+        if (lastModified != null && HttpCache.find(res, "If-Modified-Since") == null) {
+            res.put("If-Modified-Since", lastModified);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,144 @@
+package com.firespider.spidersql.io.net;
+
+/**
+ * 自适应并发控制（AIMD）
+ * 根据请求的成功率与往返时间(RTT)调整允许同时进行的请求数：
+ * 1. 慢启动阶段每次成功窗口加1，超过阈值后每轮（一个窗口的请求）加1
+ * 2. 出现超时或近期成功率过低时窗口减半，每个RTT内最多减一次
+ * 3. 可选令牌桶对发送速率做硬性限制
+ */
+public class CongestionController {
+    private static final double DECREASE_FACTOR = 0.5;
+
+    //近期成功率低于该值时视为拥塞
+    private static final double MIN_SUCCESS_RATE = 0.5;
+
+    //成功率的平滑系数
+    private static final double RATE_ALPHA = 1.0 / 64;
+
+    private final int minWindow;
+
+    private final int maxWindow;
+
+    private final RateLimiter rateLimiter;
+
+    private double window;
+
+    private double slowStartThreshold;
+
+    private int inFlight;
+
+    //平滑RTT与RTT偏差（纳秒），算法参考RFC 6298
+    private long srtt, rttvar;
+
+    private double successRate = 1;
+
+    private long lastDecrease;
+
+    /**
+     * @param initWindow 初始窗口
+     * @param minWindow  最小窗口
+     * @param maxWindow  最大窗口
+     * @param rate       每秒最大请求数，小于等于0表示不限制
+     */
+    public CongestionController(int initWindow, int minWindow, int maxWindow, int rate) {
+        this.minWindow = Math.max(1, minWindow);
+        this.maxWindow = Math.max(this.minWindow, maxWindow);
+        this.window = Math.min(Math.max(initWindow, this.minWindow), this.maxWindow);
+        this.slowStartThreshold = this.maxWindow;
+        this.rateLimiter = rate > 0 ? new RateLimiter(rate) : null;
+    }
+
+    /***
+     * 申请发送一个请求，窗口已满或令牌不足时阻塞
+     * @return 请求开始时间，完成时回传给onSuccess/onFailure
+     * @throws InterruptedException
+     */
+    public long acquire() throws InterruptedException {
+        synchronized (this) {
+            while (inFlight >= (int) window) {
+                wait();
+            }
+            inFlight++;
+        }
+        if (rateLimiter != null) {
+            try {
+                rateLimiter.acquire();
+            } catch (InterruptedException e) {
+                release();
+                throw e;
+            }
+        }
+        return System.nanoTime();
+    }
+
+    /***
+     * 请求成功（包括端口关闭等明确的应答）
+     * @param start acquire返回的开始时间
+     */
+    public synchronized void onSuccess(long start) {
+        long rtt = System.nanoTime() - start;
+        boolean delayed = srtt > 0 && rtt > srtt + 4 * rttvar;
+        updateRtt(rtt);
+        successRate += (1 - successRate) * RATE_ALPHA;
+        if (!delayed) {
+            if (window < slowStartThreshold) {
+                window += 1;
+            } else {
+                window += 1 / window;
+            }
+            window = Math.min(window, maxWindow);
+        }
+        release();
+    }
+
+    /***
+     * 请求失败
+     * @param start acquire返回的开始时间
+     * @param lost  是否视为丢包（超时等），丢包会触发窗口减半
+     */
+    public synchronized void onFailure(long start, boolean lost) {
+        successRate -= successRate * RATE_ALPHA;
+        if (lost || successRate < MIN_SUCCESS_RATE) {
+            decrease();
+        }
+        release();
+    }
+
+    private void decrease() {
+        long now = System.nanoTime();
+        if (srtt > 0 && now - lastDecrease < srtt) {
+            return;
+        }
+        lastDecrease = now;
+        slowStartThreshold = Math.max(window * DECREASE_FACTOR, minWindow);
+        window = slowStartThreshold;
+    }
+
+    private void updateRtt(long rtt) {
+        if (srtt == 0) {
+            srtt = rtt;
+            rttvar = rtt / 2;
+        } else {
+            rttvar = (3 * rttvar + Math.abs(srtt - rtt)) / 4;
+            srtt = (7 * srtt + rtt) / 8;
+        }
+    }
+
+    private synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    public synchronized int getWindow() {
+        return (int) window;
+    }
+
+    public synchronized long getSrttMillis() {
+        return srtt / 1000000;
+    }
+
+    public synchronized double getSuccessRate() {
+        return successRate;
+    }
+}
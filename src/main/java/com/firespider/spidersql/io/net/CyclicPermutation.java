@@ -0,0 +1,124 @@
+package com.firespider.spidersql.io.net;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+
+/**
+ * [0, size) 的伪随机排列
+ * 取大于 size 的素数 p 与模 p 乘法群的随机生成元 g，从随机起点 x 反复计算 x = x * g mod p，
+ * 遍历整个循环群并跳过超出范围的值（与ZMap/masscan的做法相同），只需常数内存
+ */
+public class CyclicPermutation implements PrimitiveIterator.OfLong {
+    //double估算商的取模乘法在该范围内精确
+    private static final long FAST_MULMOD_LIMIT = 1L << 52;
+
+    private final long size;
+
+    private final long prime;
+
+    private final long generator;
+
+    private long current;
+
+    private long emitted;
+
+    public CyclicPermutation(long size) {
+        this(size, new Random());
+    }
+
+    public CyclicPermutation(long size, Random random) {
+        this.size = size;
+        if (size <= 2) {
+            this.prime = 0;
+            this.generator = 0;
+            this.current = 0;
+            return;
+        }
+        this.prime = BigInteger.valueOf(size + 1).nextProbablePrime().longValue();
+        this.generator = findGenerator(prime, random);
+        this.current = 1 + (long) (random.nextDouble() * (prime - 1)) % (prime - 1);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return emitted < size;
+    }
+
+    @Override
+    public long nextLong() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        emitted++;
+        if (prime == 0) {
+            return emitted - 1;
+        }
+        //群元素取值为 [1, p-1]，映射到 [0, p-2]，超出 size 的跳过
+        long value;
+        do {
+            current = mulmod(current, generator, prime);
+            value = current - 1;
+        } while (value >= size);
+        return value;
+    }
+
+    /***
+     * 随机选取模 p 乘法群的生成元
+     * g 为生成元当且仅当对 p-1 的每个素因子 q 都有 g^((p-1)/q) != 1
+     */
+    private static long findGenerator(long p, Random random) {
+        List<Long> factors = primeFactors(p - 1);
+        BigInteger bp = BigInteger.valueOf(p);
+        while (true) {
+            long g = 2 + (long) (random.nextDouble() * (p - 3));
+            boolean primitive = true;
+            for (long q : factors) {
+                if (BigInteger.valueOf(g).modPow(BigInteger.valueOf((p - 1) / q), bp).equals(BigInteger.ONE)) {
+                    primitive = false;
+                    break;
+                }
+            }
+            if (primitive) {
+                return g;
+            }
+        }
+    }
+
+    private static List<Long> primeFactors(long n) {
+        List<Long> res = new ArrayList<>();
+        for (long f = 2; f * f <= n; f += (f == 2 ? 1 : 2)) {
+            if (n % f == 0) {
+                res.add(f);
+                while (n % f == 0) {
+                    n /= f;
+                }
+            }
+        }
+        if (n > 1) {
+            res.add(n);
+        }
+        return res;
+    }
+
+    private static long mulmod(long a, long b, long m) {
+        if (m < FAST_MULMOD_LIMIT) {
+            if ((a | b) < (1L << 31)) {
+                return a * b % m;
+            }
+            long q = (long) ((double) a * b / m);
+            long r = a * b - q * m;
+            while (r < 0) {
+                r += m;
+            }
+            while (r >= m) {
+                r -= m;
+            }
+            return r;
+        }
+        return BigInteger.valueOf(a).multiply(BigInteger.valueOf(b)).mod(BigInteger.valueOf(m)).longValue();
+    }
+}
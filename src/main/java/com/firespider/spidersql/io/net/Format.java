@@ -4,111 +4,45 @@ import java.util.*;
 
 /**
  * Created by xiaotong.shi on 2017/10/18.
+ * URL模板解析，模板语法见 UrlTemplate
  */
 public class Format {
 
-    private static Map<int[], List<String>> findPosMap(String path) {
-        Map<int[], List<String>> resMap = new LinkedHashMap<>();
-        char[] p = path.toCharArray();
-        boolean regexing = false;
-        StringBuilder sb = new StringBuilder();
-        int startPos = 0, endPos = 0;
-        for (int i = 0; i < p.length; i++) {
-            if (regexing) {
-                sb.append(p[i]);
-            }
-            if (p[i] == '(') {
-                startPos = i;
-                regexing = true;
-            }
-            if (p[i] == ')') {
-                endPos = i;
-                int[] res = {startPos, endPos};
-                resMap.put(res, parseRegrex(sb.deleteCharAt(sb.length() - 1).toString()));
-                regexing = false;
-                sb.delete(0, sb.length());
-            }
-        }
-        return resMap;
+    /***
+     * 编译URL模板，按需生成URL
+     * @param url
+     * @return
+     */
+    public static UrlTemplate compile(String url) {
+        return UrlTemplate.compile(url);
     }
 
+    /***
+     * 展开URL模板
+     * 返回以模板为底的只读列表，按下标生成URL，不占用额外内存
+     * @param url
+     * @return
+     */
     public static List<String> parseSingleUrl(String url) {
-        Map posMap = findPosMap(url);
-        if (posMap.size() < 1) {
-            return Collections.singletonList(url);
-        } else {
-            return parsePosMap(url, posMap);
+        UrlTemplate template = UrlTemplate.compile(url);
+        if (template.size() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("url template too large for a list: " + template.size());
         }
-    }
-
-    private static List<String> parseRegrex(String regex) {
-        List<String> res = new ArrayList<>();
-        if (regex.contains(",")) {
-            for (String commaRegrex : regex.split(",")) {
-                res.addAll(parseRegrex(commaRegrex));
-            }
-        } else if (regex.contains("-")) {
-            String[] nums = regex.split("-");
-            int st, et;
-            try {
-                st = Integer.parseInt(nums[0]);
-                et = Integer.parseInt(nums[1]);
-            } catch (NumberFormatException e) {
-                System.err.println("url regex parttern error : " + regex);
-                return res;
-            }
-            if (et < st) {
-                int m = et;
-                et = st;
-                st = m;
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return template.get(index);
             }
-            for (; st <= et; st++) {
-                res.add(String.valueOf(st));
-            }
-        } else {
-            res.add(regex);
-        }
-        return res;
-    }
 
-    private static List<String> parsePosMap(String url, Map<int[], List<String>> posMap) {
-        List<String> res = new ArrayList<>();
-        final int[] positions = new int[posMap.size()];
-        int pos = 0;
-        int nums = 1;
-        for (List l : posMap.values()) {
-            nums *= l.size() == 0 ? 1 : l.size();
-            positions[pos++] = l.size();
-        }
-        for (; nums > 0; nums--) {
-            int[] exepos = remainderPosition(nums, positions);
-            int rPos = 0;
-            int subPos = -1;
-            String sUrl = "";
-            for (Map.Entry<int[], List<String>> entry : posMap.entrySet()) {
-                int[] subNums = entry.getKey();
-                List<String> values = entry.getValue();
-                sUrl += url.substring(subPos + 1, subNums[0]) + (values.size() > 0 ? values.get(exepos[rPos]) : "");
-                subPos = subNums[1];
-                rPos++;
+            @Override
+            public int size() {
+                return (int) template.size();
             }
-            res.add(sUrl);
-        }
-        return res;
-    }
 
-    private static int[] remainderPosition(int oNums, int[] sizes) {
-        int[] res = new int[sizes.length];
-        int nums = oNums;
-        for (int i = 0; i < sizes.length; i++) {
-            if (sizes[i] < 1) {
-                continue;
+            @Override
+            public Iterator<String> iterator() {
+                return template.iterator();
             }
-            int pos = nums % sizes[i];
-            res[i] = pos;
-            nums = nums / sizes[i];
-        }
-        return res;
-
+        };
     }
 }
@@ -0,0 +1,191 @@
+package com.firespider.spidersql.io.net;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 按主机调度请求
+ * 每个主机一个等待队列，限制单主机同时进行的请求数与相邻请求的最小间隔，
+ * 各主机之间轮询取出，保证总吞吐的同时不会集中压垮单个站点
+ * 可指定URL来源，缓冲的URL不足上限时才从来源拉取，内存占用与URL总数无关
+ * 空闲的主机在间隔期结束后移除，保留的主机数与URL涉及的主机总数无关
+ */
+public class HostScheduler {
+    private final int maxPerHost;
+
+    private final long minDelayNanos;
+
+    private final Map<String, HostQueue> hostMap = new HashMap<>();
+
+    //仍有待发送URL的主机，按轮询顺序排列
+    private final Deque<HostQueue> ring = new ArrayDeque<>();
+
+    //空闲但仍在间隔期内的主机，大致按间隔期结束的先后排列
+    private final Deque<HostQueue> idle = new ArrayDeque<>();
+
+    private long pending;
+
+    //URL来源，为null时只发送add加入的URL
+    private final Iterator<String> source;
+
+    //从来源拉取时缓冲的URL数上限
+    private final int capacity;
+
+    /**
+     * @param maxPerHost     单主机最大并发数，小于等于0表示不限制
+     * @param minDelayMillis 同一主机相邻请求的最小间隔（毫秒）
+     */
+    public HostScheduler(int maxPerHost, long minDelayMillis) {
+        this(maxPerHost, minDelayMillis, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxPerHost     单主机最大并发数，小于等于0表示不限制
+     * @param minDelayMillis 同一主机相邻请求的最小间隔（毫秒）
+     * @param source         URL来源，按需拉取
+     * @param capacity       缓冲的URL数上限
+     */
+    public HostScheduler(int maxPerHost, long minDelayMillis, Iterator<String> source, int capacity) {
+        this.maxPerHost = maxPerHost > 0 ? maxPerHost : Integer.MAX_VALUE;
+        this.minDelayNanos = Math.max(minDelayMillis, 0) * 1000000L;
+        this.source = source;
+        this.capacity = Math.max(capacity, 1);
+    }
+
+    /***
+     * 加入待发送的URL
+     * @param url
+     */
+    public synchronized void add(String url) {
+        enqueue(url);
+        notifyAll();
+    }
+
+    private void enqueue(String url) {
+        String host = hostOf(url);
+        HostQueue queue = hostMap.computeIfAbsent(host, HostQueue::new);
+        if (queue.urls.isEmpty()) {
+            ring.offerLast(queue);
+        }
+        queue.urls.offerLast(url);
+        pending++;
+    }
+
+    /***
+     * 缓冲不足上限时从来源拉取
+     * @return 缓冲中待发送的URL数
+     */
+    private long fill() {
+        while (source != null && pending < capacity && source.hasNext()) {
+            enqueue(source.next());
+        }
+        return pending;
+    }
+
+    /***
+     * 轮询取出下一个可发送的URL
+     * 所有主机都已达到并发上限或处于间隔期时阻塞
+     * @return 全部URL均已取出且来源已耗尽时返回null
+     * @throws InterruptedException
+     */
+    public synchronized String take() throws InterruptedException {
+        while (fill() > 0) {
+            long now = System.nanoTime();
+            prune(now);
+            long waitNanos = Long.MAX_VALUE;
+            for (int i = ring.size(); i > 0; i--) {
+                HostQueue queue = ring.pollFirst();
+                if (queue.active < maxPerHost && now - queue.nextAllowed >= 0) {
+                    String url = queue.urls.pollFirst();
+                    queue.active++;
+                    queue.nextAllowed = now + minDelayNanos;
+                    pending--;
+                    if (!queue.urls.isEmpty()) {
+                        ring.offerLast(queue);
+                    }
+                    return url;
+                }
+                if (queue.active < maxPerHost) {
+                    waitNanos = Math.min(waitNanos, queue.nextAllowed - now);
+                }
+                ring.offerLast(queue);
+            }
+            if (waitNanos == Long.MAX_VALUE) {
+                wait();
+            } else {
+                long millis = waitNanos / 1000000L;
+                wait(millis, (int) (waitNanos - millis * 1000000L));
+            }
+        }
+        return null;
+    }
+
+    /***
+     * 请求结束，释放该主机的并发名额
+     * @param url
+     */
+    public synchronized void done(String url) {
+        String host = hostOf(url);
+        HostQueue queue = hostMap.get(host);
+        if (queue != null && queue.active > 0) {
+            queue.active--;
+            //空闲的主机不再保留，仍在间隔期内的主机到期后由take移除，主机数很多时内存不随之增长
+            if (queue.active == 0 && queue.urls.isEmpty()) {
+                long now = System.nanoTime();
+                if (now - queue.nextAllowed >= 0) {
+                    hostMap.remove(host);
+                } else if (!queue.idle) {
+                    queue.idle = true;
+                    idle.offerLast(queue);
+                }
+                prune(now);
+            }
+            notifyAll();
+        }
+    }
+
+    /***
+     * 移除间隔期已结束的空闲主机，之后又有请求的主机不再视为空闲
+     * @param now
+     */
+    private void prune(long now) {
+        HostQueue queue;
+        while ((queue = idle.peekFirst()) != null) {
+            if (queue.active == 0 && queue.urls.isEmpty()) {
+                if (now - queue.nextAllowed < 0) {
+                    return;
+                }
+                hostMap.remove(queue.host, queue);
+            }
+            queue.idle = false;
+            idle.pollFirst();
+        }
+    }
+
+    private static String hostOf(String url) {
+        try {
+            URL u = new URL(url);
+            return u.getHost().toLowerCase() + ":" + (u.getPort() < 0 ? u.getDefaultPort() : u.getPort());
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    private static class HostQueue {
+        private final String host;
+        private final Deque<String> urls = new ArrayDeque<>();
+        private int active;
+        private long nextAllowed = System.nanoTime();
+        //是否在空闲队列中
+        private boolean idle;
+
+        private HostQueue(String host) {
+            this.host = host;
+        }
+    }
+}
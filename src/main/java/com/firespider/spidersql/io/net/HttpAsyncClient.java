@@ -1,70 +1,184 @@
 package com.firespider.spidersql.io.net;
 
+import com.firespider.spidersql.utils.ProxyPool;
+import com.firespider.spidersql.utils.VirtualThreads;
+
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.channels.CompletionHandler;
 import java.nio.charset.Charset;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 异步HTTP请求模块
  * 网络访问，端口扫描
+ * 进程内共享同一实例(INSTANCE)，请求头、编码与超时随每次请求传递
+ * 代理池非空时GET请求经由池中的代理发出，结果计入代理的健康分数
+ * 可选虚拟线程模式（Java 21及以上）：每个请求一个虚拟线程，同时进行的请求数不再受线程数限制，
+ * 由系统属性 spidersql.http.virtualThreads 开启，运行时不支持时使用平台线程
  */
 public class HttpAsyncClient implements IHttpAsyncClient {
+    private static final int THREAD_NUM = 200;
+
+    //空闲线程的存活时间（秒）
+    private static final int KEEP_ALIVE = 60;
+
+    //虚拟线程模式下的默认并发上限
+    private static final int VIRTUAL_CONCURRENCY = 10000;
+
+    private static final boolean VIRTUAL = Boolean.getBoolean("spidersql.http.virtualThreads");
+
+    public static final HttpAsyncClient INSTANCE = new HttpAsyncClient(
+            Integer.getInteger("spidersql.http.concurrency", VIRTUAL && VirtualThreads.isSupported() ? VIRTUAL_CONCURRENCY : THREAD_NUM),
+            null, Charset.defaultCharset(), RequestConfig.DEFAULT.getTimeout(), VIRTUAL);
+
     private final ExecutorService service;
 
-    private Map<String, String> header;
+    //同时进行的请求数上限：平台线程模式为线程数，虚拟线程模式供调用方控制并发
+    private final int concurrency;
 
-    private Charset charset;
+    private final boolean virtualThreads;
 
-    private int timeout;
+    private final RequestConfig defaultConfig;
+
+    private volatile ProxyPool proxyPool = ProxyPool.INSTANCE;
 
     public HttpAsyncClient(int threadNum, int timeout) {
         this(threadNum, null, Charset.defaultCharset(), timeout);
     }
 
     public HttpAsyncClient(int threadNum, Map<String, String> header, Charset charset, int timeout) {
-        this.service = Executors.newFixedThreadPool(threadNum);
-        this.header = header;
-        this.charset = charset;
-        this.timeout = timeout;
+        this(threadNum, header, charset, timeout, false);
+    }
+
+    /**
+     * @param threadNum      平台线程数；虚拟线程模式下为建议的并发上限
+     * @param header
+     * @param charset
+     * @param timeout
+     * @param virtualThreads 是否使用虚拟线程，运行时不支持时使用平台线程
+     */
+    public HttpAsyncClient(int threadNum, Map<String, String> header, Charset charset, int timeout, boolean virtualThreads) {
+        this.concurrency = threadNum;
+        this.defaultConfig = new RequestConfig(header, charset, timeout);
+        if (virtualThreads && VirtualThreads.isSupported()) {
+            this.service = VirtualThreads.newExecutor("http-client-");
+            this.virtualThreads = true;
+            return;
+        }
+        if (virtualThreads) {
+            System.err.println("virtual threads require Java 21, using " + threadNum + " platform threads");
+        }
+        this.virtualThreads = false;
+        AtomicInteger index = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadNum, threadNum, KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "http-client-" + index.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        //共享实例长期存在，空闲时不保留线程
+        executor.allowCoreThreadTimeOut(true);
+        this.service = executor;
     }
 
     @Override
     public void handleGet(String url, CompletionHandler<Response, String> handler) {
+        handleGet(url, this.defaultConfig, handler);
+    }
+
+    @Override
+    public void handleGet(String url, RequestConfig config, CompletionHandler<Response, String> handler) {
         this.service.execute(() -> {
+            //回调只调用一次：请求中的任何异常都交给failed，回调自身抛出的异常不再回调
+            Response res;
             try {
-                Response res = NetUtil.get(url, this.header, this.charset, this.timeout);
-                handler.completed(res, url);
-            } catch (IOException e) {
+                res = get(url, config);
+            } catch (IOException | RuntimeException e) {
                 handler.failed(e, url);
+                return;
             }
+            handler.completed(res, url);
         });
     }
 
+    /***
+     * 发起GET请求，代理池非空时申请代理，等待代理的时间不超过请求超时
+     * 代理全部停用时申请失败，不改为直接连接
+     * @param url
+     * @param config
+     * @return
+     * @throws IOException
+     */
+    private Response get(String url, RequestConfig config) throws IOException {
+        ProxyPool pool = this.proxyPool;
+        if (pool == null || pool.isEmpty()) {
+            return NetUtil.get(url, config.getHeader(), config.getCharset(), config.getTimeout());
+        }
+        ProxyPool.Node proxy = pool.acquire(config.getTimeout());
+        long start = System.currentTimeMillis();
+        try {
+            Response res = NetUtil.get(url, config.getHeader(), config.getCharset(), config.getTimeout(), proxy.toProxy());
+            pool.succeeded(proxy, System.currentTimeMillis() - start);
+            return res;
+        } catch (IOException e) {
+            if (isProxyFailure(e)) {
+                pool.failed(proxy);
+            }
+            throw e;
+        } finally {
+            pool.release(proxy);
+        }
+    }
+
+    /***
+     * 是否为连接或传输层面的失败，源站返回的错误状态码不计入代理的失败
+     * @param e
+     * @return
+     */
+    private static boolean isProxyFailure(IOException e) {
+        return !(e instanceof FileNotFoundException)
+                && (e.getMessage() == null || !e.getMessage().startsWith("Server returned HTTP response code"));
+    }
+
     @Override
     public void handleScanPort(String host, String port, CompletionHandler<Boolean, String> handler) {
         this.service.execute(() -> {
+            String ip;
             try {
-                String ip = NetUtil.conn(host, Integer.parseInt(port), this.timeout);
-                if (ip != null && ip.length() > 0) {
-                    handler.completed(true, ip);
-                } else {
-                    handler.completed(false, ip);
-                }
-            } catch (IOException e) {
+                ip = NetUtil.conn(host, Integer.parseInt(port), this.defaultConfig.getTimeout());
+            } catch (IOException | RuntimeException e) {
                 handler.failed(e, null);
+                return;
             }
+            handler.completed(ip != null && ip.length() > 0, ip);
         });
     }
 
-    public void setHeader(Map<String, String> header) {
-        this.header = header;
+    @Override
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /***
+     * 设置代理池，为null时直接连接
+     * @param proxyPool
+     */
+    public void setProxyPool(ProxyPool proxyPool) {
+        this.proxyPool = proxyPool;
     }
 
-    public void setCharset(Charset charset) {
-        this.charset = charset;
+    public ProxyPool getProxyPool() {
+        return proxyPool;
     }
 
     public void close() {
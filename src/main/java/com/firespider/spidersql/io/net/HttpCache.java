@@ -0,0 +1,413 @@
+package com.firespider.spidersql.io.net;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP响应缓存
+ * 内存中按字节数限制的LRU为第一级，磁盘文件为第二级，磁盘命中后回填内存；磁盘写入在后台线程进行
+ * 保存200响应的正文与ETag、Last-Modified，供条件请求验证；Cache-Control: no-store 的响应不保存
+ * 同一URL按响应Vary头部列出的请求头取值与解码正文使用的编码分别保存：
+ * 键为规范化的URL加上这些取值，每个URL记录最近一次响应的Vary头部名称，查找时据此组成键
+ */
+public class HttpCache {
+    private static final long MEMORY_LIMIT = 64L << 20;
+
+    private static final int MAGIC = 0x53514c43;
+
+    private static final int VARY_MAGIC = 0x53514c56;
+
+    //内存中记录Vary头部名称的URL数上限
+    private static final int VARY_LIMIT = 10000;
+
+    //等待写入磁盘的条目数上限，超出时不写入磁盘，只保留内存中的条目
+    private static final int STORE_QUEUE = 1024;
+
+    //估算内存占用时每个条目的固定开销
+    private static final int ENTRY_OVERHEAD = 256;
+
+    public static final HttpCache INSTANCE = new HttpCache(
+            Paths.get(System.getProperty("spidersql.cache.dir", System.getProperty("user.home") + File.separator + ".spidersql" + File.separator + "cache")),
+            Long.getLong("spidersql.cache.memory", MEMORY_LIMIT));
+
+    private final Path dir;
+
+    private final long memoryLimit;
+
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long memorySize;
+
+    //各URL最近一次响应的Vary头部名称，没有Vary时为空列表
+    private final LinkedHashMap<String, List<String>> varies = new LinkedHashMap<String, List<String>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+            return size() > VARY_LIMIT;
+        }
+    };
+
+    //磁盘写入线程，不占用完成网络请求的线程
+    private final ExecutorService writer;
+
+    /**
+     * @param dir         磁盘缓存目录，首次写入时创建
+     * @param memoryLimit 内存缓存的字节数上限
+     */
+    public HttpCache(Path dir, long memoryLimit) {
+        this.dir = dir;
+        this.memoryLimit = memoryLimit;
+        this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(STORE_QUEUE), r -> {
+            Thread t = new Thread(r, "http-cache-writer");
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /***
+     * 查找缓存
+     * @param url
+     * @param header  本次请求的请求头，用于匹配Vary
+     * @param charset 本次请求的响应编码
+     * @return 未命中返回null
+     */
+    public Entry get(String url, Map<String, String> header, Charset charset) {
+        String base = SingleFlightClient.normalize(url);
+        String key = key(base, varyNames(base), header, charset);
+        Entry entry;
+        synchronized (this) {
+            entry = memory.get(key);
+        }
+        if (entry == null) {
+            entry = load(key);
+            if (entry == null) {
+                return null;
+            }
+            remember(entry);
+        }
+        return entry.matches(header, charset) ? entry : null;
+    }
+
+    /***
+     * 保存响应
+     * @param url
+     * @param header   本次请求的请求头
+     * @param charset  本次请求的响应编码
+     * @param response
+     * @return 保存的条目，响应不可缓存时返回null
+     */
+    public Entry put(String url, Map<String, String> header, Charset charset, Response response) {
+        if (response.getCode() != HttpURLConnection.HTTP_OK || response.getBody() == null) {
+            return null;
+        }
+        Map<String, String> responseHeader = stringMap(response.getHeader());
+        String cacheControl = find(responseHeader, "Cache-Control");
+        if (cacheControl != null && cacheControl.toLowerCase().contains("no-store")) {
+            return null;
+        }
+        String varyHeader = find(responseHeader, "Vary");
+        if (varyHeader != null && varyHeader.trim().equals("*")) {
+            return null;
+        }
+        Map<String, String> vary = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if (varyHeader != null) {
+            for (String name : varyHeader.split(",")) {
+                name = name.trim();
+                if (!name.isEmpty()) {
+                    vary.put(name, value(header, name));
+                }
+            }
+        }
+        String base = SingleFlightClient.normalize(url);
+        List<String> names = new ArrayList<>(vary.keySet());
+        if (!names.equals(varyNames(base))) {
+            synchronized (this) {
+                varies.put(base, names);
+            }
+            writer.execute(() -> storeVary(base, names));
+        }
+        Entry entry = new Entry(key(base, names, header, charset), charset.name(), vary, response);
+        remember(entry);
+        writer.execute(() -> store(entry));
+        return entry;
+    }
+
+    /***
+     * 条目的键：规范化的URL、编码与Vary列出的请求头取值
+     * @param base    规范化的URL
+     * @param names   Vary头部名称，已按名称排序
+     * @param header  本次请求的请求头
+     * @param charset 本次请求的响应编码
+     * @return
+     */
+    private static String key(String base, List<String> names, Map<String, String> header, Charset charset) {
+        StringBuilder res = new StringBuilder(base).append('\n').append(charset.name());
+        for (String name : names) {
+            res.append('\n').append(name.toLowerCase(Locale.ROOT)).append(':').append(value(header, name));
+        }
+        return res.toString();
+    }
+
+    private static String value(Map<String, String> header, String name) {
+        String value = header == null ? null : find(header, name);
+        return value == null ? "" : value;
+    }
+
+    /***
+     * URL最近一次响应的Vary头部名称，内存中没有时从磁盘读取
+     * @param base 规范化的URL
+     * @return 没有记录时为空列表
+     */
+    private List<String> varyNames(String base) {
+        List<String> names;
+        synchronized (this) {
+            names = varies.get(base);
+        }
+        if (names != null) {
+            return names;
+        }
+        names = loadVary(base);
+        synchronized (this) {
+            varies.putIfAbsent(base, names);
+        }
+        return names;
+    }
+
+    /***
+     * 放入内存，超出上限时淘汰最久未使用的条目
+     * @param entry
+     */
+    private synchronized void remember(Entry entry) {
+        Entry old = memory.put(entry.key, entry);
+        if (old != null) {
+            memorySize -= old.size;
+        }
+        memorySize += entry.size;
+        Iterator<Entry> iterator = memory.values().iterator();
+        while (memorySize > memoryLimit && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            memorySize -= eldest.size;
+        }
+    }
+
+    /***
+     * 写入磁盘，在写入线程中执行，写入失败时只保留内存中的条目
+     * @param entry
+     */
+    private void store(Entry entry) {
+        write(entry.key, out -> {
+            out.writeInt(MAGIC);
+            out.writeUTF(entry.key);
+            out.writeUTF(entry.charset);
+            writeMap(out, entry.vary);
+            Response response = entry.response;
+            out.writeInt(response.getCode());
+            out.writeUTF(response.getUrl() == null ? "" : response.getUrl().toString());
+            writeMap(out, stringMap(response.getHeader()));
+            byte[] body = response.getBody().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(body.length);
+            out.write(body);
+        });
+    }
+
+    /***
+     * 将URL的Vary头部名称写入磁盘
+     * @param base
+     * @param names
+     */
+    private void storeVary(String base, List<String> names) {
+        write(base, out -> {
+            out.writeInt(VARY_MAGIC);
+            out.writeUTF(base);
+            out.writeInt(names.size());
+            for (String name : names) {
+                out.writeUTF(name);
+            }
+        });
+    }
+
+    /***
+     * 先写临时文件再替换
+     * @param key
+     * @param content
+     */
+    private void write(String key, Content content) {
+        try {
+            Files.createDirectories(dir);
+            Path file = file(key);
+            Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                content.write(out);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("cache store failed: " + e.getMessage());
+        }
+    }
+
+    /***
+     * 从磁盘读取URL的Vary头部名称
+     * @param base
+     * @return 文件不存在或格式不符时为空列表
+     */
+    private List<String> loadVary(String base) {
+        Path file = file(base);
+        if (!Files.isRegularFile(file)) {
+            return Collections.emptyList();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != VARY_MAGIC || !in.readUTF().equals(base)) {
+                return Collections.emptyList();
+            }
+            int size = in.readInt();
+            List<String> names = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                names.add(in.readUTF());
+            }
+            return names;
+        } catch (IOException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /***
+     * 从磁盘读取，文件不存在或格式不符时返回null
+     * @param key
+     * @return
+     */
+    private Entry load(String key) {
+        Path file = file(key);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(key)) {
+                return null;
+            }
+            String charset = in.readUTF();
+            Map<String, String> vary = readMap(in, new TreeMap<>(String.CASE_INSENSITIVE_ORDER));
+            int code = in.readInt();
+            String url = in.readUTF();
+            Map<String, String> header = readMap(in, new HashMap<>());
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            Response response = new Response(code, header, new String(body, StandardCharsets.UTF_8), url.isEmpty() ? null : new URL(url));
+            return new Entry(key, charset, vary, response);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private Path file(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder res = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                res.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return dir.resolve(res.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, String> e : map.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeUTF(e.getValue() == null ? "" : e.getValue());
+        }
+    }
+
+    private static Map<String, String> readMap(DataInputStream in, Map<String, String> res) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            res.put(in.readUTF(), in.readUTF());
+        }
+        return res;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> stringMap(Map header) {
+        return header == null ? Collections.emptyMap() : (Map<String, String>) header;
+    }
+
+    /***
+     * 查找头部，名称不区分大小写
+     * @param header
+     * @param name
+     * @return
+     */
+    static String find(Map<String, String> header, String name) {
+        for (Map.Entry<String, String> e : header.entrySet()) {
+            if (name.equalsIgnoreCase(e.getKey())) {
+                return e.getValue();
+            }
+        }
+        return null;
+    }
+
+    private interface Content {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * 缓存条目
+     */
+    public static class Entry {
+        private final String key;
+        private final String charset;
+        private final Map<String, String> vary;
+        private final Response response;
+        private final long size;
+
+        Entry(String key, String charset, Map<String, String> vary, Response response) {
+            this.key = key;
+            this.charset = charset;
+            this.vary = vary;
+            this.response = response;
+            this.size = ENTRY_OVERHEAD + 2L * (key.length() + response.getBody().length());
+        }
+
+        /***
+         * 本次请求的编码与Vary列出的请求头取值是否与保存时相同
+         */
+        boolean matches(Map<String, String> header, Charset charset) {
+            if (!this.charset.equals(charset.name())) {
+                return false;
+            }
+            for (Map.Entry<String, String> e : vary.entrySet()) {
+                if (!e.getValue().equals(value(header, e.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public Response getResponse() {
+            return response;
+        }
+
+        public String getETag() {
+            return find(stringMap(response.getHeader()), "ETag");
+        }
+
+        public String getLastModified() {
+            return find(stringMap(response.getHeader()), "Last-Modified");
+        }
+    }
+}
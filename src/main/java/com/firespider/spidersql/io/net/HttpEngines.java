@@ -0,0 +1,109 @@
+package com.firespider.spidersql.io.net;
+
+import com.firespider.spidersql.aio.net.http.RetryPolicy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * HTTP引擎注册表
+ * 引擎即 IHttpAsyncClient 的实现，按名称注册，首次使用时创建，之后在进程内共享
+ * 取得的客户端外层套有请求合并与响应缓存，语句可用 get{engine:"aio"} 选择引擎，
+ * 未指定时使用系统属性 spidersql.http.engine，默认为 io
+ * 内置引擎：
+ * io  基于HttpURLConnection，每个请求占用一个线程（可选虚拟线程）
+ * aio 基于NIO2，支持HTTP/2、连接复用与代理隧道
+ * aio引擎的协议、重试与对冲由系统属性配置：
+ * spidersql.http.h2         是否启用HTTP/2（https经ALPN协商，http使用h2c，不支持时回退HTTP/1.1），默认false
+ * spidersql.http.retries     最大重试次数，默认0（不重试）
+ * spidersql.http.retryDelay  首次重试的退避上限（毫秒），之后每次翻倍，默认100
+ * spidersql.http.hedge       是否发送对冲请求，默认false
+ */
+public class HttpEngines {
+    public static final String IO = "io";
+
+    public static final String AIO = "aio";
+
+    private static final String DEFAULT = System.getProperty("spidersql.http.engine", IO);
+
+    private static final long RETRY_DELAY = 100;
+
+    //重试退避上限的最大值（毫秒）
+    private static final long MAX_RETRY_DELAY = 10 * 1000L;
+
+    private static final Map<String, Supplier<IHttpAsyncClient>> ENGINES = new ConcurrentHashMap<>();
+
+    //已创建的客户端（含请求合并与缓存）
+    private static final Map<String, IHttpAsyncClient> CLIENTS = new ConcurrentHashMap<>();
+
+    static {
+        register(IO, () -> HttpAsyncClient.INSTANCE);
+        register(AIO, () -> {
+            try {
+                return new AioHttpClient(newAioClient());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /***
+     * 按系统属性创建aio客户端
+     * @return
+     * @throws IOException
+     */
+    private static com.firespider.spidersql.aio.net.http.HttpAsyncClient newAioClient() throws IOException {
+        com.firespider.spidersql.aio.net.http.HttpAsyncClient client = new com.firespider.spidersql.aio.net.http.HttpAsyncClient();
+        client.setHttp2(Boolean.getBoolean("spidersql.http.h2"));
+        int retries = Integer.getInteger("spidersql.http.retries", 0);
+        if (retries > 0) {
+            long delay = Long.getLong("spidersql.http.retryDelay", RETRY_DELAY);
+            client.setRetryPolicy(new RetryPolicy(retries, delay, Math.max(MAX_RETRY_DELAY, delay)));
+        }
+        client.setHedging(Boolean.getBoolean("spidersql.http.hedge"));
+        return client;
+    }
+
+    private HttpEngines() {
+    }
+
+    /***
+     * 注册引擎，同名引擎已创建时不影响已有的客户端
+     * @param name
+     * @param engine
+     */
+    public static void register(String name, Supplier<IHttpAsyncClient> engine) {
+        ENGINES.put(name.toLowerCase(Locale.ROOT), engine);
+    }
+
+    /***
+     * 默认引擎的客户端
+     * @return
+     */
+    public static IHttpAsyncClient get() {
+        return get(null);
+    }
+
+    /***
+     * 按名称取得客户端
+     * @param name 引擎名称，为null时使用默认引擎
+     * @return
+     * @throws IllegalArgumentException 引擎不存在
+     */
+    public static IHttpAsyncClient get(String name) {
+        String key = (name == null ? DEFAULT : name).toLowerCase(Locale.ROOT);
+        IHttpAsyncClient client = CLIENTS.get(key);
+        if (client != null) {
+            return client;
+        }
+        Supplier<IHttpAsyncClient> engine = ENGINES.get(key);
+        if (engine == null) {
+            throw new IllegalArgumentException("unknown http engine: " + key + ", available: " + ENGINES.keySet());
+        }
+        return CLIENTS.computeIfAbsent(key, k -> new SingleFlightClient(new CachingClient(engine.get(), HttpCache.INSTANCE)));
+    }
+}
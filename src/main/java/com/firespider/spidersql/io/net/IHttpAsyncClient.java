@@ -10,5 +10,19 @@ public interface IHttpAsyncClient {
 
     void handleGet(String url, CompletionHandler<Response, String> handler);
 
+    /***
+     * 按单次请求的配置发起GET请求
+     * @param url
+     * @param config 请求头、编码与超时
+     * @param handler
+     */
+    void handleGet(String url, RequestConfig config, CompletionHandler<Response, String> handler);
+
     void handleScanPort(String host, String port, CompletionHandler<Boolean, String> handler);
+
+    /***
+     * 同时进行的请求数上限，调用方据此限制并发窗口
+     * @return
+     */
+    int getConcurrency();
 }
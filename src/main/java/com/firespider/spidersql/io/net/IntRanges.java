@@ -0,0 +1,106 @@
+package com.firespider.spidersql.io.net;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 有序不重叠的整数区间集合
+ * 仅保存区间端点与前缀长度，按序号随机访问，适用于端口等大范围取值
+ */
+public class IntRanges {
+    private final int[] starts;
+
+    private final int[] ends;
+
+    //前缀长度，prefix[i] 为前 i 个区间的元素总数
+    private final long[] prefix;
+
+    private IntRanges(List<int[]> ranges) {
+        ranges.sort((a, b) -> Integer.compare(a[0], b[0]));
+        List<int[]> merged = new ArrayList<>();
+        for (int[] range : ranges) {
+            int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && (long) range[0] <= (long) last[1] + 1) {
+                last[1] = Math.max(last[1], range[1]);
+            } else {
+                merged.add(new int[]{range[0], range[1]});
+            }
+        }
+        this.starts = new int[merged.size()];
+        this.ends = new int[merged.size()];
+        this.prefix = new long[merged.size() + 1];
+        for (int i = 0; i < merged.size(); i++) {
+            starts[i] = merged.get(i)[0];
+            ends[i] = merged.get(i)[1];
+            prefix[i + 1] = prefix[i] + ((long) ends[i] - starts[i] + 1);
+        }
+    }
+
+    /***
+     * 解析形如 "80,8080,8000-8100" 的取值范围
+     * @param str
+     * @param min 允许的最小值
+     * @param max 允许的最大值
+     * @return
+     */
+    public static IntRanges parse(String str, int min, int max) {
+        List<int[]> ranges = new ArrayList<>();
+        for (String item : str.split(",")) {
+            item = item.trim();
+            if (item.isEmpty()) {
+                continue;
+            }
+            int[] range = parseRange(item);
+            if (range[0] < min || range[1] > max) {
+                throw new IllegalArgumentException("value out of range [" + min + "," + max + "] : " + item);
+            }
+            ranges.add(range);
+        }
+        return new IntRanges(ranges);
+    }
+
+    /***
+     * 解析单个区间 "a" 或 "a-b"，端点顺序无要求
+     * @param item
+     * @return
+     */
+    static int[] parseRange(String item) {
+        int sep = item.indexOf('-');
+        if (sep < 0) {
+            sep = item.indexOf('/');
+        }
+        int start, end;
+        if (sep > 0) {
+            start = Integer.parseInt(item.substring(0, sep).trim());
+            end = Integer.parseInt(item.substring(sep + 1).trim());
+        } else {
+            start = end = Integer.parseInt(item);
+        }
+        return start <= end ? new int[]{start, end} : new int[]{end, start};
+    }
+
+    public long size() {
+        return prefix[prefix.length - 1];
+    }
+
+    /***
+     * 第 index 个元素
+     * @param index
+     * @return
+     */
+    public int get(long index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        int lo = 0, hi = starts.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (prefix[mid] <= index) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return (int) (starts[lo] + (index - prefix[lo]));
+    }
+}
@@ -1,14 +1,22 @@
 package com.firespider.spidersql.io.net;
 
+import com.firespider.spidersql.utils.DnsResolver;
+import com.firespider.spidersql.utils.InflaterPool;
+
 import java.io.*;
 import java.net.*;
 import java.nio.charset.Charset;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Created by stone on 2017/10/17.
  */
 public class NetUtil {
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+
     public static Response get(String path, Map<String, String> header, Charset charset, int timeout) throws IOException {
         HttpURLConnection conn = getConn(path, header, timeout);
         checkResponse(conn);
@@ -16,6 +24,22 @@ public class NetUtil {
 //        return readInputStream(conn.getInputStream());
     }
 
+    /***
+     * 经由代理发起GET请求
+     * @param path
+     * @param header
+     * @param charset
+     * @param timeout
+     * @param proxy
+     * @return
+     * @throws IOException
+     */
+    public static Response get(String path, Map<String, String> header, Charset charset, int timeout, Proxy proxy) throws IOException {
+        HttpURLConnection conn = getConn(path, header, proxy, timeout);
+        checkResponse(conn);
+        return parseResponse(conn, charset);
+    }
+
     public static Response get(String path, int timeout) throws IOException {
         return get(path, null, Charset.defaultCharset(), timeout);
     }
@@ -35,7 +59,7 @@ public class NetUtil {
 
     public static String conn(String host, int port, int timeout) throws IOException {
         Socket socket = new Socket();
-        SocketAddress remoteAddr = new InetSocketAddress(host, port);
+        SocketAddress remoteAddr = new InetSocketAddress(DnsResolver.INSTANCE.resolve(host), port);
         socket.connect(remoteAddr, timeout);
         String address = socket.getInetAddress().getHostAddress();
         socket.close();
@@ -47,6 +71,7 @@ public class NetUtil {
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
         connection.setConnectTimeout(timeout);
         connection.setReadTimeout(timeout);
+        connection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
         if (header != null) {
             header.forEach(connection::setRequestProperty);
         }
@@ -59,18 +84,95 @@ public class NetUtil {
         HttpURLConnection connection = (HttpURLConnection) url.openConnection(proxy);
         connection.setConnectTimeout(timeout);
         connection.setReadTimeout(timeout);
+        connection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+        if (header != null) {
+            header.forEach(connection::setRequestProperty);
+        }
         connection.connect();
         return connection;
     }
 
     private static String readInputStream(InputStream inputStream, Charset charset) throws IOException {
-        BufferedReader in = new BufferedReader(new InputStreamReader(inputStream, charset));
-        StringBuilder sb = new StringBuilder();
-        String line;
-        while ((line = in.readLine()) != null) {
-            sb.append(line);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(inputStream, charset))) {
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null) {
+                sb.append(line);
+            }
+            return sb.toString();
+        }
+    }
+
+    /***
+     * 根据Content-Encoding包装输入流，边读取边解压
+     * @param conn
+     * @return
+     * @throws IOException
+     */
+    private static InputStream decodeInputStream(HttpURLConnection conn) throws IOException {
+        InputStream in = conn.getInputStream();
+        String encoding = conn.getContentEncoding();
+        if (encoding == null) {
+            return in;
+        }
+        switch (encoding.trim().toLowerCase()) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(in);
+            case "deflate":
+                return new DeflateInputStream(in);
+            default:
+                return in;
+        }
+    }
+
+    /***
+     * deflate解压流
+     * 兼容带zlib头与不带zlib头两种格式，Inflater从池中借用，关闭时归还
+     */
+    private static class DeflateInputStream extends InflaterInputStream {
+        private final boolean nowrap;
+
+        DeflateInputStream(InputStream in) throws IOException {
+            this(new PushbackInputStream(in, 2));
+        }
+
+        private DeflateInputStream(PushbackInputStream in) throws IOException {
+            this(in, isRawDeflate(in));
+        }
+
+        private DeflateInputStream(PushbackInputStream in, boolean nowrap) {
+            super(in, InflaterPool.INSTANCE.borrow(nowrap));
+            this.nowrap = nowrap;
+        }
+
+        private static boolean isRawDeflate(PushbackInputStream in) throws IOException {
+            byte[] head = new byte[2];
+            int n = in.read(head);
+            while (n == 1) {
+                int b = in.read();
+                if (b < 0) {
+                    break;
+                }
+                head[n++] = (byte) b;
+            }
+            if (n > 0) {
+                in.unread(head, 0, n);
+            }
+            if (n < 2) {
+                return false;
+            }
+            int cmf = head[0] & 0xff;
+            return (cmf & 0x0f) != 8 || ((cmf << 8) | (head[1] & 0xff)) % 31 != 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            Inflater inflater = this.inf;
+            this.inf = null;
+            super.close();
+            InflaterPool.INSTANCE.release(inflater, nowrap);
         }
-        return sb.toString();
     }
 
     private static boolean checkResponse(HttpURLConnection connection) throws IOException {
@@ -80,7 +182,7 @@ public class NetUtil {
 
     private static Response parseResponse(HttpURLConnection conn, Charset charset) throws IOException {
         Response response = new Response(conn);
-        String body = readInputStream(conn.getInputStream(), charset);
+        String body = readInputStream(decodeInputStream(conn), charset);
         response.setBody(body);
         return response;
     }
@@ -0,0 +1,60 @@
+package com.firespider.spidersql.io.net;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 令牌桶限速器
+ * 按固定速率生成令牌，允许不超过一秒令牌量的突发
+ */
+public class RateLimiter {
+    private final double permitsPerNano;
+
+    private final double maxPermits;
+
+    private double storedPermits;
+
+    private long lastRefill;
+
+    /**
+     * @param permitsPerSecond 每秒令牌数
+     */
+    public RateLimiter(int permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("rate must be positive : " + permitsPerSecond);
+        }
+        this.permitsPerNano = permitsPerSecond / (double) TimeUnit.SECONDS.toNanos(1);
+        this.maxPermits = Math.max(1, permitsPerSecond);
+        this.storedPermits = 1;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /***
+     * 获取一个令牌，不足时阻塞等待
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        while ((waitNanos = tryAcquire()) > 0) {
+            LockSupport.parkNanos(this, waitNanos);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /***
+     * 尝试获取令牌
+     * @return 0 表示获取成功，否则为预计需要等待的纳秒数
+     */
+    private synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        storedPermits = Math.min(maxPermits, storedPermits + (now - lastRefill) * permitsPerNano);
+        lastRefill = now;
+        if (storedPermits >= 1) {
+            storedPermits -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) ((1 - storedPermits) / permitsPerNano));
+    }
+}
@@ -0,0 +1,69 @@
+package com.firespider.spidersql.io.net;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * 单次请求的配置
+ * 随请求传递，客户端本身不保存任何语句级别的设置，可被多个操作共享
+ */
+public class RequestConfig {
+    private static final int TIMEOUT = 5000;
+
+    public static final RequestConfig DEFAULT = new RequestConfig(null, Charset.defaultCharset(), TIMEOUT);
+
+    private final Map<String, String> header;
+
+    private final Charset charset;
+
+    private final int timeout;
+
+    private final CachePolicy cachePolicy;
+
+    /**
+     * @param header  请求头，可为null
+     * @param charset 响应编码
+     * @param timeout 连接与读取超时（毫秒）
+     */
+    public RequestConfig(Map<String, String> header, Charset charset, int timeout) {
+        this(header, charset, timeout, CachePolicy.NONE);
+    }
+
+    /**
+     * @param header      请求头，可为null
+     * @param charset     响应编码
+     * @param timeout     连接与读取超时（毫秒）
+     * @param cachePolicy 响应缓存策略
+     */
+    public RequestConfig(Map<String, String> header, Charset charset, int timeout, CachePolicy cachePolicy) {
+        this.header = header;
+        this.charset = charset == null ? Charset.defaultCharset() : charset;
+        this.timeout = timeout;
+        this.cachePolicy = cachePolicy == null ? CachePolicy.NONE : cachePolicy;
+    }
+
+    /***
+     * 复制配置并替换请求头
+     * @param header
+     * @return
+     */
+    public RequestConfig withHeader(Map<String, String> header) {
+        return new RequestConfig(header, charset, timeout, cachePolicy);
+    }
+
+    public Map<String, String> getHeader() {
+        return header;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public CachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+}
@@ -20,6 +20,16 @@ public class Response<T> {
     public Response() {
     }
 
+    /***
+     * 由缓存的内容重建响应
+     */
+    public Response(int code, Map<String, String> header, String body, URL url) {
+        this.code = code;
+        this.header = header;
+        this.body = body;
+        this.url = url;
+    }
+
     public Response(HttpURLConnection connection) throws IOException {
         this.code = connection.getResponseCode();
         this.url = connection.getURL();
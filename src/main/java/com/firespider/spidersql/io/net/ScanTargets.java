@@ -0,0 +1,230 @@
+package com.firespider.spidersql.io.net;
+
+import com.firespider.spidersql.utils.DnsResolver;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 扫描目标集合 host × port
+ * IP以分段区间或CIDR表示，端口以区间表示，不展开为字符串集合；
+ * 迭代时按伪随机排列惰性生成目标，相邻探测分散到不同主机与端口
+ */
+public class ScanTargets implements Iterable<ScanTargets.Target> {
+    private final List<IpBlock> blocks = new ArrayList<>();
+
+    private final List<String> names;
+
+    private final IntRanges ports;
+
+    //blocks 的前缀长度，最后一项为IP总数
+    private final long[] blockPrefix;
+
+    private final long hostCount;
+
+    private ScanTargets(List<IpBlock> blocks, List<String> names, IntRanges ports) {
+        this.blocks.addAll(blocks);
+        this.names = names;
+        this.ports = ports;
+        this.blockPrefix = new long[blocks.size() + 1];
+        for (int i = 0; i < blocks.size(); i++) {
+            blockPrefix[i + 1] = blockPrefix[i] + blocks.get(i).size();
+        }
+        this.hostCount = blockPrefix[blocks.size()] + names.size();
+    }
+
+    /***
+     * 解析扫描目标
+     * host: 逗号分隔，每项为域名、IP、分段区间（172.22.0-255.1-254）或CIDR（10.0.0.0/16）
+     * port: 逗号分隔，每项为端口或区间（8000-8100）
+     * @param host
+     * @param port
+     * @return
+     */
+    public static ScanTargets parse(String host, String port) {
+        List<IpBlock> blocks = new ArrayList<>();
+        Set<String> names = new LinkedHashSet<>();
+        Set<String> specs = new LinkedHashSet<>();
+        for (String h : host.split(",")) {
+            h = h.trim();
+            if (h.isEmpty() || !specs.add(h)) {
+                continue;
+            }
+            if (Character.isDigit(h.charAt(0))) {
+                blocks.add(IpBlock.parse(h));
+            } else {
+                names.add(h);
+            }
+        }
+        return new ScanTargets(blocks, new ArrayList<>(names), IntRanges.parse(port, 0, 65535));
+    }
+
+    /***
+     * 预解析全部域名
+     */
+    public void prefetch() {
+        DnsResolver.INSTANCE.prefetch(names);
+    }
+
+    /***
+     * 目标总数
+     * @return
+     */
+    public long size() {
+        return hostCount * ports.size();
+    }
+
+    /***
+     * 第 index 个目标，按 host 优先排列
+     * @param index
+     * @return
+     */
+    public Target get(long index) {
+        long hostIndex = index / ports.size();
+        int port = ports.get(index % ports.size());
+        long ipCount = blockPrefix[blockPrefix.length - 1];
+        if (hostIndex >= ipCount) {
+            return new Target(names.get((int) (hostIndex - ipCount)), 0, port);
+        }
+        int i = 0;
+        while (blockPrefix[i + 1] <= hostIndex) {
+            i++;
+        }
+        return new Target(null, blocks.get(i).get(hostIndex - blockPrefix[i]), port);
+    }
+
+    @Override
+    public Iterator<Target> iterator() {
+        CyclicPermutation permutation = new CyclicPermutation(size());
+        return new Iterator<Target>() {
+            @Override
+            public boolean hasNext() {
+                return permutation.hasNext();
+            }
+
+            @Override
+            public Target next() {
+                return get(permutation.nextLong());
+            }
+        };
+    }
+
+    /**
+     * 单个扫描目标，IP以int保存，需要时才生成字符串
+     */
+    public static class Target {
+        private final String name;
+        private final int ip;
+        private final int port;
+
+        private Target(String name, int ip, int port) {
+            this.name = name;
+            this.ip = ip;
+            this.port = port;
+        }
+
+        public String getHost() {
+            if (name != null) {
+                return name;
+            }
+            return (ip >>> 24) + "." + ((ip >>> 16) & 0xff) + "." + ((ip >>> 8) & 0xff) + "." + (ip & 0xff);
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        /***
+         * 目标地址，IP直接由字节构造，域名经缓存解析，解析失败时返回未解析地址
+         * @return
+         */
+        public InetSocketAddress getAddress() {
+            try {
+                if (name != null) {
+                    return new InetSocketAddress(DnsResolver.INSTANCE.resolve(name), port);
+                }
+                byte[] addr = {(byte) (ip >>> 24), (byte) (ip >>> 16), (byte) (ip >>> 8), (byte) ip};
+                return new InetSocketAddress(InetAddress.getByAddress(addr), port);
+            } catch (UnknownHostException e) {
+                return InetSocketAddress.createUnresolved(getHost(), port);
+            }
+        }
+    }
+
+    /**
+     * IPv4地址块，每个字节为一个区间，CIDR同样可表示为该形式
+     */
+    private static class IpBlock {
+        private final int[] lo = new int[4];
+        private final int[] hi = new int[4];
+
+        static IpBlock parse(String str) {
+            IpBlock block = new IpBlock();
+            int slash = str.indexOf('/');
+            if (slash > 0 && str.indexOf('-') < 0 && str.substring(0, slash).split("\\.").length == 4) {
+                String[] octets = str.substring(0, slash).split("\\.");
+                int prefix = Integer.parseInt(str.substring(slash + 1).trim());
+                if (prefix < 0 || prefix > 32) {
+                    throw new IllegalArgumentException("invalid cidr : " + str);
+                }
+                int base = 0;
+                for (String octet : octets) {
+                    base = (base << 8) | checkOctet(Integer.parseInt(octet.trim()), str);
+                }
+                int mask = prefix == 0 ? 0 : -1 << (32 - prefix);
+                int start = base & mask;
+                int end = start | ~mask;
+                for (int i = 0; i < 4; i++) {
+                    int shift = 24 - i * 8;
+                    block.lo[i] = (start >>> shift) & 0xff;
+                    block.hi[i] = (end >>> shift) & 0xff;
+                }
+                return block;
+            }
+            String[] octets = str.split("\\.");
+            if (octets.length != 4) {
+                throw new IllegalArgumentException("invalid ip : " + str);
+            }
+            for (int i = 0; i < 4; i++) {
+                int[] range = IntRanges.parseRange(octets[i].trim());
+                block.lo[i] = checkOctet(range[0], str);
+                block.hi[i] = checkOctet(range[1], str);
+            }
+            return block;
+        }
+
+        private static int checkOctet(int value, String str) {
+            if (value < 0 || value > 255) {
+                throw new IllegalArgumentException("invalid ip : " + str);
+            }
+            return value;
+        }
+
+        long size() {
+            long size = 1;
+            for (int i = 0; i < 4; i++) {
+                size *= hi[i] - lo[i] + 1;
+            }
+            return size;
+        }
+
+        /***
+         * 按混合进制取第 index 个地址，末字节变化最快
+         */
+        int get(long index) {
+            int ip = 0;
+            for (int i = 3; i >= 0; i--) {
+                int width = hi[i] - lo[i] + 1;
+                ip |= (lo[i] + (int) (index % width)) << ((3 - i) * 8);
+                index /= width;
+            }
+            return ip;
+        }
+    }
+}
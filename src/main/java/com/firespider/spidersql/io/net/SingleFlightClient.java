@@ -0,0 +1,161 @@
+package com.firespider.spidersql.io.net;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 请求合并(single-flight)
+ * 同一时刻对同一URL（规范化后）且请求头、编码相同的多个GET只发起一次网络请求，
+ * 结果依次交给所有等待者的回调；请求结束后即移除，之后的请求重新发起，响应缓存由下层的 CachingClient 负责
+ */
+public class SingleFlightClient implements IHttpAsyncClient {
+    public static final SingleFlightClient INSTANCE = new SingleFlightClient(new CachingClient(HttpAsyncClient.INSTANCE, HttpCache.INSTANCE));
+
+    private final IHttpAsyncClient client;
+
+    //进行中的请求
+    private final Map<String, List<Waiter>> flights = new ConcurrentHashMap<>();
+
+    public SingleFlightClient(IHttpAsyncClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public void handleGet(String url, CompletionHandler<Response, String> handler) {
+        String key = normalize(url);
+        if (join(key, url, handler)) {
+            CompletionHandler<Response, String> flight = flight(key);
+            try {
+                client.handleGet(url, flight);
+            } catch (RuntimeException e) {
+                flight.failed(e, url);
+            }
+        }
+    }
+
+    @Override
+    public void handleGet(String url, RequestConfig config, CompletionHandler<Response, String> handler) {
+        String key = normalize(url) + " " + config.getCharset().name() + " " + config.getCachePolicy() + " " + headerKey(config.getHeader());
+        if (join(key, url, handler)) {
+            CompletionHandler<Response, String> flight = flight(key);
+            try {
+                client.handleGet(url, config, flight);
+            } catch (RuntimeException e) {
+                flight.failed(e, url);
+            }
+        }
+    }
+
+    @Override
+    public void handleScanPort(String host, String port, CompletionHandler<Boolean, String> handler) {
+        client.handleScanPort(host, port, handler);
+    }
+
+    @Override
+    public int getConcurrency() {
+        return client.getConcurrency();
+    }
+
+    /***
+     * 加入进行中的请求
+     * @param key
+     * @param url
+     * @param handler
+     * @return 没有进行中的请求时返回true，由调用方发起请求
+     */
+    private boolean join(String key, String url, CompletionHandler<Response, String> handler) {
+        boolean[] leader = new boolean[1];
+        flights.compute(key, (k, waiters) -> {
+            if (waiters == null) {
+                waiters = new ArrayList<>();
+                leader[0] = true;
+            }
+            waiters.add(new Waiter(url, handler));
+            return waiters;
+        });
+        return leader[0];
+    }
+
+    /***
+     * 请求结束后移除，此后加入的等待者会发起新的请求
+     * @param key
+     * @return
+     */
+    private CompletionHandler<Response, String> flight(String key) {
+        return new CompletionHandler<Response, String>() {
+            @Override
+            public void completed(Response result, String attachment) {
+                for (Waiter waiter : flights.remove(key)) {
+                    try {
+                        waiter.handler.completed(result, waiter.url);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, String attachment) {
+                for (Waiter waiter : flights.remove(key)) {
+                    try {
+                        waiter.handler.failed(exc, waiter.url);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        };
+    }
+
+    /***
+     * 规范化URL：协议与主机名小写，去掉默认端口与片段，空路径补为"/"
+     * @param url
+     * @return 无法解析时原样返回
+     */
+    static String normalize(String url) {
+        try {
+            URL u = new URL(url);
+            String protocol = u.getProtocol().toLowerCase(Locale.ROOT);
+            StringBuilder res = new StringBuilder(url.length());
+            res.append(protocol).append("://").append(u.getHost().toLowerCase(Locale.ROOT));
+            if (u.getPort() != -1 && u.getPort() != u.getDefaultPort()) {
+                res.append(':').append(u.getPort());
+            }
+            res.append(u.getFile().isEmpty() ? "/" : u.getFile());
+            return res.toString();
+        } catch (MalformedURLException e) {
+            return url;
+        }
+    }
+
+    /***
+     * 请求头的规范形式，名称不区分大小写并排序
+     * @param header
+     * @return
+     */
+    private static String headerKey(Map<String, String> header) {
+        if (header == null || header.isEmpty()) {
+            return "";
+        }
+        Map<String, String> sorted = new TreeMap<>();
+        header.forEach((name, value) -> sorted.put(name.toLowerCase(Locale.ROOT), value));
+        return sorted.toString();
+    }
+
+    private static class Waiter {
+        private final String url;
+        private final CompletionHandler<Response, String> handler;
+
+        Waiter(String url, CompletionHandler<Response, String> handler) {
+            this.url = url;
+            this.handler = handler;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.firespider.spidersql.io.net;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 编译后的URL模板
+ * 模板中的 (...) 为取值组，逗号分隔，每项为数字区间（100-200）或原样的文本，如 http://a.com/list_(1-100,last).html
+ * 只保存文本片段与区间端点，不展开为字符串集合；按序号随机访问，最后一个组变化最快
+ * 可按序号区间切分，用于并行或从中断处继续执行
+ */
+public class UrlTemplate implements Iterable<String> {
+    //文本片段，比取值组多一个，依次与取值组交替拼接
+    private final String[] literals;
+
+    private final Group[] groups;
+
+    private final long size;
+
+    private UrlTemplate(List<String> literals, List<Group> groups) {
+        this.literals = literals.toArray(new String[0]);
+        this.groups = groups.toArray(new Group[0]);
+        long size = 1;
+        for (Group group : this.groups) {
+            try {
+                size = Math.multiplyExact(size, group.width());
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("url template too large");
+            }
+        }
+        this.size = size;
+    }
+
+    /***
+     * 编译URL模板，未闭合的括号按原样保留
+     * @param url
+     * @return
+     */
+    public static UrlTemplate compile(String url) {
+        List<String> literals = new ArrayList<>();
+        List<Group> groups = new ArrayList<>();
+        int pos = 0;
+        StringBuilder literal = new StringBuilder();
+        while (pos < url.length()) {
+            int open = url.indexOf('(', pos);
+            int close = open < 0 ? -1 : url.indexOf(')', open + 1);
+            if (close < 0) {
+                break;
+            }
+            literal.append(url, pos, open);
+            literals.add(literal.toString());
+            literal.setLength(0);
+            groups.add(Group.parse(url.substring(open + 1, close)));
+            pos = close + 1;
+        }
+        literal.append(url, pos, url.length());
+        literals.add(literal.toString());
+        return new UrlTemplate(literals, groups);
+    }
+
+    /***
+     * URL总数
+     * @return
+     */
+    public long size() {
+        return size;
+    }
+
+    /***
+     * 第 index 个URL
+     * @param index
+     * @return
+     */
+    public String get(long index) {
+        StringBuilder sb = new StringBuilder();
+        append(sb, index);
+        return sb.toString();
+    }
+
+    /***
+     * 将第 index 个URL写入sb
+     * @param sb
+     * @param index
+     */
+    public void append(StringBuilder sb, long index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        //由低位到高位求各组的取值序号，再按顺序拼接
+        long[] offsets = new long[groups.length];
+        for (int i = groups.length - 1; i >= 0; i--) {
+            long width = groups[i].width();
+            offsets[i] = index % width;
+            index /= width;
+        }
+        for (int i = 0; i < groups.length; i++) {
+            sb.append(literals[i]);
+            groups[i].append(sb, offsets[i]);
+        }
+        sb.append(literals[groups.length]);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return iterator(0, size);
+    }
+
+    /***
+     * 按序号区间 [from, to) 迭代，各组的取值序号逐个进位，不重复做除法
+     * @param from
+     * @param to
+     * @return
+     */
+    public Iterator<String> iterator(long from, long to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("[" + from + ", " + to + ")");
+        }
+        return new Iterator<String>() {
+            private final StringBuilder sb = new StringBuilder();
+
+            private final long[] offsets = new long[groups.length];
+
+            private long index = from;
+
+            {
+                long rest = from;
+                for (int i = groups.length - 1; i >= 0; i--) {
+                    offsets[i] = rest % groups[i].width();
+                    rest /= groups[i].width();
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return index < to;
+            }
+
+            @Override
+            public String next() {
+                if (index >= to) {
+                    throw new NoSuchElementException();
+                }
+                sb.setLength(0);
+                for (int i = 0; i < groups.length; i++) {
+                    sb.append(literals[i]);
+                    groups[i].append(sb, offsets[i]);
+                }
+                sb.append(literals[groups.length]);
+                index++;
+                for (int i = groups.length - 1; i >= 0 && ++offsets[i] == groups[i].width(); i--) {
+                    offsets[i] = 0;
+                }
+                return sb.toString();
+            }
+        };
+    }
+
+    /**
+     * 取值组，由文本与数字区间组成，保持书写顺序
+     * 没有有效取值的组按空字符串处理
+     */
+    private static class Group {
+        //每项为文本或区间，区间时text为null
+        private final String[] texts;
+
+        private final long[] starts;
+
+        //各项的前缀长度，最后一项为取值总数
+        private final long[] prefix;
+
+        private Group(List<String> texts, List<long[]> ranges) {
+            this.texts = texts.toArray(new String[0]);
+            this.starts = new long[ranges.size()];
+            this.prefix = new long[ranges.size() + 1];
+            try {
+                for (int i = 0; i < ranges.size(); i++) {
+                    starts[i] = ranges.get(i)[0];
+                    prefix[i + 1] = Math.addExact(prefix[i], Math.addExact(Math.subtractExact(ranges.get(i)[1], ranges.get(i)[0]), 1));
+                }
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("url template too large");
+            }
+        }
+
+        private static Group parse(String spec) {
+            List<String> texts = new ArrayList<>();
+            List<long[]> ranges = new ArrayList<>();
+            for (String item : spec.split(",")) {
+                int dash = item.indexOf('-', 1);
+                if (dash < 0) {
+                    texts.add(item);
+                    ranges.add(new long[]{0, 0});
+                    continue;
+                }
+                long st, et;
+                try {
+                    st = Long.parseLong(item.substring(0, dash));
+                    et = Long.parseLong(item.substring(dash + 1));
+                } catch (NumberFormatException e) {
+                    System.err.println("url regex parttern error : " + item);
+                    continue;
+                }
+                if (et < st) {
+                    long m = et;
+                    et = st;
+                    st = m;
+                }
+                texts.add(null);
+                ranges.add(new long[]{st, et});
+            }
+            return new Group(texts, ranges);
+        }
+
+        private long size() {
+            return prefix[prefix.length - 1];
+        }
+
+        /***
+         * 参与组合的宽度，没有取值时为1（空字符串）
+         * @return
+         */
+        private long width() {
+            return Math.max(size(), 1);
+        }
+
+        private void append(StringBuilder sb, long offset) {
+            if (texts.length == 0) {
+                return;
+            }
+            int lo = 0, hi = texts.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (prefix[mid] <= offset) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            if (texts[lo] != null) {
+                sb.append(texts[lo]);
+            } else {
+                sb.append(starts[lo] + offset - prefix[lo]);
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.firespider.spidersql.utils;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.CompletionHandler;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 域名解析缓存
+ * 解析在独立线程池中进行，不阻塞网络线程；成功结果按TTL缓存，失败结果短时间缓存（负缓存），
+ * 同一域名同时只发起一次解析，其余请求等待该次结果
+ */
+public class DnsResolver {
+    private static final int THREAD_NUM = 8;
+
+    private static final long TTL = 60 * 1000L;
+
+    private static final long NEGATIVE_TTL = 10 * 1000L;
+
+    private static final int MAX_ENTRIES = 4096;
+
+    public static final DnsResolver INSTANCE = new DnsResolver(THREAD_NUM, TTL, NEGATIVE_TTL, MAX_ENTRIES);
+
+    private final long ttl;
+
+    private final long negativeTtl;
+
+    private final int maxEntries;
+
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    private final Map<String, CompletableFuture<InetAddress>> inFlight = new ConcurrentHashMap<>();
+
+    private final ExecutorService service;
+
+    /**
+     * @param threadNum   解析线程数
+     * @param ttl         成功结果缓存时间（毫秒）
+     * @param negativeTtl 失败结果缓存时间（毫秒）
+     * @param maxEntries  最大缓存条目数
+     */
+    public DnsResolver(int threadNum, long ttl, long negativeTtl, int maxEntries) {
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        this.maxEntries = maxEntries;
+        AtomicInteger index = new AtomicInteger();
+        this.service = Executors.newFixedThreadPool(threadNum, r -> {
+            Thread t = new Thread(r, "dns-resolver-" + index.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /***
+     * 异步解析，命中缓存时在调用线程直接回调
+     * @param host
+     * @param handler
+     */
+    public void resolve(String host, CompletionHandler<InetAddress, String> handler) {
+        lookup(host).whenComplete((address, exc) -> {
+            if (exc == null) {
+                handler.completed(address, host);
+            } else {
+                handler.failed(unwrap(exc, host), host);
+            }
+        });
+    }
+
+    /***
+     * 同步解析，命中缓存时不阻塞
+     * @param host
+     * @return
+     * @throws UnknownHostException
+     */
+    public InetAddress resolve(String host) throws UnknownHostException {
+        try {
+            return lookup(host).get();
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause(), host);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnknownHostException(host);
+        }
+    }
+
+    /***
+     * 预解析一批域名，不等待结果
+     * @param hosts
+     */
+    public void prefetch(Collection<String> hosts) {
+        for (String host : hosts) {
+            lookup(host);
+        }
+    }
+
+    private CompletableFuture<InetAddress> lookup(String host) {
+        if (isLiteral(host)) {
+            CompletableFuture<InetAddress> res = new CompletableFuture<>();
+            try {
+                res.complete(InetAddress.getByName(host));
+            } catch (UnknownHostException e) {
+                res.completeExceptionally(e);
+            }
+            return res;
+        }
+        String key = host.toLowerCase();
+        Entry entry = cache.get(key);
+        if (entry != null && entry.expires > System.currentTimeMillis()) {
+            CompletableFuture<InetAddress> res = new CompletableFuture<>();
+            if (entry.address != null) {
+                res.complete(entry.address);
+            } else {
+                res.completeExceptionally(entry.error);
+            }
+            return res;
+        }
+        CompletableFuture<InetAddress> future = new CompletableFuture<>();
+        CompletableFuture<InetAddress> exist = inFlight.putIfAbsent(key, future);
+        if (exist != null) {
+            return exist;
+        }
+        service.execute(() -> {
+            try {
+                InetAddress address = InetAddress.getByName(host);
+                put(key, new Entry(address, null, System.currentTimeMillis() + ttl));
+                inFlight.remove(key);
+                future.complete(address);
+            } catch (UnknownHostException e) {
+                put(key, new Entry(null, e, System.currentTimeMillis() + negativeTtl));
+                inFlight.remove(key);
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /***
+     * 写入缓存，超出上限时先清理过期条目，仍不足则任意淘汰
+     */
+    private void put(String key, Entry entry) {
+        if (cache.size() >= maxEntries) {
+            long now = System.currentTimeMillis();
+            cache.values().removeIf(e -> e.expires <= now);
+            Iterator<String> iterator = cache.keySet().iterator();
+            while (cache.size() >= maxEntries && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        cache.put(key, entry);
+    }
+
+    /***
+     * IPv4/IPv6字面量无需解析
+     */
+    private static boolean isLiteral(String host) {
+        if (host.indexOf(':') >= 0) {
+            return true;
+        }
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c != '.' && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return !host.isEmpty();
+    }
+
+    private static UnknownHostException unwrap(Throwable exc, String host) {
+        if (exc instanceof CompletionException && exc.getCause() != null) {
+            exc = exc.getCause();
+        }
+        if (exc instanceof UnknownHostException) {
+            return (UnknownHostException) exc;
+        }
+        UnknownHostException res = new UnknownHostException(host);
+        res.initCause(exc);
+        return res;
+    }
+
+    private static class Entry {
+        private final InetAddress address;
+        private final UnknownHostException error;
+        private final long expires;
+
+        Entry(InetAddress address, UnknownHostException error, long expires) {
+            this.address = address;
+            this.error = error;
+            this.expires = expires;
+        }
+    }
+}
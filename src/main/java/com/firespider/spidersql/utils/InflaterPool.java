@@ -0,0 +1,61 @@
+package com.firespider.spidersql.utils;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+
+/**
+ * Inflater对象池
+ * Inflater持有本地内存，频繁创建与回收代价较高，按是否带zlib头分别缓存
+ */
+public class InflaterPool {
+    private static final int MAX_SIZE = 64;
+
+    public static final InflaterPool INSTANCE = new InflaterPool(MAX_SIZE);
+
+    private final int maxSize;
+
+    private final Queue<Inflater> wrapQueue = new ConcurrentLinkedQueue<>();
+
+    private final Queue<Inflater> nowrapQueue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger wrapSize = new AtomicInteger(), nowrapSize = new AtomicInteger();
+
+    public InflaterPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /***
+     * 借出Inflater
+     * @param nowrap true: 原始deflate数据（gzip正文）, false: 带zlib头的数据
+     * @return
+     */
+    public Inflater borrow(boolean nowrap) {
+        Inflater inflater = (nowrap ? nowrapQueue : wrapQueue).poll();
+        if (inflater == null) {
+            return new Inflater(nowrap);
+        }
+        (nowrap ? nowrapSize : wrapSize).decrementAndGet();
+        return inflater;
+    }
+
+    /***
+     * 归还Inflater，超出容量则直接释放
+     * @param inflater
+     * @param nowrap
+     */
+    public void release(Inflater inflater, boolean nowrap) {
+        if (inflater == null) {
+            return;
+        }
+        inflater.reset();
+        AtomicInteger size = nowrap ? nowrapSize : wrapSize;
+        if (size.incrementAndGet() <= maxSize) {
+            (nowrap ? nowrapQueue : wrapQueue).offer(inflater);
+        } else {
+            size.decrementAndGet();
+            inflater.end();
+        }
+    }
+}
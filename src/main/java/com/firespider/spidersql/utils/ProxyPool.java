@@ -0,0 +1,399 @@
+package com.firespider.spidersql.utils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.channels.CompletionHandler;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 代理池
+ * 按延迟与失败率为每个代理打分，随机取两个可用代理选分数较低者（power of two choices）；
+ * 每个代理有进行中请求数的上限，全部达到上限时请求排队，代理归还后依次分配
+ * 连续失败或失败率过高的代理暂停使用一段时间，恢复后再次失败则暂停时间加倍，
+ * 多次暂停后停用：每次停用最长暂停时间，到期后试用，停用期间不会被提前恢复
+ * 未配置代理时不使用代理；配置了代理而全部停用时申请失败，不会改为直接连接
+ */
+public class ProxyPool {
+    private static final int MAX_IN_FLIGHT = 32;
+
+    //延迟与失败率的指数移动平均系数
+    private static final double ALPHA = 0.2;
+
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+    //失败率超过阈值且样本数足够时暂停使用
+    private static final double MAX_FAILURE_RATE = 0.5;
+
+    private static final int MIN_SAMPLES = 10;
+
+    private static final long BAN_TIME = 10 * 1000L;
+
+    private static final long MAX_BAN_TIME = 5 * 60 * 1000L;
+
+    //暂停次数达到上限后停用
+    private static final int MAX_BANS = 5;
+
+    /**
+     * 代理列表由系统属性 spidersql.proxies 指定，逗号分隔，如 http://127.0.0.1:3128,socks://127.0.0.1:1080
+     * 单个代理的进行中请求数上限由 spidersql.proxy.concurrency 指定
+     */
+    public static final ProxyPool INSTANCE = new ProxyPool(parse(System.getProperty("spidersql.proxies")),
+            Integer.getInteger("spidersql.proxy.concurrency", MAX_IN_FLIGHT));
+
+    private final int maxInFlight;
+
+    private final List<Node> nodes = new ArrayList<>();
+
+    private final Deque<CompletionHandler<Node, Void>> waiters = new ArrayDeque<>();
+
+    /**
+     * @param proxies     代理列表
+     * @param maxInFlight 单个代理的进行中请求数上限
+     */
+    public ProxyPool(List<Node> proxies, int maxInFlight) {
+        this.maxInFlight = Math.max(maxInFlight, 1);
+        this.nodes.addAll(proxies);
+    }
+
+    /***
+     * 解析代理列表
+     * @param spec 逗号分隔的 http://host:port 或 socks://host:port，可为null
+     * @return
+     */
+    public static List<Node> parse(String spec) {
+        List<Node> res = new ArrayList<>();
+        if (spec == null) {
+            return res;
+        }
+        for (String item : spec.split(",")) {
+            item = item.trim();
+            if (!item.isEmpty()) {
+                res.add(Node.parse(item));
+            }
+        }
+        return res;
+    }
+
+    /***
+     * 是否未配置代理，代理停用后仍视为已配置
+     * @return
+     */
+    public synchronized boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    /***
+     * 申请代理，全部达到上限时排队等待
+     * 可用代理在调用线程直接回调，排队的请求在归还代理的线程中回调
+     * @param handler
+     */
+    public void acquire(CompletionHandler<Node, Void> handler) {
+        Node node;
+        synchronized (this) {
+            if (!hasAvailable()) {
+                node = null;
+            } else {
+                node = select();
+                if (node == null) {
+                    waiters.offer(handler);
+                    return;
+                }
+            }
+        }
+        if (node == null) {
+            handler.failed(new IOException("no proxy available"), null);
+        } else {
+            handler.completed(node, null);
+        }
+    }
+
+    /***
+     * 同步申请代理
+     * @param timeout 最长等待时间（毫秒）
+     * @return
+     * @throws IOException 没有可用的代理或等待超时
+     */
+    public Node acquire(long timeout) throws IOException {
+        CompletableFuture<Node> future = new CompletableFuture<>();
+        CompletionHandler<Node, Void> handler = new CompletionHandler<Node, Void>() {
+            @Override
+            public void completed(Node result, Void attachment) {
+                if (!future.complete(result)) {
+                    release(result);
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                future.completeExceptionally(exc);
+            }
+        };
+        acquire(handler);
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            cancel(handler);
+            //取消与分配同时发生时，已分配的代理由回调归还
+            future.cancel(false);
+            throw new SocketTimeoutException("no proxy available within " + timeout + "ms");
+        } catch (InterruptedException e) {
+            cancel(handler);
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    /***
+     * 取消排队中的申请
+     * @param handler
+     * @return 仍在排队时返回true，之后不会再回调
+     */
+    public synchronized boolean cancel(CompletionHandler<Node, Void> handler) {
+        return waiters.remove(handler);
+    }
+
+    /***
+     * 复用经由该代理建立的连接，计入进行中请求数，不受上限限制
+     * @param node
+     */
+    public synchronized void reacquire(Node node) {
+        node.inFlight++;
+    }
+
+    /***
+     * 归还代理，交给排队中的请求
+     * @param node
+     */
+    public void release(Node node) {
+        List<CompletionHandler<Node, Void>> granted = new ArrayList<>();
+        List<Node> grantedNodes = new ArrayList<>();
+        synchronized (this) {
+            node.inFlight--;
+            Node next;
+            while (!waiters.isEmpty() && (next = select()) != null) {
+                granted.add(waiters.poll());
+                grantedNodes.add(next);
+            }
+        }
+        for (int i = 0; i < granted.size(); i++) {
+            granted.get(i).completed(grantedNodes.get(i), null);
+        }
+    }
+
+    /***
+     * 记录一次成功
+     * @param node
+     * @param latency 毫秒
+     */
+    public synchronized void succeeded(Node node, long latency) {
+        node.latency = node.latency < 0 ? latency : node.latency + ALPHA * (latency - node.latency);
+        node.failureRate *= 1 - ALPHA;
+        node.samples++;
+        node.consecutiveFailures = 0;
+        node.probation = false;
+    }
+
+    /***
+     * 记录一次失败，连续失败或失败率过高时暂停使用，暂停次数过多时停用
+     * @param node
+     */
+    public void failed(Node node) {
+        List<CompletionHandler<Node, Void>> orphans = null;
+        synchronized (this) {
+            node.failureRate += ALPHA * (1 - node.failureRate);
+            node.samples++;
+            node.consecutiveFailures++;
+            //暂停前已发出的请求陆续失败，不再延长暂停
+            boolean banned = node.bannedUntil > System.currentTimeMillis();
+            if (!banned && (node.probation || node.consecutiveFailures >= MAX_CONSECUTIVE_FAILURES
+                    || (node.samples >= MIN_SAMPLES && node.failureRate > MAX_FAILURE_RATE))) {
+                ban(node);
+                if (!hasAvailable()) {
+                    orphans = new ArrayList<>(waiters);
+                    waiters.clear();
+                }
+            }
+        }
+        if (orphans != null) {
+            for (CompletionHandler<Node, Void> waiter : orphans) {
+                waiter.failed(new IOException("no proxy available"), null);
+            }
+        }
+    }
+
+    private void ban(Node node) {
+        node.bans++;
+        node.dropped = node.bans >= MAX_BANS;
+        node.bannedUntil = System.currentTimeMillis() + (node.dropped ? MAX_BAN_TIME : Math.min(BAN_TIME << (node.bans - 1), MAX_BAN_TIME));
+        node.consecutiveFailures = 0;
+        node.probation = true;
+    }
+
+    /***
+     * 是否有未停用或停用已到期的代理
+     * @return
+     */
+    private boolean hasAvailable() {
+        long now = System.currentTimeMillis();
+        for (Node node : nodes) {
+            if (!node.dropped || node.bannedUntil <= now) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /***
+     * 选择代理：在未暂停且未达到上限的代理中随机取两个，选分数较低者
+     * 全部暂停时提前恢复最早到期的一个（不含停用的代理），避免请求停滞
+     * @return 全部达到上限或停用时返回null
+     */
+    private Node select() {
+        long now = System.currentTimeMillis();
+        List<Node> candidates = new ArrayList<>(nodes.size());
+        Node earliest = null;
+        boolean allBanned = true;
+        for (Node node : nodes) {
+            if (node.bannedUntil > now) {
+                if (!node.dropped && node.inFlight < maxInFlight && (earliest == null || node.bannedUntil < earliest.bannedUntil)) {
+                    earliest = node;
+                }
+                continue;
+            }
+            allBanned = false;
+            if (node.inFlight < maxInFlight) {
+                candidates.add(node);
+            }
+        }
+        Node res;
+        if (candidates.isEmpty()) {
+            res = allBanned ? earliest : null;
+        } else if (candidates.size() == 1) {
+            res = candidates.get(0);
+        } else {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int i = random.nextInt(candidates.size());
+            int j = random.nextInt(candidates.size() - 1);
+            Node a = candidates.get(i);
+            Node b = candidates.get(j >= i ? j + 1 : j);
+            res = a.score() <= b.score() ? a : b;
+        }
+        if (res != null) {
+            res.bannedUntil = 0;
+            res.inFlight++;
+        }
+        return res;
+    }
+
+    /***
+     * 配置的全部代理，含暂停与停用的代理
+     * @return
+     */
+    public synchronized List<Node> getNodes() {
+        return new ArrayList<>(nodes);
+    }
+
+    /**
+     * 代理节点
+     */
+    public static class Node {
+        private final Proxy.Type type;
+
+        private final InetSocketAddress address;
+
+        //延迟的移动平均（毫秒），无样本时为-1
+        private double latency = -1;
+
+        private double failureRate;
+
+        private int samples;
+
+        private int consecutiveFailures;
+
+        private int inFlight;
+
+        private long bannedUntil;
+
+        private int bans;
+
+        //暂停次数达到上限，暂停期间不会被提前恢复
+        private boolean dropped;
+
+        //暂停恢复后尚未成功，再次失败立即暂停
+        private boolean probation;
+
+        public Node(Proxy.Type type, InetSocketAddress address) {
+            this.type = type;
+            this.address = address;
+        }
+
+        /***
+         * @param spec http://host:port 或 socks://host:port（socks5:// 同义）
+         * @return
+         */
+        public static Node parse(String spec) {
+            URI uri = URI.create(spec);
+            String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase();
+            if (uri.getHost() == null || uri.getPort() < 0) {
+                throw new IllegalArgumentException("invalid proxy: " + spec);
+            }
+            Proxy.Type type;
+            switch (scheme) {
+                case "http":
+                    type = Proxy.Type.HTTP;
+                    break;
+                case "socks":
+                case "socks5":
+                    type = Proxy.Type.SOCKS;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unsupported proxy: " + spec);
+            }
+            return new Node(type, InetSocketAddress.createUnresolved(uri.getHost(), uri.getPort()));
+        }
+
+        /***
+         * 分数越低越优先：延迟乘以进行中请求数，再按失败率放大；尚无样本的代理优先尝试
+         * @return
+         */
+        private double score() {
+            return (Math.max(latency, 0) + 1) * (inFlight + 1) / (1 - Math.min(failureRate, 0.9));
+        }
+
+        public Proxy.Type getType() {
+            return type;
+        }
+
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+
+        /***
+         * 失败率的移动平均，从未失败时为0
+         * @return
+         */
+        public double getFailureRate() {
+            return failureRate;
+        }
+
+        public Proxy toProxy() {
+            return new Proxy(type, address);
+        }
+
+        @Override
+        public String toString() {
+            return (type == Proxy.Type.HTTP ? "http://" : "socks://") + address.getHostString() + ":" + address.getPort();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.firespider.spidersql.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 虚拟线程
+ * 以多版本JAR发布：此为Java 8版本，不支持虚拟线程；
+ * Java 21及以上运行时加载 META-INF/versions/21 中的同名类（源码位于 src/main/java21）
+ */
+public final class VirtualThreads {
+    //不支持虚拟线程时平台线程池的线程数上限
+    private static final int FALLBACK_THREADS = 200;
+
+    //空闲线程的存活时间（秒）
+    private static final int KEEP_ALIVE = 60;
+
+    private VirtualThreads() {
+    }
+
+    /***
+     * 当前运行时是否支持虚拟线程
+     * @return
+     */
+    public static boolean isSupported() {
+        return false;
+    }
+
+    /***
+     * 每个任务一个虚拟线程的线程池
+     * 此版本不支持虚拟线程，返回线程数有上限的平台线程池，超出的任务排队，空闲线程到期回收
+     * @param prefix 线程名前缀
+     * @return
+     */
+    public static ExecutorService newExecutor(String prefix) {
+        AtomicInteger index = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(FALLBACK_THREADS, FALLBACK_THREADS, KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, prefix + index.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
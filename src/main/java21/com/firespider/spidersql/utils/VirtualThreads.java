@@ -0,0 +1,30 @@
+package com.firespider.spidersql.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 虚拟线程
+ * 多版本JAR中的Java 21版本，公开接口与 src/main/java 中的同名类保持一致
+ */
+public final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    /***
+     * 当前运行时是否支持虚拟线程
+     * @return
+     */
+    public static boolean isSupported() {
+        return true;
+    }
+
+    /***
+     * 每个任务一个虚拟线程的线程池
+     * @param prefix 线程名前缀
+     * @return
+     */
+    public static ExecutorService newExecutor(String prefix) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 0).factory());
+    }
+}
@@ -0,0 +1,255 @@
+package com.firespider.spidersql.aio.net.http;
+
+import com.firespider.spidersql.utils.ProxyPool;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 代理隧道的回环检查
+ * 在本机临时端口启动HTTP服务与最简的CONNECT代理，aio客户端经代理池访问：
+ * 检查请求经CONNECT隧道到达服务端，以及对冲请求胜出后被取消的会话不计入代理的失败
+ * 运行：mvn test-compile 后
+ * java -cp target/classes:target/test-classes:<依赖> com.firespider.spidersql.aio.net.http.ProxyCheck
+ * 有检查未通过时以状态码1退出
+ */
+public class ProxyCheck {
+    private static final int TIMEOUT = 5000;
+
+    //为对冲积累延迟样本的请求数，不少于延迟统计的最少样本数
+    private static final int WARM_UP = 30;
+
+    //对冲检查中首次请求在服务端的停留时间（毫秒）
+    private static final int SLOW = 1500;
+
+    private static final String PAGE = "hello";
+
+    public static void main(String[] args) throws Exception {
+        HttpServer server = start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        ConnectProxy proxy = new ConnectProxy();
+        proxy.start();
+        ProxyPool.Node node = new ProxyPool.Node(Proxy.Type.HTTP, new InetSocketAddress("127.0.0.1", proxy.getPort()));
+        HttpAsyncClient client = new HttpAsyncClient();
+        client.setProxyPool(new ProxyPool(Collections.singletonList(node), 32));
+        client.setHedging(true);
+        int pass = 0, total = 0;
+
+        int ok = 0;
+        for (int i = 0; i < WARM_UP; i++) {
+            Object res = get(client, base + "/page?" + i);
+            if (res instanceof Response && PAGE.equals(((Response) res).getBody())) {
+                ok++;
+            }
+        }
+        total++;
+        pass += check("requests through tunnel " + ok + "/" + WARM_UP, ok == WARM_UP);
+        total++;
+        pass += check("CONNECT tunnels " + proxy.tunnels.get(), proxy.tunnels.get() > 0 && proxy.rejected.get() == 0);
+
+        long start = System.currentTimeMillis();
+        Object res = get(client, base + "/slow");
+        long elapsed = System.currentTimeMillis() - start;
+        total++;
+        pass += check("hedged request " + elapsed + "ms", res instanceof Response && PAGE.equals(((Response) res).getBody()) && elapsed < SLOW);
+        total++;
+        pass += check("hedge sent " + hits("/slow"), hits("/slow") == 2);
+        //等待被取消的会话关闭通道、归还代理
+        Thread.sleep(SLOW);
+        total++;
+        pass += check("cancelled session not counted as proxy failure, failure rate " + node.getFailureRate(), node.getFailureRate() == 0);
+
+        System.out.println("proxy " + pass + "/" + total);
+        client.close();
+        proxy.close();
+        server.stop(0);
+        System.exit(pass == total ? 0 : 1);
+    }
+
+    private static int check(String name, boolean ok) {
+        System.out.println((ok ? "OK   " : "FAIL ") + name);
+        return ok ? 1 : 0;
+    }
+
+    private static Object get(HttpAsyncClient client, String url) throws Exception {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        Request request = new Request(url);
+        request.setTimeout(TIMEOUT);
+        client.handleGet(request, new CompletionHandler<Response, Response>() {
+            @Override
+            public void completed(Response result, Response attachment) {
+                result.getBody();
+                future.complete(result);
+            }
+
+            @Override
+            public void failed(Throwable exc, Response attachment) {
+                future.complete(exc);
+            }
+        });
+        return future.get(TIMEOUT * 2, TimeUnit.MILLISECONDS);
+    }
+
+    private static final Map<String, AtomicInteger> HITS = new ConcurrentHashMap<>();
+
+    private static int hits(String path) {
+        AtomicInteger count = HITS.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    /***
+     * /page 立即返回；/slow 第一次请求停留 SLOW 毫秒，之后的请求立即返回
+     */
+    private static HttpServer start() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 128);
+        server.createContext("/page", exchange -> send(exchange));
+        server.createContext("/slow", exchange -> {
+            if (HITS.computeIfAbsent("/slow", k -> new AtomicInteger()).incrementAndGet() == 1) {
+                try {
+                    Thread.sleep(SLOW);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            send(exchange);
+        });
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "proxy-check-server");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.start();
+        return server;
+    }
+
+    private static void send(HttpExchange exchange) throws IOException {
+        byte[] body = PAGE.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        try {
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (IOException ignored) {
+            //对冲失败的一方已被客户端取消
+        }
+    }
+
+    /**
+     * 最简的HTTP CONNECT代理，只接受CONNECT请求，隧道建立后双向转发
+     */
+    private static class ConnectProxy implements Runnable {
+        private final ServerSocket socket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+
+        private final AtomicInteger tunnels = new AtomicInteger(), rejected = new AtomicInteger();
+
+        ConnectProxy() throws IOException {
+        }
+
+        int getPort() {
+            return socket.getLocalPort();
+        }
+
+        void start() {
+            daemon(this, "proxy-accept");
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Socket client = socket.accept();
+                    daemon(() -> tunnel(client), "proxy-tunnel");
+                }
+            } catch (IOException ignored) {
+                //代理已关闭
+            }
+        }
+
+        private void tunnel(Socket client) {
+            try {
+                String head = readHead(client.getInputStream());
+                String[] parts = head.split(" ");
+                if (parts.length < 2 || !"CONNECT".equals(parts[0])) {
+                    rejected.incrementAndGet();
+                    client.getOutputStream().write("HTTP/1.1 405 Method Not Allowed\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                    client.close();
+                    return;
+                }
+                int colon = parts[1].lastIndexOf(':');
+                Socket target = new Socket(parts[1].substring(0, colon), Integer.parseInt(parts[1].substring(colon + 1)));
+                tunnels.incrementAndGet();
+                client.getOutputStream().write("HTTP/1.1 200 Connection Established\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                daemon(() -> pipe(target, client), "proxy-pipe");
+                pipe(client, target);
+            } catch (IOException | RuntimeException e) {
+                close(client);
+            }
+        }
+
+        /***
+         * 逐字节读取请求头部，不越过头部的结尾
+         */
+        private static String readHead(InputStream in) throws IOException {
+            StringBuilder head = new StringBuilder();
+            int c;
+            while ((c = in.read()) >= 0) {
+                head.append((char) c);
+                if (head.length() >= 4 && head.lastIndexOf("\r\n\r\n") == head.length() - 4) {
+                    break;
+                }
+            }
+            return head.toString();
+        }
+
+        private static void pipe(Socket from, Socket to) {
+            byte[] buf = new byte[8192];
+            try {
+                InputStream in = from.getInputStream();
+                OutputStream out = to.getOutputStream();
+                int n;
+                while ((n = in.read(buf)) >= 0) {
+                    out.write(buf, 0, n);
+                }
+            } catch (IOException ignored) {
+            } finally {
+                close(from);
+                close(to);
+            }
+        }
+
+        private static void close(Socket socket) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private static void daemon(Runnable task, String name) {
+            Thread t = new Thread(task, name);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.firespider.spidersql.aio.net.http2;
+
+import com.firespider.spidersql.aio.net.http.HttpAsyncClient;
+import com.firespider.spidersql.aio.net.http.Request;
+import com.firespider.spidersql.aio.net.http.Response;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * h2c客户端的回环检查
+ * 在本机临时端口启动最简的HTTP/2服务：校验连接前言与SETTINGS交换，每个请求以HEADERS加大正文应答，记录收到的WINDOW_UPDATE
+ * 客户端以h2c并发发出请求，检查所有流完成、多个流同时进行，以及接收窗口消费过半后发送了流级与连接级WINDOW_UPDATE
+ * 运行：mvn test-compile 后
+ * java -cp target/classes:target/test-classes:<依赖> com.firespider.spidersql.aio.net.http2.Http2Check
+ * 有检查未通过时以状态码1退出
+ */
+public class Http2Check {
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final int TIMEOUT = 10000;
+
+    //每个流的正文大小，超过客户端流窗口（1MB）的一半，连接总量超过连接窗口（16MB）的一半
+    private static final int BODY_SIZE = 600 * 1024;
+
+    private static final int STREAMS = 20;
+
+    //HPACK静态表中的 :status 200
+    private static final byte STATUS_200 = (byte) 0x88;
+
+    public static void main(String[] args) throws Exception {
+        Server server = new Server();
+        server.start();
+        HttpAsyncClient client = new HttpAsyncClient();
+        client.setHttp2(true);
+        CountDownLatch latch = new CountDownLatch(STREAMS);
+        AtomicInteger completed = new AtomicInteger();
+        for (int i = 0; i < STREAMS; i++) {
+            Request request = new Request("http://127.0.0.1:" + server.getPort() + "/" + i, null);
+            request.setTimeout(TIMEOUT);
+            client.handleGet(request, new CompletionHandler<Response, Response>() {
+                @Override
+                public void completed(Response result, Response attachment) {
+                    String body = result.getBody();
+                    if (body != null && body.length() == BODY_SIZE) {
+                        completed.incrementAndGet();
+                    } else {
+                        System.out.println("bad body: " + (body == null ? null : body.length()));
+                    }
+                    latch.countDown();
+                }
+
+                @Override
+                public void failed(Throwable exc, Response attachment) {
+                    System.out.println("failed: " + exc);
+                    latch.countDown();
+                }
+            });
+        }
+        boolean done = latch.await(TIMEOUT * 2, TimeUnit.MILLISECONDS);
+        int pass = 0, total = 0;
+        total++;
+        pass += check("preface", server.preface);
+        total++;
+        pass += check("client SETTINGS first", server.settingsFirst);
+        total++;
+        pass += check("server SETTINGS acked", server.settingsAcked);
+        total++;
+        pass += check("streams completed " + completed.get() + "/" + STREAMS, done && completed.get() == STREAMS);
+        total++;
+        pass += check("concurrent streams peak " + server.peak.get(), server.peak.get() > 1);
+        total++;
+        pass += check("stream WINDOW_UPDATE " + server.streamUpdates.size() + "/" + STREAMS, server.streamUpdates.size() == STREAMS);
+        total++;
+        pass += check("connection WINDOW_UPDATE after data " + server.connectionUpdates.get(), server.connectionUpdates.get() > 0);
+        System.out.println("http2 " + pass + "/" + total);
+        client.close();
+        server.close();
+        System.exit(pass == total ? 0 : 1);
+    }
+
+    private static int check(String name, boolean ok) {
+        System.out.println((ok ? "OK   " : "FAIL ") + name);
+        return ok ? 1 : 0;
+    }
+
+    /**
+     * 最简的h2c服务，只处理一个连接，请求头部不解码
+     */
+    private static class Server implements Runnable {
+        private final ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+        private volatile boolean preface, settingsFirst, settingsAcked;
+
+        //同时未结束的流数及其峰值
+        private final AtomicInteger active = new AtomicInteger(), peak = new AtomicInteger();
+
+        //收到WINDOW_UPDATE的流
+        private final ConcurrentHashMap.KeySetView<Integer, Boolean> streamUpdates = ConcurrentHashMap.newKeySet();
+
+        //开始发送正文后收到的连接级WINDOW_UPDATE数
+        private final AtomicInteger connectionUpdates = new AtomicInteger();
+
+        private volatile boolean sending;
+
+        private Socket connection;
+
+        Server() throws IOException {
+        }
+
+        int getPort() {
+            return socket.getLocalPort();
+        }
+
+        void start() {
+            Thread t = new Thread(this, "h2c-server");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                connection = socket.accept();
+                DataInputStream in = new DataInputStream(connection.getInputStream());
+                OutputStream out = connection.getOutputStream();
+                byte[] head = new byte[PREFACE.length];
+                in.readFully(head);
+                preface = Arrays.equals(head, PREFACE);
+                writeFrame(out, Http2Frame.SETTINGS, 0, 0, new byte[0]);
+                boolean first = true;
+                while (true) {
+                    byte[] header = new byte[Http2Frame.HEADER_LENGTH];
+                    in.readFully(header);
+                    ByteBuffer buf = ByteBuffer.wrap(header);
+                    int length = (buf.get() & 0xff) << 16 | (buf.get() & 0xff) << 8 | (buf.get() & 0xff);
+                    int type = buf.get() & 0xff;
+                    int flags = buf.get() & 0xff;
+                    int streamId = buf.getInt() & Integer.MAX_VALUE;
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    if (first) {
+                        settingsFirst = type == Http2Frame.SETTINGS && (flags & Http2Frame.FLAG_ACK) == 0;
+                        first = false;
+                    }
+                    switch (type) {
+                        case Http2Frame.SETTINGS:
+                            if ((flags & Http2Frame.FLAG_ACK) != 0) {
+                                settingsAcked = true;
+                            } else {
+                                writeFrame(out, Http2Frame.SETTINGS, Http2Frame.FLAG_ACK, 0, new byte[0]);
+                            }
+                            break;
+                        case Http2Frame.HEADERS:
+                            respond(out, streamId);
+                            break;
+                        case Http2Frame.WINDOW_UPDATE:
+                            if (streamId != 0) {
+                                streamUpdates.add(streamId);
+                            } else if (sending) {
+                                connectionUpdates.incrementAndGet();
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            } catch (IOException ignored) {
+                //客户端关闭连接
+            }
+        }
+
+        /***
+         * 在独立线程中应答，各流的DATA帧交错写出
+         */
+        private void respond(OutputStream out, int streamId) {
+            peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+            Thread t = new Thread(() -> {
+                try {
+                    writeFrame(out, Http2Frame.HEADERS, Http2Frame.FLAG_END_HEADERS, streamId, new byte[]{STATUS_200});
+                    sending = true;
+                    byte[] chunk = new byte[Http2Frame.DEFAULT_MAX_FRAME_SIZE];
+                    Arrays.fill(chunk, (byte) 'a');
+                    for (int sent = 0; sent < BODY_SIZE; ) {
+                        int length = Math.min(chunk.length, BODY_SIZE - sent);
+                        sent += length;
+                        writeFrame(out, Http2Frame.DATA, sent == BODY_SIZE ? Http2Frame.FLAG_END_STREAM : 0, streamId,
+                                length == chunk.length ? chunk : Arrays.copyOf(chunk, length));
+                        Thread.yield();
+                    }
+                } catch (IOException ignored) {
+                } finally {
+                    active.decrementAndGet();
+                }
+            }, "h2c-stream-" + streamId);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        private static void writeFrame(OutputStream out, int type, int flags, int streamId, byte[] payload) throws IOException {
+            ByteBuffer frame = ByteBuffer.allocate(Http2Frame.HEADER_LENGTH + payload.length);
+            Http2Frame.writeHeader(frame, payload.length, type, flags, streamId);
+            frame.put(payload);
+            synchronized (out) {
+                out.write(frame.array());
+                out.flush();
+            }
+        }
+
+        void close() throws IOException {
+            socket.close();
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.firespider.spidersql.io.net;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.firespider.spidersql.utils.VirtualThreads;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HTTP引擎的一致性与吞吐量检查
+ * 在本机启动内置HTTP服务，以io与aio引擎请求同样的地址，比较状态码、正文、最终URL与失败类型；
+ * 指定请求数时再以不同并发数比较两个引擎的吞吐量，并以更高的并发数比较io引擎的两种线程模式：
+ * pool 为固定数量的平台线程，virtual 为每个请求一个虚拟线程（需Java 21及以上运行时），同时报告吞吐量与线程数
+ * 运行：mvn test-compile 后
+ * java -cp target/classes:target/test-classes:<依赖> com.firespider.spidersql.io.net.EngineBench [请求数] [并发数,...] [线程模式并发数,...]
+ * 有不一致时以状态码1退出
+ */
+public class EngineBench {
+    private static final int TIMEOUT = 5000;
+
+    //吞吐量测试中每个请求在服务端的停留时间（毫秒），模拟网络延迟
+    private static final int DELAY = 20;
+
+    //吞吐量测试的服务数，请求分散到多个端口，避免受aio连接池单主机连接数上限的限制
+    private static final int BENCH_SERVERS = 10;
+
+    //线程模式比较中pool模式的平台线程数
+    private static final int POOL_THREADS = 200;
+
+    //服务端当前存活的线程数，线程数统计中扣除
+    private static final AtomicInteger SERVER_THREADS = new AtomicInteger();
+
+    private static final String PAGE = "<html><head><title>页面</title></head><body>spidersql</body></html>";
+
+    public static void main(String[] args) throws Exception {
+        HttpServer server = start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        IHttpAsyncClient io = new HttpAsyncClient(200, TIMEOUT);
+        AioHttpClient aio = new AioHttpClient(new com.firespider.spidersql.aio.net.http.HttpAsyncClient());
+        String[] urls = {base + "/page", base + "/big", base + "/gzip", base + "/redirect", base + "/missing",
+                base + "/error", "http://127.0.0.1:" + closedPort() + "/refused"};
+        RequestConfig config = new RequestConfig(null, StandardCharsets.UTF_8, TIMEOUT);
+        int pass = 0;
+        for (String url : urls) {
+            String expected = describe(get(io, url, config));
+            String actual = describe(get(aio, url, config));
+            boolean same = expected.equals(actual);
+            if (same) {
+                pass++;
+            }
+            System.out.println((same ? "OK   " : "DIFF ") + url + "\n   io : " + expected + "\n   aio: " + actual);
+        }
+        System.out.println("conformance " + pass + "/" + urls.length);
+        if (args.length > 0) {
+            int total = Integer.parseInt(args[0]);
+            String[] levels = (args.length > 1 ? args[1] : "16,160,1000").split(",");
+            HttpServer[] servers = new HttpServer[BENCH_SERVERS];
+            String[] bases = new String[BENCH_SERVERS];
+            for (int i = 0; i < BENCH_SERVERS; i++) {
+                servers[i] = start();
+                bases[i] = "http://127.0.0.1:" + servers[i].getAddress().getPort();
+            }
+            for (String level : levels) {
+                int concurrency = Integer.parseInt(level.trim());
+                HttpAsyncClient platform = new HttpAsyncClient(Math.min(concurrency, 200), TIMEOUT * 6);
+                bench("io", platform, bases, concurrency, total);
+                platform.close();
+                bench("aio", aio, bases, concurrency, total);
+            }
+            for (String level : (args.length > 2 ? args[2] : "1000,10000").split(",")) {
+                int concurrency = Integer.parseInt(level.trim());
+                HttpAsyncClient pool = new HttpAsyncClient(POOL_THREADS, null, StandardCharsets.UTF_8, TIMEOUT * 6, false);
+                bench("pool", pool, bases, concurrency, total);
+                pool.close();
+                if (VirtualThreads.isSupported()) {
+                    HttpAsyncClient virtual = new HttpAsyncClient(concurrency, null, StandardCharsets.UTF_8, TIMEOUT * 6, true);
+                    bench("virtual", virtual, bases, concurrency, total);
+                    virtual.close();
+                } else {
+                    System.out.println("virtual concurrency=" + concurrency + " skipped: virtual threads require Java 21");
+                }
+            }
+            for (HttpServer s : servers) {
+                s.stop(0);
+            }
+        }
+        server.stop(0);
+        aio.close();
+        System.exit(pass == urls.length ? 0 : 1);
+    }
+
+    private static HttpServer start() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/page", exchange -> send(exchange, 200, PAGE.getBytes(StandardCharsets.UTF_8), false));
+        server.createContext("/big", exchange -> {
+            StringBuilder body = new StringBuilder(PAGE.length() * 20000);
+            for (int i = 0; i < 20000; i++) {
+                body.append(PAGE);
+            }
+            //长度为0时以分块传输发送
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        server.createContext("/gzip", exchange -> send(exchange, 200, PAGE.getBytes(StandardCharsets.UTF_8), true));
+        server.createContext("/redirect", exchange -> {
+            exchange.getResponseHeaders().set("Location", "/page");
+            send(exchange, 302, new byte[0], false);
+        });
+        server.createContext("/missing", exchange -> send(exchange, 404, new byte[0], false));
+        server.createContext("/error", exchange -> send(exchange, 500, new byte[0], false));
+        server.createContext("/delay", exchange -> {
+            try {
+                Thread.sleep(DELAY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            send(exchange, 200, PAGE.getBytes(StandardCharsets.UTF_8), false);
+        });
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(() -> {
+                SERVER_THREADS.incrementAndGet();
+                try {
+                    r.run();
+                } finally {
+                    SERVER_THREADS.decrementAndGet();
+                }
+            }, "bench-server");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.start();
+        return server;
+    }
+
+    private static void send(HttpExchange exchange, int code, byte[] body, boolean gzip) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+        if (gzip) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            java.io.ByteArrayOutputStream buf = new java.io.ByteArrayOutputStream();
+            try (GZIPOutputStream out = new GZIPOutputStream(buf)) {
+                out.write(body);
+            }
+            body = buf.toByteArray();
+        }
+        exchange.sendResponseHeaders(code, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /***
+     * 未监听的本机端口
+     * @return
+     * @throws IOException
+     */
+    private static int closedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static Object get(IHttpAsyncClient client, String url, RequestConfig config) throws Exception {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        client.handleGet(url, config, new CompletionHandler<Response, String>() {
+            @Override
+            public void completed(Response result, String attachment) {
+                future.complete(Objects.equals(attachment, url) ? result : new IllegalStateException("attachment " + attachment));
+            }
+
+            @Override
+            public void failed(Throwable exc, String attachment) {
+                future.complete(exc);
+            }
+        });
+        return future.get(TIMEOUT * 4, TimeUnit.MILLISECONDS);
+    }
+
+    /***
+     * 比较用的结果摘要：响应取状态码、正文、Content-Type与最终URL，失败取异常类型
+     * @param result
+     * @return
+     */
+    private static String describe(Object result) {
+        if (result instanceof Response) {
+            Response response = (Response) result;
+            String body = response.getBody() == null ? "" : response.getBody();
+            return "code=" + response.getCode() + " length=" + body.length() + " hash=" + body.hashCode()
+                    + " type=" + contentType(response.getHeader()) + " url=" + response.getUrl();
+        }
+        return "failed " + result.getClass().getSimpleName();
+    }
+
+    private static Object contentType(Map<?, ?> header) {
+        for (Map.Entry<?, ?> e : header.entrySet()) {
+            if (e.getKey() != null && "Content-Type".equalsIgnoreCase(e.getKey().toString())) {
+                return e.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static void bench(String name, IHttpAsyncClient client, String[] bases, int concurrency, int total) throws Exception {
+        RequestConfig config = new RequestConfig(null, StandardCharsets.UTF_8, TIMEOUT * 6);
+        Semaphore window = new Semaphore(concurrency);
+        CountDownLatch latch = new CountDownLatch(total);
+        AtomicInteger failures = new AtomicInteger();
+        ThreadSampler sampler = new ThreadSampler();
+        sampler.start();
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            window.acquire();
+            client.handleGet(bases[i % bases.length] + "/delay?" + i, config, new CompletionHandler<Response, String>() {
+                @Override
+                public void completed(Response result, String attachment) {
+                    window.release();
+                    latch.countDown();
+                }
+
+                @Override
+                public void failed(Throwable exc, String attachment) {
+                    failures.incrementAndGet();
+                    window.release();
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        long elapsed = Math.max((System.nanoTime() - start) / 1000000, 1);
+        sampler.interrupt();
+        System.out.printf("%-7s concurrency=%-5d requests=%d failures=%d %dms %.0f req/s threads=%d%n",
+                name, concurrency, total, failures.get(), elapsed, total * 1000.0 / elapsed, sampler.peak);
+    }
+
+    /**
+     * 定期采样客户端一侧的平台线程数（JVM中的平台线程扣除服务端线程），记录峰值；虚拟线程不计入
+     */
+    private static class ThreadSampler extends Thread {
+        private static final int INTERVAL = 10;
+
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        private volatile int peak;
+
+        ThreadSampler() {
+            super("bench-sampler");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                peak = Math.max(peak, threads.getThreadCount() - SERVER_THREADS.get());
+                try {
+                    Thread.sleep(INTERVAL);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}